@@ -0,0 +1,62 @@
+package benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import utils.GsonUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH result files, as written by {@code gradle jmh}, and prints the change of every benchmark
+ * that is in both. Exits with 1 if one got slower than the threshold, so a regression fails the build.
+ * <p>
+ * Usage: {@code java benchmark.BenchmarkCompare <results.json> <baseline.json> [threshold percent, default 10]}.
+ */
+public class BenchmarkCompare {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage:  java benchmark.BenchmarkCompare <results.json> <baseline.json> [threshold]");
+            return;
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, Double> results = readScores(Paths.get(args[0]));
+        Map<String, Double> baseline = readScores(Paths.get(args[1]));
+
+        boolean regressed = false;
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            Double before = baseline.get(result.getKey());
+            if (before == null) {
+                continue;
+            }
+            double change = 100 * (result.getValue() - before) / before;
+            boolean slower = change < -threshold;
+            regressed |= slower;
+            System.out.printf("%-70s %+7.1f%%%s%n", result.getKey(), change, slower ? "  REGRESSION" : "");
+        }
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    // Score (operations per time unit) by benchmark method and parameters
+    private static Map<String, Double> readScores(Path path) throws IOException {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (JsonElement element : GsonUtil.GSON.fromJson(Files.readString(path), JsonArray.class)) {
+            JsonObject result = element.getAsJsonObject();
+            String name = result.get("benchmark").getAsString();
+            Map<String, String> params = new TreeMap<>(); // Sorted, so keys are stable between runs
+            if (result.has("params")) {
+                result.getAsJsonObject("params").entrySet().forEach(param -> params.put(param.getKey(), param.getValue().getAsString()));
+            }
+            scores.put(params.isEmpty() ? name : name + params, result.getAsJsonObject("primaryMetric").get("score").getAsDouble());
+        }
+        return scores;
+    }
+}
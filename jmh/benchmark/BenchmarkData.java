@@ -0,0 +1,216 @@
+package benchmark;
+
+import blockchain.FICBlock;
+import blockchain.FICBlockchain;
+import blockchain.FTCBlock;
+import blockchain.FTCBlockchain;
+import com.google.gson.Gson;
+import keystore.NodeKeys;
+import keywrap.X25519KeyWrap;
+import models.FileInfo;
+import models.NodeInfo;
+import models.Transaction;
+import models.UserInfo;
+import models.VoteInfo;
+import rsa.KeyGenerator;
+import utils.BlockUtil;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.StringJoiner;
+
+/**
+ * Data the JMH benchmarks run on, built once per trial in their setup, and the code some of them
+ * compare against: the hashing, election and serialization the node used before.
+ */
+final class BenchmarkData {
+    static final int CHAIN_LENGTH = 1000;
+    static final int SERIALIZED_BLOCKS = 200;
+    static final int CANDIDATES_PER_VOTE = 20;
+
+    private BenchmarkData() {
+    }
+
+    static FICBlockchain buildFICChain(int length, Random random) {
+        FICBlockchain blockchain = new FICBlockchain();
+        for (int i = 1; i < length; i++) {
+            List<List<NodeInfo>> nodeInfos = new ArrayList<>();
+            List<NodeInfo> group = new ArrayList<>();
+            group.add(new NodeInfo("user" + random.nextInt(100), 8000 + random.nextInt(1000), random.nextDouble(), random.nextDouble()));
+            nodeInfos.add(group);
+            List<VoteInfo> voteInfos = new ArrayList<>();
+            voteInfos.add(new VoteInfo("user" + random.nextInt(100), "user" + random.nextInt(100), random.nextDouble()));
+
+            String prevHash = blockchain.getLastBlock().getHash();
+            long timestamp = System.currentTimeMillis();
+            String merkleRoot = BlockUtil.calculateMerkleRoot(nodeInfos, voteInfos);
+            String hash = BlockUtil.calculateFICBlockHash(i, timestamp, prevHash, merkleRoot);
+            blockchain.addBlock(new FICBlock(i, timestamp, nodeInfos, voteInfos, prevHash, merkleRoot, hash));
+        }
+        return blockchain;
+    }
+
+    // Upload-sized blocks: 2048-bit decimal keys, encrypted file keys and signatures
+    static FTCBlockchain buildFTCChain(int length, Random random) {
+        FTCBlockchain blockchain = new FTCBlockchain();
+        for (int i = 1; i < length; i++) {
+            String publicKey = "publicKey=65537," + new BigInteger(2048, random);
+            String encryptedFileKey = new BigInteger(2048, random).toString();
+            NodeInfo sender = new NodeInfo("user" + random.nextInt(100), 8000 + random.nextInt(1000), random.nextDouble(), random.nextDouble());
+
+            FileInfo fileInfo = new FileInfo("file" + i + ".txt", "Qm" + Long.toHexString(random.nextLong()), encryptedFileKey);
+            List<UserInfo> userInfos = new ArrayList<>();
+            userInfos.add(new UserInfo(publicKey, encryptedFileKey));
+            userInfos.add(new UserInfo("null", encryptedFileKey));
+            Transaction transaction = new Transaction(sender, null, fileInfo.getFileName(), fileInfo.getFileHash(), publicKey, null,
+                    encryptedFileKey, "upload", new BigInteger(2048, random).toString(), null);
+
+            String prevHash = blockchain.getLastBlock().getHash();
+            long timestamp = System.currentTimeMillis();
+            String hash = BlockUtil.calculateFTCBlockHash(i, timestamp, fileInfo, userInfos, transaction, prevHash);
+            blockchain.addBlock(new FTCBlock(i, timestamp, fileInfo, userInfos, transaction, prevHash, hash));
+        }
+        return blockchain;
+    }
+
+    // validateChain's loop with the Gson toString() preimage the FTC hash used before the canonical encoding
+    static int legacyValidateChain(List<FTCBlock> chain) throws Exception {
+        int checked = 0;
+        for (int i = 1; i < chain.size(); i++) {
+            FTCBlock block = chain.get(i);
+            String dataToHash = block.getIndex() + "|" + block.getTimestamp() + "|" + block.getFileInfo() + "|" + block.getUserInfos()
+                    + "|" + block.getTransactions() + "|" + block.getPrevHash();
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(dataToHash.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hexString = new StringBuilder();
+            for (byte b : hash) {
+                String hex = Integer.toHexString(0xff & b);
+                if (hex.length() == 1) {
+                    hexString.append('0');
+                }
+                hexString.append(hex);
+            }
+            if (!hexString.isEmpty() && block.getPrevHash().equals(chain.get(i - 1).getHash())) {
+                checked++;
+            }
+        }
+        return checked;
+    }
+
+    // A network of the given size with random scores
+    static List<NodeInfo> electionNodes(int size) {
+        Random random = new Random(42);
+        List<NodeInfo> nodes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            nodes.add(new NodeInfo("node" + i, 8000 + i, random.nextDouble(), random.nextDouble()));
+        }
+        return nodes;
+    }
+
+    // One vote per node, each for CANDIDATES_PER_VOTE of the top-scoring fifth of the network
+    static List<VoteInfo> electionVotes(int size) {
+        Random random = new Random(42);
+        List<VoteInfo> votes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            StringJoiner candidates = new StringJoiner(",");
+            for (int j = 0; j < CANDIDATES_PER_VOTE; j++) {
+                candidates.add("node" + random.nextInt(Math.max(1, size / 5)));
+            }
+            votes.add(new VoteInfo("node" + i, candidates.toString(), random.nextDouble()));
+        }
+        return votes;
+    }
+
+    // The full sort electLeader used before ElectionEngine
+    static List<NodeInfo> legacyElectLeader(List<NodeInfo> nodeInfos, int numLeaders) {
+        nodeInfos.sort((n1, n2) -> {
+            int efficiencyComparison = Double.compare(n2.getEfficiencyScore(), n1.getEfficiencyScore());
+            if (efficiencyComparison != 0) {
+                return efficiencyComparison;
+            }
+            return Double.compare(n2.getReputationScore(), n1.getReputationScore());
+        });
+        return new ArrayList<>(nodeInfos.subList(0, numLeaders));
+    }
+
+    // The boxed map and stream sort calculateVotes used before ElectionEngine
+    static List<String> legacyCalculateVotes(List<VoteInfo> voteInfos, int leadersToSelect) {
+        Map<String, Double> voteCounts = new HashMap<>();
+        for (VoteInfo voteInfo : voteInfos) {
+            for (String nodeId : voteInfo.getCandidateId().split(",")) {
+                voteCounts.put(nodeId, voteCounts.getOrDefault(nodeId, 0.0) + voteInfo.getVoteWeight());
+            }
+        }
+        return voteCounts.entrySet().stream()
+                .sorted((e1, e2) -> Double.compare(e2.getValue(), e1.getValue()))
+                .limit(leadersToSelect)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    // JSON of every block, with a new reflective Gson per block if gson is null, as the models used to do
+    static List<String> toJson(List<FTCBlock> blocks, Gson gson) {
+        List<String> json = new ArrayList<>(blocks.size());
+        for (FTCBlock block : blocks) {
+            json.add((gson != null ? gson : new Gson()).toJson(block));
+        }
+        return json;
+    }
+
+    static List<FTCBlock> fromJson(List<String> json, Gson gson) {
+        List<FTCBlock> blocks = new ArrayList<>(json.size());
+        for (String block : json) {
+            blocks.add((gson != null ? gson : new Gson()).fromJson(block, FTCBlock.class));
+        }
+        return blocks;
+    }
+
+    // AES and HMAC keys for the file benchmarks
+    static SecretKeySpec[] fileKeys() {
+        byte[] key = randomBytes(32);
+        return new SecretKeySpec[]{new SecretKeySpec(key, 0, 16, "AES"), new SecretKeySpec(key, 16, 16, "HmacSHA256")};
+    }
+
+    // RSA and X25519 keys of a benchmark node
+    static NodeKeys benchmarkKeys() {
+        KeyGenerator.KeyPair keys = KeyGenerator.getRSAKeys();
+        return X25519KeyWrap.addKeys(new NodeKeys("bench", Map.of(
+                "publicKey", keys.publicKey().e() + "," + keys.publicKey().n(),
+                "privateKey", keys.privateKey().d() + "," + keys.privateKey().n())));
+    }
+
+    static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    // A file with the content, deleted when the JVM exits
+    static Path tempFile(byte[] content) {
+        try {
+            Path path = Files.createTempFile("benchmark", ".bin");
+            path.toFile().deleteOnExit();
+            return Files.write(path, content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,47 @@
+package benchmark;
+
+import blockchain.FICBlock;
+import blockchain.FTCBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.BlockUtil;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Hash of one FIC block and of one upload-sized FTC block
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockHashBenchmark {
+    private FICBlock ficBlock;
+    private FTCBlock ftcBlock;
+
+    @Setup
+    public void setup() {
+        ficBlock = BenchmarkData.buildFICChain(2, new Random(42)).getLastBlock();
+        ftcBlock = BenchmarkData.buildFTCChain(2, new Random(42)).getLastBlock();
+    }
+
+    @Benchmark
+    public String ficHash() {
+        return BlockUtil.calculateFICBlockHash(ficBlock.getIndex(), ficBlock.getTimestamp(), ficBlock.getPrevHash(), ficBlock.getMerkleRoot());
+    }
+
+    @Benchmark
+    public String ftcHash() {
+        return BlockUtil.calculateFTCBlockHash(ftcBlock.getIndex(), ftcBlock.getTimestamp(),
+                ftcBlock.getFileInfo(), ftcBlock.getUserInfos(), ftcBlock.getTransactions(), ftcBlock.getPrevHash());
+    }
+}
@@ -0,0 +1,54 @@
+package benchmark;
+
+import blockchain.FICBlockchain;
+import blockchain.FTCBlock;
+import blockchain.FTCBlockchain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Validation of whole chains of BenchmarkData.CHAIN_LENGTH blocks, the FTC chain also with the hash it had before the canonical encoding
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChainBenchmark {
+    private FICBlockchain ficBlockchain;
+    private FTCBlockchain ftcBlockchain;
+    private List<FTCBlock> ftcChain;
+
+    @Setup
+    public void setup() {
+        ficBlockchain = BenchmarkData.buildFICChain(BenchmarkData.CHAIN_LENGTH, new Random(42));
+        ftcBlockchain = BenchmarkData.buildFTCChain(BenchmarkData.CHAIN_LENGTH, new Random(42));
+        ftcChain = ftcBlockchain.getChain();
+    }
+
+    @Benchmark
+    public boolean ficValidate() {
+        return ficBlockchain.validateChain();
+    }
+
+    @Benchmark
+    public boolean ftcValidate() {
+        return ftcBlockchain.validateChain();
+    }
+
+    @Benchmark
+    public int ftcValidateLegacyHash() throws Exception {
+        return BenchmarkData.legacyValidateChain(ftcChain);
+    }
+}
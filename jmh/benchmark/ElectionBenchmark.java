@@ -0,0 +1,63 @@
+package benchmark;
+
+import models.NodeInfo;
+import models.VoteInfo;
+import node.ElectionEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Leader election with ElectionEngine against the full sort and boxed tally Node used to do, electing a fifth of the network
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ElectionBenchmark {
+    @Param({"10000", "100000"})
+    private int nodes;
+
+    private List<NodeInfo> nodeInfos;
+    private List<VoteInfo> votes;
+    private int leaders;
+
+    @Setup
+    public void setup() {
+        nodeInfos = BenchmarkData.electionNodes(nodes);
+        votes = BenchmarkData.electionVotes(nodes);
+        leaders = Math.max(1, nodes / 5);
+    }
+
+    @Benchmark
+    public List<NodeInfo> selectEngine() {
+        return ElectionEngine.selectTopNodes(nodeInfos, leaders);
+    }
+
+    @Benchmark
+    public List<NodeInfo> selectLegacy() {
+        return BenchmarkData.legacyElectLeader(new ArrayList<>(nodeInfos), leaders);
+    }
+
+    @Benchmark
+    public List<String> tallyEngine() {
+        return ElectionEngine.tallyVotes(votes, leaders);
+    }
+
+    @Benchmark
+    public List<String> tallyLegacy() {
+        return BenchmarkData.legacyCalculateVotes(votes, leaders);
+    }
+}
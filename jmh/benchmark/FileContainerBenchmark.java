@@ -0,0 +1,63 @@
+package benchmark;
+
+import fernet.CipherSuite;
+import fernet.EncryptDecrypt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// The binary container through 16 MB files on disk, against the Base64 tokens of FileEncryptionBenchmark
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileContainerBenchmark {
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    @Param({"fernet", "aes-gcm"})
+    private String suite;
+
+    private CipherSuite cipherSuite;
+    private SecretKeySpec[] keys;
+    private Path plainFile;
+    private Path encryptedFile;
+    private Path encryptedInput;
+    private Path decryptedFile;
+
+    @Setup
+    public void setup() throws Exception {
+        cipherSuite = CipherSuite.forName(suite);
+        keys = BenchmarkData.fileKeys();
+        plainFile = BenchmarkData.tempFile(BenchmarkData.randomBytes(FILE_SIZE));
+        encryptedFile = BenchmarkData.tempFile(new byte[0]);
+        encryptedInput = BenchmarkData.tempFile(new byte[0]);
+        decryptedFile = BenchmarkData.tempFile(new byte[0]);
+        EncryptDecrypt.encryptFile(plainFile.toString(), encryptedInput.toString(), keys[0], keys[1], cipherSuite);
+    }
+
+    @Benchmark
+    public Path encryptFile() throws Exception {
+        EncryptDecrypt.encryptFile(plainFile.toString(), encryptedFile.toString(), keys[0], keys[1], cipherSuite);
+        return encryptedFile;
+    }
+
+    @Benchmark
+    public Path decryptFile() throws Exception {
+        EncryptDecrypt.decryptFile(encryptedInput.toString(), decryptedFile.toString(), keys[0], keys[1]);
+        return decryptedFile;
+    }
+}
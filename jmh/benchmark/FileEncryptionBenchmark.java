@@ -0,0 +1,56 @@
+package benchmark;
+
+import fernet.CipherSuite;
+import fernet.EncryptDecrypt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.util.concurrent.TimeUnit;
+
+// File encryption to Base64 tokens in memory, per cipher suite and payload size
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileEncryptionBenchmark {
+    @Param({"fernet", "aes-gcm"})
+    private String suite;
+
+    @Param({"1024", "65536", "1048576", "16777216"})
+    private int bytes;
+
+    private CipherSuite cipherSuite;
+    private SecretKeySpec[] keys;
+    private byte[] payload;
+    private String token;
+
+    @Setup
+    public void setup() throws Exception {
+        cipherSuite = CipherSuite.forName(suite);
+        keys = BenchmarkData.fileKeys();
+        payload = BenchmarkData.randomBytes(bytes);
+        token = EncryptDecrypt.encrypt(payload, keys[0], keys[1], cipherSuite);
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return EncryptDecrypt.encrypt(payload, keys[0], keys[1], cipherSuite);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return EncryptDecrypt.decrypt(token, keys[0], keys[1]);
+    }
+}
@@ -0,0 +1,41 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.HashUtil;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// SHA-256 of short strings, as for vote digests and block hashes
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+    @Param({"64", "1024"})
+    private int bytes;
+
+    private String input;
+
+    @Setup
+    public void setup() {
+        input = BenchmarkData.randomText(new Random(42), bytes);
+    }
+
+    @Benchmark
+    public String sha256() {
+        return HashUtil.generateSHA256(input);
+    }
+}
@@ -0,0 +1,32 @@
+package benchmark;
+
+import keystore.NodeKeys;
+import keywrap.X25519KeyWrap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// X25519 key pairs, as genX25519Keys adds them to a node's keys
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyGenerationBenchmark {
+    private final NodeKeys emptyKeys = new NodeKeys("bench", Map.of());
+
+    @Benchmark
+    public NodeKeys x25519() {
+        return X25519KeyWrap.addKeys(emptyKeys);
+    }
+}
@@ -0,0 +1,56 @@
+package benchmark;
+
+import keystore.NodeKeys;
+import keywrap.KeyWrap;
+import keywrap.KeyWraps;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+// Wrapping a Fernet key for a receiver and unwrapping it again, per key-wrap scheme
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyWrapBenchmark {
+    @Param({"rsa", "x25519"})
+    private String scheme;
+
+    private KeyWrap keyWrap;
+    private NodeKeys nodeKeys;
+    private String fernetKey;
+    private String publicKey;
+    private String wrapped;
+
+    @Setup
+    public void setup() throws Exception {
+        keyWrap = KeyWraps.get(scheme);
+        nodeKeys = BenchmarkData.benchmarkKeys();
+        fernetKey = Base64.getEncoder().encodeToString(BenchmarkData.randomBytes(32));
+        publicKey = keyWrap.publicKey(nodeKeys);
+        wrapped = keyWrap.wrap(fernetKey, publicKey);
+    }
+
+    @Benchmark
+    public String wrap() throws Exception {
+        return keyWrap.wrap(fernetKey, publicKey);
+    }
+
+    @Benchmark
+    public String unwrap() throws Exception {
+        return keyWrap.unwrap(wrapped, nodeKeys);
+    }
+}
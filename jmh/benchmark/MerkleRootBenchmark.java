@@ -0,0 +1,54 @@
+package benchmark;
+
+import models.NodeInfo;
+import models.VoteInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.BlockUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Merkle root of the groups and votes of an FIC block, one group with one vote per node
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MerkleRootBenchmark {
+    @Param({"100", "1000"})
+    private int nodes;
+
+    private List<List<NodeInfo>> nodeInfos;
+    private List<VoteInfo> voteInfos;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        List<NodeInfo> group = new ArrayList<>();
+        voteInfos = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            group.add(new NodeInfo("user" + i, 8000 + i, random.nextDouble(), random.nextDouble()));
+            voteInfos.add(new VoteInfo("user" + i, "user" + random.nextInt(nodes), random.nextDouble()));
+        }
+        nodeInfos = new ArrayList<>();
+        nodeInfos.add(group);
+    }
+
+    @Benchmark
+    public String merkleRoot() {
+        return BlockUtil.calculateMerkleRoot(nodeInfos, voteInfos);
+    }
+}
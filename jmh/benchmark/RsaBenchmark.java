@@ -0,0 +1,48 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rsa.EncryptDecrypt;
+import rsa.KeyGenerator;
+import utils.HashUtil;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+// A Fernet key as the upload encrypts it for the owner, and a digest signed like a transaction
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RsaBenchmark {
+    private KeyGenerator.KeyPair keys;
+    private BigInteger fileKey;
+    private BigInteger digest;
+
+    @Setup
+    public void setup() {
+        keys = KeyGenerator.getRSAKeys();
+        fileKey = new BigInteger(1, BenchmarkData.randomBytes(32));
+        digest = new BigInteger(1, HashUtil.sha256().digest(BenchmarkData.randomBytes(32)));
+    }
+
+    @Benchmark
+    public BigInteger encrypt() {
+        return EncryptDecrypt.encrypt(fileKey, keys.publicKey().e(), keys.publicKey().n());
+    }
+
+    @Benchmark
+    public String sign() {
+        return EncryptDecrypt.sign(digest, keys.privateKey().d(), keys.privateKey().n());
+    }
+}
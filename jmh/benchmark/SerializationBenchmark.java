@@ -0,0 +1,56 @@
+package benchmark;
+
+import blockchain.FTCBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.GsonUtil;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Upload-sized FTC blocks through the shared Gson and its adapters, against a new reflective Gson per block
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    private List<FTCBlock> blocks;
+    private List<String> json;
+
+    @Setup
+    public void setup() {
+        blocks = BenchmarkData.buildFTCChain(BenchmarkData.SERIALIZED_BLOCKS, new Random(7)).getChain();
+        json = BenchmarkData.toJson(blocks, GsonUtil.GSON);
+    }
+
+    @Benchmark
+    public List<String> toJsonShared() {
+        return BenchmarkData.toJson(blocks, GsonUtil.GSON);
+    }
+
+    @Benchmark
+    public List<String> toJsonReflective() {
+        return BenchmarkData.toJson(blocks, null);
+    }
+
+    @Benchmark
+    public List<FTCBlock> fromJsonShared() {
+        return BenchmarkData.fromJson(json, GsonUtil.GSON);
+    }
+
+    @Benchmark
+    public List<FTCBlock> fromJsonReflective() {
+        return BenchmarkData.fromJson(json, null);
+    }
+}
@@ -0,0 +1,276 @@
+package benchmark;
+
+import metrics.Metrics;
+import node.Node;
+import rsa.KeyGenerator;
+import transport.InMemoryNetwork;
+import transport.NioTransport;
+import transport.Transport;
+import utils.IPFSUtil;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Runs a whole network of {@link Node}s in one JVM and reports where the time goes. The nodes talk over
+ * an {@link InMemoryNetwork} by default, or over TCP on loopback ports with {@code nio}.
+ * <p>
+ * For every network size the simulator starts the nodes, drives a number of election rounds by triggering
+ * all nodes at once (a {@link SimulatedClock} keeps epochs and leader timeouts from firing on their own),
+ * then has user1 upload files, share one with user2 and download one, against an in-memory file storage
+ * instead of IPFS. It reports the time until every node has the new FIC / FTC block, the upload
+ * throughput and the messages sent. A round or step that does not reach every node in time fails the run: it
+ * prints a FAILED line, leaves out the times that would only cover part of the work and exits with 1.
+ * <p>
+ * Usage: {@code java benchmark.ClusterSimulator [sizes=5,20,50] [rounds=3] [uploads=5] [memory|nio]}. Every node
+ * needs RSA keys to vote, so they are provisioned into a temporary keystore first, user1 and user2 keep their other
+ * keys from {@code keys/}. The uploaded file is {@code files/test.txt}.
+ */
+public class ClusterSimulator {
+    private static final int BASE_PORT = 8000;
+    private static final long EPOCH_MILLIS = 120000; // Simulated time between rounds
+    private static final long STEP_TIMEOUT_MILLIS = 15000; // Time for a block to reach all nodes, plus PER_NODE_TIMEOUT_MILLIS per node
+    private static final long PER_NODE_TIMEOUT_MILLIS = 100;
+    private static final String UPLOAD_FILE = "files/test.txt";
+
+    private final int size;
+    private final boolean nio;
+    private final InMemoryNetwork network = new InMemoryNetwork();
+    private final SimulatedClock clock = new SimulatedClock(0);
+    private final List<Node> nodes = new ArrayList<>();
+
+    private ClusterSimulator(int size, boolean nio) {
+        this.size = size;
+        this.nio = nio;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = (args.length > 0 ? args[0] : "5,20,50").split(",");
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int uploads = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        boolean nio = args.length > 3 && "nio".equals(args[3]);
+
+        // Rounds are driven by the simulator, nothing is served or dumped, journals and keys go to a temporary directory
+        Path journalDir = Files.createTempDirectory("cluster-sim");
+        setDefault("node.epochMillis", String.valueOf(EPOCH_MILLIS));
+        setDefault("node.minEpochMillis", String.valueOf(EPOCH_MILLIS));
+        setDefault("node.leaderTimeoutMillis", String.valueOf(100 * EPOCH_MILLIS)); // Advancing the clock must not look like a dead leader
+        setDefault("node.ingressWorkers", "2");
+        setDefault("node.metricsPort", "-1");
+        setDefault("node.metricsDumpMillis", "0");
+        setDefault("node.journalDir", journalDir.toString());
+        setDefault("node.journalSync", "false");
+        setDefault("log.level", "WARN");
+        setDefault("node.keystore", journalDir.resolve("keystore.bin").toString());
+        setDefault("node.keyDirectory", journalDir.resolve("directory.bin").toString());
+        IPFSUtil.setStorage(new InMemoryFileStorage());
+
+        int maxSize = 0;
+        for (String size : sizes) {
+            maxSize = Math.max(maxSize, Integer.parseInt(size.trim()));
+        }
+        KeyGenerator.provision(maxSize, "user");
+
+        boolean passed = true;
+        for (String size : sizes) {
+            passed &= new ClusterSimulator(Integer.parseInt(size.trim()), nio).run(rounds, uploads);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    // Returns false if a round or step did not reach every node
+    private boolean run(int rounds, int uploads) throws InterruptedException {
+        Map<String, Long> countersBefore = Metrics.counters();
+
+        long start = System.nanoTime();
+        startNodes();
+        double startSeconds = (System.nanoTime() - start) / 1e9;
+
+        // Election rounds, each one ends when every node has the FIC block of the round
+        List<Long> roundMillis = new ArrayList<>();
+        int failedRounds = 0;
+        for (int i = 0; i < rounds; i++) {
+            int target = minHeight(node -> node.getFicBlockchain().getHeight()) + 1;
+            clock.advance(EPOCH_MILLIS);
+            long roundStart = System.nanoTime();
+            for (Node node : nodes) {
+                node.triggerRound();
+            }
+            if (waitFor(() -> minHeight(node -> node.getFicBlockchain().getHeight()) >= target)) {
+                roundMillis.add((System.nanoTime() - roundStart) / 1_000_000);
+            } else {
+                failedRounds++;
+            }
+        }
+
+        // Uploads, then a share and a download of the first uploaded file, each one until every node has its FTC block
+        Node user1 = nodes.get(0);
+        List<Long> uploadMillis = new ArrayList<>();
+        int firstFileBlock = user1.getFtcBlockchain().getHeight();
+        long uploadsStart = System.nanoTime();
+        for (int i = 0; i < uploads; i++) {
+            uploadMillis.add(ftcStep(() -> user1.uploadFile(UPLOAD_FILE)));
+        }
+        double uploadSeconds = (System.nanoTime() - uploadsStart) / 1e9;
+        long shareMillis = uploads > 0 ? ftcStep(() -> user1.shareFile(firstFileBlock, "user2")) : -1;
+        long downloadMillis = uploads > 0 ? ftcStep(() -> user1.downloadFile(firstFileBlock)) : -1;
+
+        Map<String, Long> messages = delta(countersBefore, Metrics.counters(), "messages.sent.");
+        long sent = messages.values().stream().mapToLong(Long::longValue).sum();
+
+        // Times are only reported when every round / upload made it, an average over the ones that did is not comparable
+        int uploadsDone = countDone(uploadMillis);
+        String throughput = uploads > 0 && uploadsDone == uploads ? String.format("%.2f/s", uploads / uploadSeconds) : "-";
+        System.out.printf("nodes=%d start=%.2fs rounds=%d/%d round avg=%s max=%s | uploads=%d/%d avg=%s max=%s throughput=%s | share=%s download=%s | messages=%d (%.0f per node)%n",
+                size, startSeconds, roundMillis.size(), rounds, avg(roundMillis, rounds), max(roundMillis, rounds),
+                uploadsDone, uploads, avg(uploadMillis, uploads), max(uploadMillis, uploads), throughput,
+                millis(shareMillis), millis(downloadMillis), sent, (double) sent / size);
+        System.out.println("  messages by type: " + messages);
+        Map<String, Long> compression = delta(countersBefore, Metrics.counters(), "compression.");
+        for (String chain : new String[]{"fic", "ftc"}) {
+            long bytesIn = compression.getOrDefault(chain + ".bytesIn", 0L);
+            long bytesOut = compression.getOrDefault(chain + ".bytesOut", 0L);
+            if (bytesOut > 0) {
+                System.out.printf("  %s block compression: %d -> %d bytes (%.1fx)%n", chain, bytesIn, bytesOut, (double) bytesIn / bytesOut);
+            }
+        }
+
+        List<String> failures = new ArrayList<>();
+        if (failedRounds > 0) {
+            failures.add(failedRounds + "/" + rounds + " rounds");
+        }
+        if (uploadsDone < uploads) {
+            failures.add((uploads - uploadsDone) + "/" + uploads + " uploads");
+        }
+        if (uploads > 0 && shareMillis < 0) {
+            failures.add("share");
+        }
+        if (uploads > 0 && downloadMillis < 0) {
+            failures.add("download");
+        }
+        if (!failures.isEmpty()) {
+            System.out.println("FAILED nodes=" + size + ": " + String.join(", ", failures) + " did not reach every node in time");
+        }
+
+        stopNodes();
+        return failures.isEmpty();
+    }
+
+    // user1 and user2 get the key files and the top scores, like in the makefile setup
+    private void startNodes() throws InterruptedException {
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            String nodeId = "user" + (i + 1);
+            // Distinct scores: on a tie every tied node ranks itself first and the network splits over the leader
+            double score = i < 2 ? 0.99 - 0.01 * i : 0.9 * random.nextDouble();
+            double efficiencyScore = score;
+            double reputationScore = i < 2 ? score : 0.9 * random.nextDouble();
+            Transport transport = nio ? new NioTransport(nodeId, 2000) : network.newTransport();
+            nodes.add(new Node(nodeId, BASE_PORT + i, efficiencyScore, reputationScore, clock, transport));
+        }
+
+        List<Thread> starters = new ArrayList<>();
+        for (Node node : nodes) {
+            Thread starter = new Thread(() -> node.start(false), "start-" + node.getNodeId());
+            starter.start();
+            starters.add(starter);
+        }
+        for (Thread starter : starters) {
+            starter.join();
+        }
+    }
+
+    private void stopNodes() throws InterruptedException {
+        for (Node node : nodes) {
+            node.stop();
+        }
+        nodes.clear();
+        network.shutdown();
+        Thread.sleep(500); // Let in-flight messages to the closed ports fail before the next network starts
+    }
+
+    private interface Step {
+        String run();
+    }
+
+    // Runs an upload / share / download step, returns the time until all nodes have its block or -1
+    private long ftcStep(Step step) throws InterruptedException {
+        int target = nodes.get(0).getFtcBlockchain().getHeight() + 1;
+        long start = System.nanoTime();
+        if (step.run() == null) {
+            return -1;
+        }
+        if (!waitFor(() -> minHeight(node -> node.getFtcBlockchain().getHeight()) >= target)) {
+            return -1;
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private int minHeight(ToIntFunction<Node> height) {
+        int min = Integer.MAX_VALUE;
+        for (Node node : nodes) {
+            min = Math.min(min, height.applyAsInt(node));
+        }
+        return min;
+    }
+
+    private boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + STEP_TIMEOUT_MILLIS + PER_NODE_TIMEOUT_MILLIS * size;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    // Counter increase between two snapshots, for the counters starting with prefix
+    private static Map<String, Long> delta(Map<String, Long> before, Map<String, Long> after, String prefix) {
+        Map<String, Long> delta = new TreeMap<>();
+        after.forEach((name, value) -> {
+            if (name.startsWith(prefix)) {
+                delta.put(name.substring(prefix.length()), value - before.getOrDefault(name, 0L));
+            }
+        });
+        return delta;
+    }
+
+    private static int countDone(List<Long> millis) {
+        return (int) millis.stream().filter(m -> m >= 0).count();
+    }
+
+    // "-" unless all expected steps are done
+    private static String avg(List<Long> millis, int expected) {
+        if (expected == 0 || countDone(millis) < expected) {
+            return "-";
+        }
+        return millis.stream().filter(m -> m >= 0).mapToLong(Long::longValue).average().stream()
+                .mapToObj(avg -> String.format("%.0fms", avg)).findFirst().orElse("-");
+    }
+
+    private static String max(List<Long> millis, int expected) {
+        if (expected == 0 || countDone(millis) < expected) {
+            return "-";
+        }
+        return millis.stream().filter(m -> m >= 0).mapToLong(Long::longValue).max().stream()
+                .mapToObj(max -> max + "ms").findFirst().orElse("-");
+    }
+
+    private static String millis(long millis) {
+        return millis < 0 ? "-" : millis + "ms";
+    }
+}
@@ -0,0 +1,34 @@
+package benchmark;
+
+import utils.FileStorage;
+import utils.HashUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Stand-in for IPFS in simulations: files are kept in memory under the SHA-256 of their content
+public class InMemoryFileStorage implements FileStorage {
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+    @Override
+    public String upload(String filePath) throws IOException {
+        byte[] content = Files.readAllBytes(Paths.get(filePath));
+        String cid = "sim" + HashUtil.toHex(HashUtil.sha256().digest(content));
+        files.put(cid, content);
+        return cid;
+    }
+
+    @Override
+    public void download(String cid, String outputPath) throws IOException {
+        byte[] content = files.get(cid);
+        if (content == null) {
+            throw new IOException("No file stored for " + cid);
+        }
+        Path path = Paths.get(outputPath);
+        Files.write(path, content);
+    }
+}
@@ -0,0 +1,173 @@
+package blockchain;
+
+import metrics.Metrics;
+import utils.GsonUtil;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of block payloads in the block journal, sync responses and consensus messages.
+ * <p>
+ * A block (or list of blocks) whose JSON is at least {@code node.compressionThreshold} bytes (default 256)
+ * is deflated with a preset dictionary for its chain, holding the field names and values that every block
+ * of that chain repeats, and written as {@code ~<chain tag><Base64>}. Smaller payloads stay JSON.
+ * Base64 has no '-' or newline, so compressed payloads fit the line-based protocol as they are.
+ * {@link #decode} takes both forms, so a node with {@code node.blockCompression=none} still reads
+ * compressed blocks from its peers. A payload that inflates to more than {@code node.maxBlockPayloadBytes}
+ * (default 64 MB, the longest line a node accepts) is rejected before it is inflated any further.
+ * <p>
+ * Bytes in and out per chain are counted in {@code compression.<chain>.bytesIn} / {@code .bytesOut},
+ * the time to compress and decompress in the {@code compression.<chain>.encode} / {@code .decode} histograms.
+ */
+public final class BlockCodec {
+    private static final boolean ENABLED = !"none".equals(System.getProperty("node.blockCompression", "deflate"));
+    private static final int THRESHOLD = Integer.getInteger("node.compressionThreshold", 256);
+    private static final int MAX_INFLATED_BYTES = Math.min(Integer.getInteger("node.maxBlockPayloadBytes", 64 * 1024 * 1024), Integer.MAX_VALUE - 8);
+    private static final char PREFIX = '~';
+
+    // Deflate finds matches closer to the end of the dictionary with shorter codes, so the most common strings go last
+    private static final String FIC_DICTIONARY = "{\"voterId\":\"user\",\"candidateId\":\"user\",\"voteWeight\":0."
+            + "\"merkleRoot\":\"\",\"voteInfos\":[],\"hash\":\"\"}"
+            + "{\"index\":,\"timestamp\":000,\"prevHash\":\"\",\"nodeInfos\":[[{\"nodeId\":\"user\",\"nodePort\":80"
+            + ",\"efficiencyScore\":0.99,\"reputationScore\":0.99},{\"nodeId\":\"user\",\"nodePort\":80"
+            + ",\"efficiencyScore\":0.,\"reputationScore\":0.}],[{\"nodeId\":\"user";
+    private static final String FTC_DICTIONARY = "\"keyWrap\":\"rsa\"\"keyWrap\":\"x25519\"\"publicKeys\":{\"\":\"publicKey=65537,\"}"
+            + "\"transactionType\":\"groupShare\"\"transactionType\":\"download\"\"transactionType\":\"share\""
+            + "{\"index\":,\"timestamp\":000,\"fileInfo\":{\"fileName\":\"\",\"fileHash\":\"Qm\",\"encryptedFileKey\":\"\"}"
+            + ",\"userInfos\":[{\"publicKey\":\"null\",\"encryptedFileKey\":\"\"}],\"transactions\":{\"sender\":{\"nodeId\":\"user\""
+            + ",\"nodePort\":80,\"efficiencyScore\":0.,\"reputationScore\":0.},\"receiver\":{\"nodeId\":\"user\",\"fileName\":\""
+            + "\",\"fileHash\":\"\",\"senderPublicKey\":\"\",\"receiverPublicKey\":\"\",\"encryptedFileKey\":\""
+            + "\",\"transactionType\":\"upload\",\"creatorSign\":\"\",\"validatorSign\":null},\"prevHash\":\"\",\"hash\":\"";
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    // The chains, each with its own dictionary and tag
+    public enum Chain {
+        FIC('I', FIC_DICTIONARY),
+        FTC('T', FTC_DICTIONARY);
+
+        private final char tag;
+        private final byte[] dictionary;
+        private final String metric;
+
+        Chain(char tag, String dictionary) {
+            this.tag = tag;
+            this.dictionary = dictionary.getBytes(StandardCharsets.UTF_8);
+            this.metric = "compression." + name().toLowerCase();
+        }
+
+        static Chain forTag(char tag) {
+            for (Chain chain : values()) {
+                if (chain.tag == tag) {
+                    return chain;
+                }
+            }
+            throw new IllegalArgumentException("Unknown block payload tag " + tag);
+        }
+
+        // The chain of a block or of the first block of a list, null for anything else
+        static Chain of(Object block) {
+            if (block instanceof List<?> blocks) {
+                return blocks.isEmpty() ? null : of(blocks.get(0));
+            }
+            if (block instanceof FICBlock) {
+                return FIC;
+            }
+            return block instanceof FTCBlock ? FTC : null;
+        }
+    }
+
+    private BlockCodec() {
+    }
+
+    // The payload of a block or list of blocks
+    public static String encode(Object block) {
+        String json = GsonUtil.GSON.toJson(block);
+        Chain chain = Chain.of(block);
+        return chain == null ? json : encode(json, chain);
+    }
+
+    // The payload of block JSON, compressed if compression is on and the JSON is large enough
+    public static String encode(String json, Chain chain) {
+        if (!ENABLED || json.length() < THRESHOLD) {
+            return json;
+        }
+        long start = System.nanoTime();
+        byte[] input = json.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setDictionary(chain.dictionary);
+        deflater.setInput(input);
+        deflater.finish();
+
+        byte[] output = new byte[input.length / 2 + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        String payload = PREFIX + String.valueOf(chain.tag) + Base64.getEncoder().encodeToString(Arrays.copyOf(output, length));
+
+        Metrics.add(chain.metric + ".bytesIn", input.length);
+        Metrics.add(chain.metric + ".bytesOut", payload.length());
+        Metrics.recordSince(chain.metric + ".encode", start);
+        return payload;
+    }
+
+    // The block JSON of a payload, compressed or not; IllegalArgumentException if it inflates beyond the limit
+    public static String decode(String payload) {
+        if (payload == null || payload.length() < 2 || payload.charAt(0) != PREFIX) {
+            return payload;
+        }
+        long start = System.nanoTime();
+        Chain chain = Chain.forTag(payload.charAt(1));
+        byte[] input = Base64.getDecoder().decode(payload.substring(2));
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setDictionary(chain.dictionary);
+        inflater.setInput(input);
+
+        byte[] output = new byte[(int) Math.min(input.length * 4L + 64, MAX_INFLATED_BYTES + 1L)];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length > MAX_INFLATED_BYTES) {
+                    throw new IllegalArgumentException("Compressed block payload inflates to more than " + MAX_INFLATED_BYTES + " bytes.");
+                }
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, (int) Math.min(output.length * 2L, MAX_INFLATED_BYTES + 1L));
+                }
+                int inflated = inflater.inflate(output, length, output.length - length);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IllegalArgumentException("Compressed block payload is truncated.");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed block payload: " + e.getMessage(), e);
+        }
+
+        Metrics.recordSince(chain.metric + ".decode", start);
+        return new String(output, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Parses a payload, compressed or not, into a block
+    public static <T> T parse(String payload, Class<T> type) {
+        return GsonUtil.GSON.fromJson(decode(payload), type);
+    }
+
+    // Parses a payload, compressed or not, into a list of blocks
+    public static <T> T parse(String payload, Type type) {
+        return GsonUtil.GSON.fromJson(decode(payload), type);
+    }
+}
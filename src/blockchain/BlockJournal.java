@@ -0,0 +1,157 @@
+package blockchain;
+
+import logging.Log;
+import metrics.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Append-only log of the blocks added to a chain, one block per line: compact JSON, or compressed by
+ * {@link BlockCodec} if it is large. When the chain is replaced by a longer one from a peer, a
+ * {@code #fork <index>} line is written before the new blocks: the blocks from that index on written
+ * before it are no longer part of the chain, so a reader drops them and continues with the lines after it.
+ * <p>
+ * {@link #append} only queues the block; a writer thread takes everything queued so far, writes it
+ * with a single write on one open {@link FileChannel} and, if {@code sync} is set, forces it to disk
+ * once for the whole batch (group commit). Adding a block therefore never waits on the disk. The block is
+ * encoded on the writer thread, so it must not change after it was appended. A record that cannot be encoded
+ * is logged and skipped, the writer goes on with the next one.
+ */
+public class BlockJournal {
+    private static final int MAX_BATCH = 256; // Blocks written per batch at most
+    private static final Object CLOSE = new Object(); // Tells the writer to finish
+    private static final String FORK_PREFIX = "#fork ";
+
+    // Blocks that replace the chain from index on, written after the fork line in the same batch
+    private record Fork(int index, List<?> blocks) {
+    }
+
+    private final Path path;
+    private final boolean sync;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final FileChannel channel;
+    private final Thread writer;
+
+    public BlockJournal(Path path, boolean sync) throws IOException {
+        this.path = path;
+        this.sync = sync;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.writer = new Thread(this::writeLoop, "journal-" + path.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Queues a block to be written, never blocks
+    public void append(Object block) {
+        queue.add(block);
+    }
+
+    public void appendAll(List<?> blocks) {
+        queue.addAll(blocks);
+    }
+
+    /**
+     * Queues a fork record and the blocks that replace the chain from the fork point on.
+     *
+     * @param index Index of the first block that differs from the journaled chain.
+     * @param blocks The new blocks from that index on.
+     */
+    public void fork(int index, List<?> blocks) {
+        queue.add(new Fork(index, List.copyOf(blocks)));
+    }
+
+    /**
+     * Writes what is still queued, then closes the file.
+     *
+     * @param timeoutMillis Time to wait for the writer to finish.
+     */
+    public void close(long timeoutMillis) {
+        queue.add(CLOSE);
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>(MAX_BATCH);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+        boolean closing = false;
+
+        while (!closing) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            buffer.reset();
+            int blocks = 0;
+            for (Object block : batch) {
+                if (block == CLOSE) {
+                    closing = true;
+                    continue;
+                }
+                try {
+                    blocks += writeRecord(buffer, block);
+                } catch (RuntimeException e) {
+                    Log.error("JOURNAL", "Error encoding block, not journaled", "file", path, "error", e.toString());
+                }
+            }
+            batch.clear();
+
+            if (blocks > 0) {
+                write(buffer, blocks);
+            }
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.error("JOURNAL", "Error closing block journal", "file", path, "error", e.getMessage());
+        }
+    }
+
+    // Adds the lines of a block or fork record to the buffer, all or nothing, and returns the number of blocks in it
+    private static int writeRecord(ByteArrayOutputStream buffer, Object record) {
+        if (record instanceof Fork fork) {
+            StringBuilder lines = new StringBuilder(FORK_PREFIX).append(fork.index()).append('\n');
+            for (Object block : fork.blocks()) {
+                lines.append(BlockCodec.encode(block)).append('\n');
+            }
+            buffer.writeBytes(lines.toString().getBytes(StandardCharsets.UTF_8));
+            return fork.blocks().size();
+        }
+        buffer.writeBytes((BlockCodec.encode(record) + "\n").getBytes(StandardCharsets.UTF_8));
+        return 1;
+    }
+
+    private void write(ByteArrayOutputStream buffer, int blocks) {
+        long start = System.nanoTime();
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+            Metrics.add("journal.blocks", blocks);
+            Metrics.recordSince("journal.commit", start);
+        } catch (IOException e) {
+            Log.error("JOURNAL", "Error writing blocks to file", "file", path, "blocks", blocks, "error", e.getMessage());
+        }
+    }
+}
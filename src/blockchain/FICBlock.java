@@ -1,8 +1,8 @@
 package blockchain;
 
-import com.google.gson.Gson;
 import models.NodeInfo;
 import models.VoteInfo;
+import utils.GsonUtil;
 
 import java.util.List;
 
@@ -52,7 +52,7 @@ public class FICBlock {
 
     @Override
     public String toString() {
-        return new Gson().toJson(this);
+        return GsonUtil.GSON.toJson(this);
     }
 
 }
\ No newline at end of file
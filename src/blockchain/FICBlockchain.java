@@ -1,7 +1,7 @@
 package blockchain;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
+import metrics.Metrics;
 import models.NodeInfo;
 import models.VoteInfo;
 import utils.BlockUtil;
@@ -14,6 +14,7 @@ import static utils.FindBlockUtil.findBlock;
 
 public class FICBlockchain {
     private List<FICBlock> chain;
+    private BlockJournal journal; // Log of the blocks added to this chain, if set
 
     public FICBlockchain() {
         this.chain = new ArrayList<>();
@@ -39,10 +40,16 @@ public class FICBlockchain {
         addBlock(genesisBlock);
     }
 
-    public void addBlock(FICBlock block) {
+    public synchronized void addBlock(FICBlock block) {
+        long start = System.nanoTime();
         FICBlock lastBlock = getLastBlock();
         String prevHash = lastBlock != null ? lastBlock.getHash() : "0";
 
+        // Already have this block, e.g. our own block coming back from the leader
+        if (lastBlock != null && lastBlock.getHash().equals(block.getHash())) {
+            return;
+        }
+
         if (prevHash != null && !prevHash.equals(block.getPrevHash())) {
             throw new IllegalArgumentException("Previous hash does not match the last block's hash.");
         }
@@ -52,17 +59,18 @@ public class FICBlockchain {
             throw new IllegalStateException("Invalid chain. Cannot add new block.");
         }
         chain.add(block);
+        journal(block);
+        Metrics.recordSince("chain.fic.append", start);
     }
 
-    public void addBlock(String blockString) {
+    public synchronized void addBlock(String blockString) {
         if (blockString == null || blockString.trim().isEmpty()) {
             throw new IllegalArgumentException("Block string is null or empty.");
         }
 
         try {
-            // Use Gson to convert the block string into FICBlock object
-            Gson gson = new Gson();
-            FICBlock newBlock = gson.fromJson(blockString, FICBlock.class);
+            // Convert the block string, JSON or compressed, into a FICBlock object
+            FICBlock newBlock = BlockCodec.parse(blockString, FICBlock.class);
 
             // After parsing the block, add it to the blockchain
             addBlock(newBlock);
@@ -73,6 +81,13 @@ public class FICBlockchain {
 
     // Validate the entire chain
     public boolean validateChain() {
+        long start = System.nanoTime();
+        boolean valid = checkChain();
+        Metrics.recordSince("chain.fic.validate", start);
+        return valid;
+    }
+
+    private boolean checkChain() {
         FICBlock currentBlock;
         FICBlock previousBlock;
 
@@ -96,6 +111,48 @@ public class FICBlockchain {
         return true;
     }
 
+    // Check a block against the block before it, without walking the whole chain
+    public boolean isValidNext(FICBlock previous, FICBlock block) {
+        return block.getIndex() == previous.getIndex() + 1
+                && previous.getHash().equals(block.getPrevHash())
+                && block.getHash().equals(BlockUtil.calculateFICBlockHash(block.getIndex(), block.getTimestamp(), block.getPrevHash(), block.getMerkleRoot()));
+    }
+
+    // Append blocks received from a peer in order, each one checked against the block before it.
+    // Stops at the first block that does not fit and returns the number of blocks now in the chain (appended or already there)
+    public synchronized int appendBlocks(List<FICBlock> blocks) {
+        int appended = 0;
+        for (FICBlock block : blocks) {
+            FICBlock lastBlock = getLastBlock();
+            if (block.getIndex() <= lastBlock.getIndex() && getBlock(block.getIndex()).getHash().equals(block.getHash())) {
+                appended++; // Already have it
+                continue;
+            }
+            if (!isValidNext(lastBlock, block)) {
+                break;
+            }
+            chain.add(block);
+            journal(block);
+            appended++;
+        }
+        return appended;
+    }
+
+    // Blocks added from now on are also written to the journal
+    public void setJournal(BlockJournal journal) {
+        this.journal = journal;
+    }
+
+    private void journal(FICBlock block) {
+        if (journal != null) {
+            journal.append(block);
+        }
+    }
+
+    public int getHeight() {
+        return chain.size();
+    }
+
     // Print the entire blockchain
     public void printBlockchain() {
         for (FICBlock block : chain) {
@@ -166,9 +223,20 @@ public class FICBlockchain {
 //        }
     }
 
-    public void replaceChain(List<FICBlock> chain) {
+    public synchronized void replaceChain(List<FICBlock> chain) {
         if (chain.size() > this.chain.size()) {
+            // Journal the blocks from the point where the chains differ, after a fork record if blocks were replaced
+            int fork = 0;
+            while (fork < this.chain.size() && this.chain.get(fork).getHash().equals(chain.get(fork).getHash())) {
+                fork++;
+            }
+            int previousSize = this.chain.size();
             this.chain = chain;
+            if (journal != null && fork < previousSize) {
+                journal.fork(fork, chain.subList(fork, chain.size()));
+            } else if (journal != null) {
+                journal.appendAll(chain.subList(fork, chain.size()));
+            }
         } else {
             System.out.println("Received chain is not longer than the current chain. Ignoring.");
         }
@@ -1,12 +1,15 @@
 package blockchain;
 
-import com.google.gson.Gson;
 import models.FileInfo;
 import models.Transaction;
 import models.UserInfo;
+import utils.GsonUtil;
 import utils.HashUtil;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class FTCBlock {
     private final int index;
@@ -16,8 +19,14 @@ public class FTCBlock {
     private final Transaction transactions;
     private final String prevHash;
     private final String hash;
+    private final Map<String, String> publicKeys; // Key id -> public key, for keys first used on the chain in this block; null if none
 
     public FTCBlock(int index, long timestamp, FileInfo fileInfo, List<UserInfo> userInfos, Transaction transactions, String prevHash, String hash) {
+        this(index, timestamp, fileInfo, userInfos, transactions, prevHash, hash, null);
+    }
+
+    public FTCBlock(int index, long timestamp, FileInfo fileInfo, List<UserInfo> userInfos, Transaction transactions, String prevHash, String hash,
+                    Map<String, String> publicKeys) {
         this.index = index;
         this.timestamp = timestamp;
         this.fileInfo = fileInfo;
@@ -25,6 +34,7 @@ public class FTCBlock {
         this.transactions = transactions;
         this.prevHash = prevHash;
         this.hash = hash;
+        this.publicKeys = publicKeys == null || publicKeys.isEmpty() ? null : Collections.unmodifiableSortedMap(new TreeMap<>(publicKeys));
     }
 
     // getters
@@ -56,9 +66,14 @@ public class FTCBlock {
         return fileInfo;
     }
 
+    // Sorted by key id, null if the block records no keys
+    public Map<String, String> getPublicKeys() {
+        return publicKeys;
+    }
+
     @Override
     public String toString() {
-        return new Gson().toJson(this);
+        return GsonUtil.GSON.toJson(this);
     }
 
 }
@@ -1,17 +1,26 @@
 package blockchain;
 
+import keystore.NodeKeys;
+import metrics.Metrics;
 import models.Transaction;
 import models.UserInfo;
 import models.FileInfo;
 import utils.BlockUtil;
 
-import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 public class FTCBlockchain {
-    private final List<FTCBlock> chain;
+    private List<FTCBlock> chain;
+    private BlockJournal journal; // Log of the blocks added to this chain, if set
+    private final Map<String, String> publicKeys = new ConcurrentHashMap<>(); // Key id -> public key, every key recorded on the chain
 
     public FTCBlockchain() {
         this.chain = new ArrayList<>();
@@ -31,57 +40,81 @@ public class FTCBlockchain {
         chain.add(genesisBlock);
     }
 
-    public void addBlock(FTCBlock block) {
+    public synchronized void addBlock(FTCBlock block) {
+        long start = System.nanoTime();
         FTCBlock lastBlock = getLastBlock();
         String prevHash = lastBlock != null ? lastBlock.getHash() : "0";
 
+        // Already have this block, e.g. our own block coming back from the leader
+        if (lastBlock != null && lastBlock.getHash().equals(block.getHash())) {
+            return;
+        }
+
         if (prevHash != null && !prevHash.equals(block.getPrevHash())) {
             throw new IllegalArgumentException("Previous hash does not match the last block's hash.");
         }
 
+        if (!hasValidKeys(block)) {
+            throw new IllegalArgumentException("Block refers to a key id that is not recorded.");
+        }
+
         // Validate the chain before adding the new block
         if (!validateChain()) {
             throw new IllegalArgumentException("Invalid chain. Cannot add new block.");
         }
 
         chain.add(block);
+        recordKeys(block);
+        journal(block);
+        Metrics.recordSince("chain.ftc.append", start);
     }
 
-    // Using Gson to parse the block string
-    public void addBlock(String blockString) {
+    // Parses the block string, JSON or compressed
+    public synchronized void addBlock(String blockString) {
         if (blockString == null || blockString.trim().isEmpty()) {
             throw new IllegalArgumentException("Block string is null or empty.");
         }
 
         try {
-            Gson gson = new Gson();
-            FTCBlock block = gson.fromJson(blockString, FTCBlock.class);
-            // Validate the new block before adding it to the chain
-            if (!validateChain()) {
-                throw new IllegalArgumentException("Invalid chain. Cannot add new block.");
-            }
-            // Add the new block to the chain
-            chain.add(block);
+            FTCBlock block = BlockCodec.parse(blockString, FTCBlock.class);
+            // Check the previous hash and validate the chain before adding it, like a local block
+            addBlock(block);
 
-        } catch (Exception e) {
+        } catch (JsonSyntaxException e) {
             throw new IllegalArgumentException("Failed to parse block string: " + e.getMessage(), e);
         }
     }
 
     // Validate the entire chain
     public boolean validateChain() {
+        long start = System.nanoTime();
+        boolean valid = checkChain();
+        Metrics.recordSince("chain.ftc.validate", start);
+        return valid;
+    }
+
+    private boolean checkChain() {
         FTCBlock currentBlock;
         FTCBlock previousBlock;
+        Set<String> recorded = new HashSet<>(); // Key ids recorded by the blocks checked so far
 
         for (int i = 1; i < chain.size(); i++) {
             currentBlock = chain.get(i);
             previousBlock = chain.get(i - 1);
 
             // Check if the hash of the current block is valid
-            if (!currentBlock.getHash().equals(BlockUtil.calculateFTCBlockHash(currentBlock.getIndex(), currentBlock.getTimestamp(), currentBlock.getFileInfo(), currentBlock.getUserInfos(), currentBlock.getTransactions(), currentBlock.getPrevHash()))) {
+            if (!currentBlock.getHash().equals(BlockUtil.calculateFTCBlockHash(currentBlock.getIndex(), currentBlock.getTimestamp(), currentBlock.getFileInfo(), currentBlock.getUserInfos(), currentBlock.getTransactions(), currentBlock.getPrevHash(), currentBlock.getPublicKeys()))
+                    || !hasValidKeyIds(currentBlock)) {
                 System.out.println("Invalid hash at block " + currentBlock.getIndex());
                 return false;
             }
+            if (currentBlock.getPublicKeys() != null) {
+                recorded.addAll(currentBlock.getPublicKeys().keySet());
+            }
+            if (!resolvesKeyIds(currentBlock, recorded::contains)) {
+                System.out.println("Unknown key id at block " + currentBlock.getIndex());
+                return false;
+            }
 
             // Check if the current block points to the correct previous block
             if (!currentBlock.getPrevHash().equals(previousBlock.getHash())) {
@@ -93,6 +126,136 @@ public class FTCBlockchain {
         return true;
     }
 
+    // Check a block against the block before it, without walking the whole chain
+    public boolean isValidNext(FTCBlock previous, FTCBlock block) {
+        return isLinked(previous, block) && hasValidKeys(block);
+    }
+
+    // The block follows the previous one and its hash matches its content
+    private static boolean isLinked(FTCBlock previous, FTCBlock block) {
+        return block.getIndex() == previous.getIndex() + 1
+                && previous.getHash().equals(block.getPrevHash())
+                && block.getHash().equals(BlockUtil.calculateFTCBlockHash(block.getIndex(), block.getTimestamp(), block.getFileInfo(), block.getUserInfos(), block.getTransactions(), block.getPrevHash(), block.getPublicKeys()));
+    }
+
+    /**
+     * Checks a chain received from a peer that would replace this one. Key ids are resolved against the keys
+     * recorded earlier in the candidate itself, like {@link #checkChain()} does, not against this chain's
+     * registry: the candidate may record its keys in blocks this node does not have, and keys recorded
+     * only on the blocks it replaces do not count.
+     *
+     * @param blocks The candidate chain, starting with the genesis block.
+     * @return true if it starts with our genesis block and every block is valid after the one before it.
+     */
+    public boolean isValidReplacement(List<FTCBlock> blocks) {
+        if (blocks.isEmpty() || !blocks.get(0).getHash().equals(getBlock(0).getHash())) {
+            return false;
+        }
+        Set<String> recorded = new HashSet<>(); // Key ids recorded by the candidate blocks checked so far
+        for (int i = 1; i < blocks.size(); i++) {
+            FTCBlock block = blocks.get(i);
+            if (!isLinked(blocks.get(i - 1), block) || !hasValidKeyIds(block)) {
+                return false;
+            }
+            if (block.getPublicKeys() != null) {
+                recorded.addAll(block.getPublicKeys().keySet());
+            }
+            if (!resolvesKeyIds(block, recorded::contains)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The block's recorded keys match their ids, and every key id it refers to is on the chain or in the block
+    private boolean hasValidKeys(FTCBlock block) {
+        return hasValidKeyIds(block) && resolvesKeyIds(block, keyId -> publicKeys.containsKey(keyId)
+                || (block.getPublicKeys() != null && block.getPublicKeys().containsKey(keyId)));
+    }
+
+    // Every key id the sender, receiver and UserInfos refer to must be recorded, by the block itself or one before it
+    private static boolean resolvesKeyIds(FTCBlock block, Predicate<String> recorded) {
+        List<String> keyIds = new ArrayList<>();
+        if (block.getTransactions() != null) {
+            keyIds.add(block.getTransactions().getSenderPublicKey());
+            keyIds.add(block.getTransactions().getReceiverPublicKey());
+        }
+        if (block.getUserInfos() != null) {
+            block.getUserInfos().forEach(userInfo -> keyIds.add(userInfo.getPublicKey()));
+        }
+        for (String keyId : keyIds) {
+            if (isKeyId(keyId) && !recorded.test(keyId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // True for a key id; false for no key (null or "null") and for the whole key lines of blocks from before key ids
+    public static boolean isKeyId(String value) {
+        return value != null && !"null".equals(value) && value.indexOf('=') < 0;
+    }
+
+    // Every key a block records must be stored under its own fingerprint
+    private static boolean hasValidKeyIds(FTCBlock block) {
+        if (block.getPublicKeys() == null) {
+            return true;
+        }
+        for (Map.Entry<String, String> publicKey : block.getPublicKeys().entrySet()) {
+            if (!publicKey.getKey().equals(NodeKeys.fingerprint(publicKey.getValue()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void recordKeys(FTCBlock block) {
+        if (block.getPublicKeys() != null) {
+            publicKeys.putAll(block.getPublicKeys());
+        }
+    }
+
+    // True if a block on the chain has recorded the key
+    public boolean isRecorded(String keyId) {
+        return publicKeys.containsKey(keyId);
+    }
+
+    // Append blocks received from a peer in order, each one checked against the block before it.
+    // Stops at the first block that does not fit and returns the number of blocks now in the chain (appended or already there)
+    public synchronized int appendBlocks(List<FTCBlock> blocks) {
+        int appended = 0;
+        for (FTCBlock block : blocks) {
+            FTCBlock lastBlock = getLastBlock();
+            if (block.getIndex() <= lastBlock.getIndex() && getBlock(block.getIndex()).getHash().equals(block.getHash())) {
+                appended++; // Already have it
+                continue;
+            }
+            if (!isValidNext(lastBlock, block)) {
+                break;
+            }
+            chain.add(block);
+            recordKeys(block);
+            journal(block);
+            appended++;
+        }
+        return appended;
+    }
+
+    // Blocks added from now on are also written to the journal
+    public void setJournal(BlockJournal journal) {
+        this.journal = journal;
+    }
+
+    private void journal(FTCBlock block) {
+        if (journal != null) {
+            journal.append(block);
+        }
+    }
+
+    public int getHeight() {
+        return chain.size();
+    }
+
     // Print the entire blockchain
     public void printBlockchain() {
         for (FTCBlock block : chain) {
@@ -139,4 +302,25 @@ public class FTCBlockchain {
         blockchain.printBlockchain();
 
     }
-}
\ No newline at end of file
+
+    public synchronized void replaceChain(List<FTCBlock> chain) {
+        if (chain.size() > this.chain.size()) {
+            // Journal the blocks from the point where the chains differ, after a fork record if blocks were replaced
+            int fork = 0;
+            while (fork < this.chain.size() && this.chain.get(fork).getHash().equals(chain.get(fork).getHash())) {
+                fork++;
+            }
+            int previousSize = this.chain.size();
+            this.chain = chain;
+            publicKeys.clear();
+            chain.forEach(this::recordKeys);
+            if (journal != null && fork < previousSize) {
+                journal.fork(fork, chain.subList(fork, chain.size()));
+            } else if (journal != null) {
+                journal.appendAll(chain.subList(fork, chain.size()));
+            }
+        } else {
+            System.out.println("Received chain is not longer than the current chain. Ignoring.");
+        }
+    }
+}
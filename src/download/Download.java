@@ -1,54 +1,52 @@
 package download;
 
 import com.google.gson.Gson;
+import keystore.KeyStore;
+import keystore.NodeKeys;
+import keywrap.KeyWrap;
+import keywrap.KeyWraps;
+import metrics.Metrics;
 import models.NodeInfo;
 import models.Transaction;
+import models.UserInfo;
 import rsa.EncryptDecrypt;
+import utils.GsonUtil;
+import utils.FileStorage;
 import utils.IPFSUtil;
 
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.Base64;
+import java.util.List;
 
 public class Download {
 
-    public static Transaction download(String fileName, String fileHash, String eFilekey, NodeInfo sender, NodeInfo receiver, String type) throws IOException {
+    public static Transaction download(String fileName, String fileHash, String eFilekey, String keyWrap, NodeInfo sender, NodeInfo receiver, String type) throws IOException {
+        // A share only re-encrypts the file key, the file itself is not needed
+        if ("share".equals(type)) {
+            return share(fileName, fileHash, eFilekey, keyWrap, sender, receiver);
+        }
+
         // STEP 1: DOWNLOAD FILE FROM IPFS
         String basePath = "files/";
+        long stepStart = System.nanoTime();
         try {
-            IPFSUtil ipfsUtil = new IPFSUtil("/ip4/127.0.0.1/tcp/5001");
-            ipfsUtil.download(fileHash, basePath + "encrypted_" + fileName);
+            FileStorage storage = IPFSUtil.storage();
+            storage.download(fileHash, basePath + "encrypted_" + fileName);
+            Metrics.recordSince("download.step1", stepStart);
             System.out.println("STEP 1: SUCCESS - File downloaded from IPFS");
         } catch (Exception e) {
             throw new RuntimeException("Failed to download the file: " + e.getMessage(), e);
         }
 
         // STEP 2: DECRYPT THE EFILEKEY USING USER'S PRIVATE KEY
-        String decryptedFileKey = null;
-        try {
-            BigInteger eFileKey;
-            String fileContent = Files.readString(Paths.get("keys/" + sender.getNodeId() + ".txt"));
-
-            String privKey = fileContent.lines()
-                    .filter(line -> line.startsWith("privateKey="))
-                    .findFirst()
-                    .orElseThrow(() -> new RuntimeException("privateKey not found"));
-
-            String[] privParts = privKey.split("=")[1].split(",");
+        stepStart = System.nanoTime();
+        String decryptedFileKey = decryptFileKey(eFilekey, keyWrap, sender);
+        Metrics.recordSince("download.step2", stepStart);
+        System.out.println("STEP 2: SUCCESS - File key decrypted");
 
-            BigInteger d = new BigInteger(privParts[0]);
-            BigInteger n = new BigInteger(privParts[1]);
-            decryptedFileKey = (String) rsa.EncryptDecrypt.decrypt(new BigInteger(eFilekey), d, n, true);
-            System.out.println("STEP 2: SUCCESS - File key decrypted " + decryptedFileKey);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to decrypt the file key: " + e.getMessage(), e);
-        }
-
-        // From here we have two options: 1. Download 2. Share
         if (type == null || type.isEmpty()) {
             System.out.println("Invalid type. Please specify 'download' or 'share'.");
             return null;
@@ -73,84 +71,173 @@ public class Download {
             }
 
             // STEP 3: DECRYPT THE FILE USING THE DECRYPTED FILE KEY
+            stepStart = System.nanoTime();
             try {
                 String inputPath = basePath + "encrypted_" + fileName;
                 String outPath = basePath + "decrypted_" + fileName;
                 fernet.EncryptDecrypt.decryptFile(inputPath, outPath, aesKey, hmacKey);
+                Metrics.recordSince("download.step3", stepStart);
                 System.out.println("STEP 3: SUCCESS - File decrypted at " + outPath);
             } catch (Exception e) {
                 throw new RuntimeException("Failed to decrypt the file: " + e.getMessage(), e);
             }
 
             // RETURN THE TRANSACTION OBJECT
-            return new Transaction(sender, null, fileName, fileHash, null, null, eFilekey, type, null, null);
+            Transaction transaction = new Transaction(sender, null, fileName, fileHash, null, null, eFilekey, type, null, null);
+            transaction.setKeyWrap(KeyWraps.get(keyWrap).scheme());
+            return transaction;
         }
 
-        if (type.equals("share")) {
-            BigInteger eFileKey;
-            String receiverFileContent = Files.readString(Paths.get("keys/" + receiver.getNodeId() + ".txt"));
-            String senderFileContent = Files.readString(Paths.get("keys/" + sender.getNodeId() + ".txt"));
-
-            // RECEIVER'S PUBLIC KEY
-            String receiverPublicKey = receiverFileContent.lines()
-                    .filter(line -> line.startsWith("publicKey="))
-                    .findFirst()
-                    .orElseThrow(() -> new RuntimeException("publicKey not found"));
-            String[] receiverPubParts = receiverPublicKey.split("=")[1].split(",");
-            BigInteger eReceiver = new BigInteger(receiverPubParts[0]);
-            BigInteger nReceiver = new BigInteger(receiverPubParts[1]);
-
-            // SENDER'S PUBLIC KEY
-            String sendersPublicKey = senderFileContent.lines()
-                    .filter(line -> line.startsWith("publicKey="))
-                    .findFirst()
-                    .orElseThrow(() -> new RuntimeException("publicKey not found"));
-            String[] sendersPubParts = sendersPublicKey.split("=")[1].split(",");
-            BigInteger eSender = new BigInteger(sendersPubParts[0]);
-            BigInteger nSender = new BigInteger(sendersPubParts[1]);
-
-            // SENDERS PRIVATE KEY
-            String sendersPrivateKey = senderFileContent.lines()
-                    .filter(line -> line.startsWith("privateKey="))
-                    .findFirst()
-                    .orElseThrow(() -> new RuntimeException("privateKey not found"));
-            String[] sendersPrivParts = sendersPrivateKey.split("=")[1].split(",");
-            BigInteger dSender = new BigInteger(sendersPrivParts[0]);
-
-            // STEP 2: ENCRYPT THE FILE KEY USING RECEIVER'S PUBLIC KEY
-            BigInteger eReceiverFileKey;
-            try {
-                BigInteger fileKey = new BigInteger(decryptedFileKey.getBytes());
-                eReceiverFileKey = rsa.EncryptDecrypt.encrypt(fileKey, eReceiver, nReceiver);
-                System.out.println("STEP 3: SUCCESS - File key encrypted for receiver");
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed to encrypt the file key for receiver: " + ex.getMessage(), ex);
-            }
+        return null;
+    }
 
-            Transaction transaction = new Transaction(sender, receiver, fileName, fileHash, sendersPublicKey, receiverPublicKey, eReceiverFileKey.toString(), type, null, null);
+    /**
+     * Shares a file with another node by re-encrypting its file key for the receiver. Only the key from
+     * the block's FileInfo is touched; the file is not downloaded, so the cost does not depend on its size.
+     *
+     * @param fileName Name of the shared file.
+     * @param fileHash IPFS hash (CID) of the encrypted file.
+     * @param eFilekey File key encrypted with the sender's public key.
+     * @param keyWrap Key-wrap scheme of eFilekey, also used for the receiver; null for RSA.
+     * @param sender The sharing node, its private key decrypts the file key.
+     * @param receiver The node the file is shared with.
+     * @return The signed share transaction.
+     */
+    public static Transaction share(String fileName, String fileHash, String eFilekey, String keyWrap, NodeInfo sender, NodeInfo receiver) throws IOException {
+        String type = "share";
+        KeyWrap wrap = KeyWraps.get(keyWrap);
 
-            // STEP 3: SIGN THE TRANSACTION WITH SENDER'S PRIVATE KEY
-            try {
-                String transactionString = new Gson().toJson(transaction);
-                BigInteger transactionBigInt = new BigInteger(transactionString.getBytes(StandardCharsets.UTF_8));
+        // STEP 2: DECRYPT THE EFILEKEY USING USER'S PRIVATE KEY
+        long stepStart = System.nanoTime();
+        String decryptedFileKey = decryptFileKey(eFilekey, keyWrap, sender);
+        Metrics.recordSince("share.step2", stepStart);
+        System.out.println("STEP 2: SUCCESS - File key decrypted");
+
+        NodeKeys receiverKeys = KeyStore.get().require(receiver.getNodeId());
+        NodeKeys senderKeys = KeyStore.get().require(sender.getNodeId());
+
+        // RECEIVER'S AND SENDER'S PUBLIC KEYS OF THE SCHEME
+        String receiverPublicKey = wrap.publicKey(receiverKeys);
+        String sendersPublicKey = wrap.publicKey(senderKeys);
+
+        // SENDERS PRIVATE KEY, RSA SIGNS THE TRANSACTION
+        String[] sendersPrivParts = senderKeys.value("privateKey").split(",");
+        BigInteger dSender = new BigInteger(sendersPrivParts[0]);
+        BigInteger nSender = new BigInteger(sendersPrivParts[1]);
+
+        // STEP 2: ENCRYPT THE FILE KEY USING RECEIVER'S PUBLIC KEY
+        String eReceiverFileKey;
+        stepStart = System.nanoTime();
+        try {
+            eReceiverFileKey = wrap.wrap(decryptedFileKey, receiverPublicKey);
+            Metrics.recordSince("share.step3", stepStart);
+            System.out.println("STEP 3: SUCCESS - File key encrypted for receiver");
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to encrypt the file key for receiver: " + ex.getMessage(), ex);
+        }
 
-                // Check if transactionBigInt is less than nSender, if it is then we use modulus
-                if (transactionBigInt.compareTo(nSender) >= 0) {
-                    transactionBigInt = transactionBigInt.mod(nSender);
-                }
+        Transaction transaction = new Transaction(sender, receiver, fileName, fileHash, NodeKeys.fingerprint(sendersPublicKey), NodeKeys.fingerprint(receiverPublicKey),
+                eReceiverFileKey, type, null, null);
+        transaction.setKeyWrap(wrap.scheme());
 
-                String creatorSignature = EncryptDecrypt.sign(transactionBigInt, dSender, nSender);
-                transaction.setCreatorSign(creatorSignature);
+        // STEP 3: SIGN THE TRANSACTION WITH SENDER'S PRIVATE KEY
+        stepStart = System.nanoTime();
+        transaction.setCreatorSign(sign(GsonUtil.GSON.toJson(transaction), dSender, nSender));
+        Metrics.recordSince("share.step4", stepStart);
+        System.out.println("STEP 4: SUCCESS - Transaction signed with sender's private key");
+        return transaction;
+    }
+
+    /**
+     * A group share: one transaction for all receivers and the file key wrapped for each of them, in the
+     * order of the receivers. The UserInfos go into the FTC block next to the sender's own entry.
+     */
+    public record GroupShare(Transaction transaction, List<UserInfo> recipients) {
+    }
+
+    /**
+     * Shares a file with several nodes at once. The file key is decrypted once and wrapped for every
+     * receiver in parallel; the result is a single "groupShare" transaction, so all receivers are recorded
+     * in one FTC block and one consensus round instead of one per receiver.
+     * <p>
+     * The transaction has no receiver, its file key is the sender's. The sender signs the transaction
+     * followed by the recipient list, so the signature also covers who got the file key.
+     *
+     * @param fileName Name of the shared file.
+     * @param fileHash IPFS hash (CID) of the encrypted file.
+     * @param eFilekey File key encrypted with the sender's public key.
+     * @param keyWrap Key-wrap scheme of eFilekey, also used for the receivers; null for RSA.
+     * @param sender The sharing node, its private key decrypts the file key.
+     * @param receivers The nodes the file is shared with, their public keys are read from the keystore.
+     * @return The signed transaction and the wrapped file key of every receiver.
+     */
+    public static GroupShare shareWithGroup(String fileName, String fileHash, String eFilekey, String keyWrap, NodeInfo sender, List<NodeInfo> receivers) throws IOException {
+        if (receivers.isEmpty()) {
+            throw new IllegalArgumentException("A group share needs at least one receiver.");
+        }
 
-                System.out.println("STEP 4: SUCCESS - Transaction signed with sender's private key");
+        // STEP 2: DECRYPT THE EFILEKEY USING USER'S PRIVATE KEY, ONCE FOR ALL RECEIVERS
+        long stepStart = System.nanoTime();
+        KeyWrap wrap = KeyWraps.get(keyWrap);
+        String fileKey = decryptFileKey(eFilekey, keyWrap, sender);
+        Metrics.recordSince("share.step2", stepStart);
+        System.out.println("STEP 2: SUCCESS - File key decrypted");
 
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed to sign the transaction: " + ex.getMessage(), ex);
+        // STEP 3: ENCRYPT THE FILE KEY FOR EVERY RECEIVER
+        stepStart = System.nanoTime();
+        List<UserInfo> recipients;
+        try {
+            recipients = receivers.parallelStream()
+                    .map(receiver -> wrapFileKey(wrap, fileKey, receiver))
+                    .toList();
+        } catch (RuntimeException ex) {
+            throw new RuntimeException("Failed to encrypt the file key for the receivers: " + ex.getMessage(), ex);
+        }
+        Metrics.recordSince("share.step3", stepStart);
+        System.out.println("STEP 3: SUCCESS - File key encrypted for " + recipients.size() + " receivers");
+
+        NodeKeys senderKeys = KeyStore.get().require(sender.getNodeId());
+        String sendersPublicKey = wrap.publicKey(senderKeys);
+        String[] sendersPrivParts = senderKeys.value("privateKey").split(",");
+        BigInteger dSender = new BigInteger(sendersPrivParts[0]);
+        BigInteger nSender = new BigInteger(sendersPrivParts[1]);
+
+        Transaction transaction = new Transaction(sender, null, fileName, fileHash, NodeKeys.fingerprint(sendersPublicKey), null, eFilekey, "groupShare", null, null);
+        transaction.setKeyWrap(wrap.scheme());
+
+        // STEP 4: SIGN THE TRANSACTION AND THE RECIPIENTS WITH SENDER'S PRIVATE KEY
+        stepStart = System.nanoTime();
+        transaction.setCreatorSign(sign(GsonUtil.GSON.toJson(transaction) + GsonUtil.GSON.toJson(recipients), dSender, nSender));
+        Metrics.recordSince("share.step4", stepStart);
+        System.out.println("STEP 4: SUCCESS - Transaction signed with sender's private key");
+        return new GroupShare(transaction, recipients);
+    }
+
+    // Encrypts the file key with the receiver's public key, the UserInfo refers to the key by its id
+    private static UserInfo wrapFileKey(KeyWrap wrap, String fileKey, NodeInfo receiver) {
+        String receiverPublicKey = wrap.publicKey(KeyStore.get().require(receiver.getNodeId()));
+        return new UserInfo(NodeKeys.fingerprint(receiverPublicKey), wrap.wrap(fileKey, receiverPublicKey));
+    }
+
+    // Signs the UTF-8 bytes of the content, reduced modulo n if they do not fit
+    private static String sign(String content, BigInteger d, BigInteger n) {
+        try {
+            BigInteger contentBigInt = new BigInteger(content.getBytes(StandardCharsets.UTF_8));
+            if (contentBigInt.compareTo(n) >= 0) {
+                contentBigInt = contentBigInt.mod(n);
             }
-            return transaction;
+            return EncryptDecrypt.sign(contentBigInt, d, n);
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to sign the transaction: " + ex.getMessage(), ex);
         }
+    }
 
-        return null;
+    private static String decryptFileKey(String eFilekey, String keyWrap, NodeInfo sender) {
+        try {
+            return KeyWraps.get(keyWrap).unwrap(eFilekey, KeyStore.get().require(sender.getNodeId()));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to decrypt the file key: " + e.getMessage(), e);
+        }
     }
 
     public static void main(String[] args) {
@@ -165,14 +252,14 @@ public class Download {
             args[0] = "test.txt";
             args[1] = "Qmda7v4HnYEqbmCsVmGcxJ4SCtKRzNnRGaugXDGDzuN2F7";
             args[2] = "3381913732344884343920672375802526017904343425470814789163512246770566651028613508142597979720665049279148477073758936391731931681978291658904008769957571351711711224432331801817817165832523608040536351625118827313427601119258758934791754109155907207011239650287043220837215480382321863334034841229486243974996703823776287080858662269115934283222046659906228643593643453900569842039802015992707589812876505884979389720196140489570555177802300807505295166843260483627777604137734878279099483549081689750531415309484463382852778254105779000778450894195353850347361458887174567006268314397385917041026852140708126159404";
-            args[3] = new Gson().toJson(senderNode);
-            args[4] = new Gson().toJson(receiverNode);
+            args[3] = GsonUtil.GSON.toJson(senderNode);
+            args[4] = GsonUtil.GSON.toJson(receiverNode);
             args[5] = "share";
         }
 
         // Parse sender and receiver to NodeInfo objects using Gson
-         NodeInfo sender = new Gson().fromJson(args[3], NodeInfo.class);
-         NodeInfo receiver = new Gson().fromJson(args[4], NodeInfo.class);
+         NodeInfo sender = GsonUtil.GSON.fromJson(args[3], NodeInfo.class);
+         NodeInfo receiver = GsonUtil.GSON.fromJson(args[4], NodeInfo.class);
 
         // fileHash = Qmf5ztSr4jNjyzrQJpJ1QtyifdGRpF611mRsrK25VVY93P
         // eFilekey = 394057147557273929235744935992137414902850444887287784494046217507868918304590670940618394302293680949682110510100942970902052483889599409331407246571091971383578054338681009618919528605997466407836209605003903280153500239669374833956721866871658317218132623277218575404185888020459241066716079241005125857862743883180608573761960700981094636219405710238690787282847108819840689759192859406924353779430525275969238126212159337285309682784874666838451638029270942931004251097039973884519687495196539085716405948945107396893626799322495040440300748949748345019945199463188479887122592713074249836565420259756510133700
@@ -184,7 +271,7 @@ public class Download {
 
 
         try {
-            Transaction transaction = download(fileName, fileHash, eFilekey, sender, receiver, type);
+            Transaction transaction = download(fileName, fileHash, eFilekey, null, sender, receiver, type);
             if (transaction != null) {
                 System.out.println("Transaction created: " + transaction);
             } else {
@@ -0,0 +1,50 @@
+package fernet;
+
+/**
+ * Token formats for encrypted files. The first byte of a token is its version, so a token is decrypted
+ * with the suite it was made with whatever suite new uploads use.
+ * <p>
+ * {@code FERNET} is AES-128-CBC followed by an HMAC-SHA256 pass over the whole token. {@code AES_GCM}
+ * encrypts and authenticates in one pass with AES-256-GCM, using both halves of the Fernet key as the AES
+ * key: {@code 0x81 | timestamp (8) | IV (12) | ciphertext | tag (16)}, with the version and timestamp as
+ * associated data.
+ */
+public enum CipherSuite {
+    FERNET((byte) 0x80, "fernet"),
+    AES_GCM((byte) 0x81, "aes-gcm");
+
+    final byte version;
+    private final String name;
+
+    CipherSuite(byte version, String name) {
+        this.version = version;
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // The suite new uploads use, node.cipherSuite (default aes-gcm)
+    public static CipherSuite configured() {
+        return forName(System.getProperty("node.cipherSuite", AES_GCM.name));
+    }
+
+    public static CipherSuite forName(String name) {
+        for (CipherSuite suite : values()) {
+            if (suite.name.equals(name)) {
+                return suite;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cipher suite: " + name);
+    }
+
+    static CipherSuite forVersion(byte version) {
+        for (CipherSuite suite : values()) {
+            if (suite.version == version) {
+                return suite;
+            }
+        }
+        throw new IllegalArgumentException("Unknown token version: " + (version & 0xff));
+    }
+}
@@ -1,22 +1,35 @@
 package fernet;
 
+import utils.CryptoUtil;
+
 import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.security.*;
+import java.util.Arrays;
 import java.util.Base64;
 
 public class EncryptDecrypt {
+    private static final int FERNET_HEADER = 25; // Version, timestamp and IV
+    static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_HEADER = 9 + GCM_IV_LENGTH;
+    static final int GCM_TAG_BITS = 128;
 
     public static FernetKeyPair getKeysFromFile(String keyFilePath) throws IOException {
         BufferedReader reader = new BufferedReader(new FileReader(keyFilePath));
         String line = reader.readLine();
         reader.close();
 
-        String base64Key = line.split("=")[1].trim();
+        return getKeys(line.split("=")[1].trim());
+    }
+
+    // The AES and HMAC halves of a Base64 Fernet key
+    public static FernetKeyPair getKeys(String base64Key) {
         byte[] fullKey = Base64.getDecoder().decode(base64Key);
 
         if (fullKey.length != 32) {
@@ -29,73 +42,117 @@ public class EncryptDecrypt {
     }
 
     public static String encrypt(byte[] plaintext, SecretKey aesKey, SecretKey hmacKey) throws Exception {
-        byte[] iv = new byte[16];
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(iv);
-        IvParameterSpec ivSpec = new IvParameterSpec(iv);
-
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        cipher.init(Cipher.ENCRYPT_MODE, aesKey, ivSpec);
-        byte[] ciphertext = cipher.doFinal(plaintext);
-
-        ByteArrayOutputStream dataOut = new ByteArrayOutputStream();
-        dataOut.write(0x80); // Fernet version
-        long timestamp = System.currentTimeMillis() / 1000;
-        dataOut.write(ByteBuffer.allocate(8).putLong(timestamp).array());
-        dataOut.write(iv);
-        dataOut.write(ciphertext);
-        byte[] data = dataOut.toByteArray();
-
-        Mac hmac = Mac.getInstance("HmacSHA256");
-        hmac.init(hmacKey);
-        byte[] hmacValue = hmac.doFinal(data);
+        return encrypt(plaintext, aesKey, hmacKey, CipherSuite.FERNET);
+    }
+
+    public static String encrypt(byte[] plaintext, SecretKey aesKey, SecretKey hmacKey, CipherSuite suite) throws Exception {
+        if (suite == CipherSuite.AES_GCM) {
+            return encryptGCM(plaintext, aesKey, hmacKey);
+        }
 
-        ByteArrayOutputStream finalOut = new ByteArrayOutputStream();
-        finalOut.write(data);
-        finalOut.write(hmacValue);
-        return Base64.getEncoder().encodeToString(finalOut.toByteArray());
+        // The token is built in one array: header, ciphertext written behind it, HMAC written behind that
+        Cipher cipher = CryptoUtil.aesCbc();
+        int ciphertextLength = (plaintext.length / 16 + 1) * 16;
+        byte[] token = new byte[FERNET_HEADER + ciphertextLength + 32];
+        token[0] = CipherSuite.FERNET.version;
+        ByteBuffer.wrap(token, 1, 8).putLong(System.currentTimeMillis() / 1000);
+        byte[] iv = CryptoUtil.randomBytes(16);
+        System.arraycopy(iv, 0, token, 9, 16);
+
+        cipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(iv));
+        cipher.doFinal(plaintext, 0, plaintext.length, token, FERNET_HEADER);
+
+        Mac hmac = CryptoUtil.hmacSHA256();
+        hmac.init(hmacKey);
+        hmac.update(token, 0, FERNET_HEADER + ciphertextLength);
+        hmac.doFinal(token, FERNET_HEADER + ciphertextLength);
+        return Base64.getEncoder().encodeToString(token);
     }
 
+    // Decrypts a token of any suite, the suite is read from its version byte
     public static byte[] decrypt(String base64Ciphertext, SecretKey aesKey, SecretKey hmacKey) throws Exception {
         byte[] token = Base64.getDecoder().decode(base64Ciphertext);
+        if (token.length == 0) {
+            throw new SecurityException("Empty token.");
+        }
+        if (CipherSuite.forVersion(token[0]) == CipherSuite.AES_GCM) {
+            return decryptGCM(token, aesKey, hmacKey);
+        }
+        if (token.length < FERNET_HEADER + 32) {
+            throw new SecurityException("Token is too short.");
+        }
         int hmacStart = token.length - 32;
 
-        byte[] data = new byte[hmacStart];
-        byte[] receivedHmac = new byte[32];
-        System.arraycopy(token, 0, data, 0, hmacStart);
-        System.arraycopy(token, hmacStart, receivedHmac, 0, 32);
-
-        Mac hmac = Mac.getInstance("HmacSHA256");
+        // HMAC and CBC work on the token in place, nothing is copied out of it
+        Mac hmac = CryptoUtil.hmacSHA256();
         hmac.init(hmacKey);
-        byte[] expectedHmac = hmac.doFinal(data);
+        hmac.update(token, 0, hmacStart);
+        byte[] expectedHmac = hmac.doFinal();
 
-        if (!MessageDigest.isEqual(receivedHmac, expectedHmac)) {
+        if (!MessageDigest.isEqual(Arrays.copyOfRange(token, hmacStart, token.length), expectedHmac)) {
             throw new SecurityException("HMAC verification failed. Data may have been tampered with.");
         }
 
-        byte[] iv = new byte[16];
-        System.arraycopy(data, 9, iv, 0, 16);
-        byte[] ciphertext = new byte[data.length - 25];
-        System.arraycopy(data, 25, ciphertext, 0, ciphertext.length);
+        Cipher cipher = CryptoUtil.aesCbc();
+        cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(token, 9, 16));
+        return cipher.doFinal(token, FERNET_HEADER, hmacStart - FERNET_HEADER);
+    }
 
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(iv));
-        return cipher.doFinal(ciphertext);
+    private static String encryptGCM(byte[] plaintext, SecretKey aesKey, SecretKey hmacKey) throws Exception {
+        byte[] token = new byte[GCM_HEADER + plaintext.length + GCM_TAG_BITS / 8];
+        token[0] = CipherSuite.AES_GCM.version;
+        ByteBuffer.wrap(token, 1, 8).putLong(System.currentTimeMillis() / 1000);
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        CryptoUtil.randomBytes(iv);
+        System.arraycopy(iv, 0, token, 9, GCM_IV_LENGTH);
+
+        // The ciphertext and tag are written straight behind the header
+        Cipher cipher = CryptoUtil.aesGcm();
+        cipher.init(Cipher.ENCRYPT_MODE, gcmKey(aesKey, hmacKey), new GCMParameterSpec(GCM_TAG_BITS, iv));
+        cipher.updateAAD(token, 0, 9);
+        cipher.doFinal(plaintext, 0, plaintext.length, token, GCM_HEADER);
+        return Base64.getEncoder().encodeToString(token);
     }
 
-    public static void encryptFile(String inputPath, String outputPath, SecretKey aesKey, SecretKey hmacKey) throws Exception {
-        byte[] plaintext = readAllBytes(inputPath);
-        String token = encrypt(plaintext, aesKey, hmacKey);
-        try (FileWriter writer = new FileWriter(outputPath)) {
-            writer.write(token);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    private static byte[] decryptGCM(byte[] token, SecretKey aesKey, SecretKey hmacKey) throws Exception {
+        if (token.length < GCM_HEADER + GCM_TAG_BITS / 8) {
+            throw new SecurityException("Token is too short.");
         }
+        Cipher cipher = CryptoUtil.aesGcm();
+        cipher.init(Cipher.DECRYPT_MODE, gcmKey(aesKey, hmacKey), new GCMParameterSpec(GCM_TAG_BITS, token, 9, GCM_IV_LENGTH));
+        cipher.updateAAD(token, 0, 9);
+        try {
+            return cipher.doFinal(token, GCM_HEADER, token.length - GCM_HEADER);
+        } catch (AEADBadTagException e) {
+            throw new SecurityException("GCM tag verification failed. Data may have been tampered with.", e);
+        }
+    }
+
+    // Both halves of the Fernet key make the AES-256 key of the GCM suite
+    static SecretKeySpec gcmKey(SecretKey aesKey, SecretKey hmacKey) {
+        byte[] key = new byte[32];
+        System.arraycopy(aesKey.getEncoded(), 0, key, 0, 16);
+        System.arraycopy(hmacKey.getEncoded(), 0, key, 16, 16);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    public static void encryptFile(String inputPath, String outputPath, SecretKey aesKey, SecretKey hmacKey) throws Exception {
+        encryptFile(inputPath, outputPath, aesKey, hmacKey, CipherSuite.FERNET);
     }
 
+    // Writes the file as a binary TokenFile
+    public static void encryptFile(String inputPath, String outputPath, SecretKey aesKey, SecretKey hmacKey, CipherSuite suite) throws Exception {
+        TokenFile.encrypt(Paths.get(inputPath), Paths.get(outputPath), aesKey, hmacKey, suite);
+    }
+
+    // Decrypts a binary TokenFile, or a Base64 token written before the binary format
     public static void decryptFile(String inputPath, String outputPath, SecretKey aesKey, SecretKey hmacKey) throws Exception {
+        if (TokenFile.isTokenFile(Paths.get(inputPath))) {
+            TokenFile.decrypt(Paths.get(inputPath), Paths.get(outputPath), aesKey, hmacKey);
+            return;
+        }
         String base64Token = new String(readAllBytes(inputPath), StandardCharsets.UTF_8);
-        byte[] decrypted = decrypt(base64Token, aesKey, hmacKey);
+        byte[] decrypted = decrypt(base64Token.trim(), aesKey, hmacKey);
         try (FileOutputStream out = new FileOutputStream(outputPath)) {
             out.write(decrypted);
         } catch (IOException e) {
@@ -1,16 +1,14 @@
 package fernet;
 
+import utils.CryptoUtil;
 import utils.WriteKeysUtil;
 
-import java.security.SecureRandom;
 import java.util.Base64;
 import java.util.Objects;
 
 public class KeyGenerator {
     public String getFernKey() {
-        byte[] key = new byte[32]; // 32 bytes = 256 bits
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(key);
+        byte[] key = CryptoUtil.randomBytes(32); // 32 bytes = 256 bits
         return Base64.getEncoder().encodeToString(key);
     }
 
@@ -0,0 +1,254 @@
+package fernet;
+
+import utils.CryptoUtil;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Binary container for encrypted files, streamed through {@link FileChannel}s in chunks instead of
+ * being built as one Base64 string:
+ * <pre>
+ * magic       4   0x89 'E' 'N' 'C'
+ * suite       1   {@link CipherSuite} version
+ * timestamp   8   seconds
+ * ivLength    1
+ * iv          ivLength
+ * length      8   ciphertext length
+ * ciphertext  length
+ * trailer         HMAC-SHA256 of everything before it (fernet, 32) or the GCM tag (aes-gcm, 16)
+ * </pre>
+ * The header is authenticated too: by the HMAC for fernet, as associated data for aes-gcm. The magic
+ * cannot start a Base64 file, so older Base64 tokens are told apart by their first bytes.
+ * <p>
+ * An aes-gcm file is decrypted in one call and its plaintext held in memory until the tag is checked,
+ * so aes-gcm takes files up to {@link #MAX_GCM_PLAINTEXT} bytes, the largest array Java can allocate;
+ * fernet streams and takes files of any size.
+ */
+final class TokenFile {
+    private static final byte[] MAGIC = {(byte) 0x89, 'E', 'N', 'C'};
+    private static final int FIXED_HEADER = MAGIC.length + 1 + 8 + 1; // Magic, suite, timestamp and IV length
+    private static final int CHUNK = 64 * 1024;
+    private static final int HMAC_LENGTH = 32;
+    static final long MAX_GCM_PLAINTEXT = Integer.MAX_VALUE - 8 - EncryptDecrypt.GCM_TAG_BITS / 8;
+
+    private TokenFile() {
+    }
+
+    // True if the file starts with the container magic, false for Base64 tokens
+    static boolean isTokenFile(Path path) throws IOException {
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining()) {
+                if (input.read(magic) == -1) {
+                    return false;
+                }
+            }
+            return MessageDigest.isEqual(magic.array(), MAGIC);
+        }
+    }
+
+    static void encrypt(Path inputPath, Path outputPath, SecretKey aesKey, SecretKey hmacKey, CipherSuite suite)
+            throws IOException, GeneralSecurityException {
+        boolean gcm = suite == CipherSuite.AES_GCM;
+        // Checked before the output is opened, opening it truncates an existing file
+        long inputLength = Files.size(inputPath);
+        if (gcm && inputLength > MAX_GCM_PLAINTEXT) {
+            throw new IllegalArgumentException("File of " + inputLength + " bytes is too large for " + suite.getName()
+                    + ", which takes up to " + MAX_GCM_PLAINTEXT + " bytes; use " + CipherSuite.FERNET.getName() + ".");
+        }
+        byte[] iv = new byte[gcm ? EncryptDecrypt.GCM_IV_LENGTH : 16];
+        CryptoUtil.randomBytes(iv);
+
+        try (FileChannel input = FileChannel.open(inputPath, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long plaintextLength = input.size();
+            long ciphertextLength = gcm ? plaintextLength : (plaintextLength / 16 + 1) * 16; // CBC always adds 1 to 16 bytes of padding
+
+            ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER + iv.length + 8)
+                    .put(MAGIC)
+                    .put(suite.version)
+                    .putLong(System.currentTimeMillis() / 1000)
+                    .put((byte) iv.length)
+                    .put(iv)
+                    .putLong(ciphertextLength)
+                    .flip();
+
+            Cipher cipher;
+            Mac mac = null;
+            if (gcm) {
+                cipher = CryptoUtil.aesGcm();
+                cipher.init(Cipher.ENCRYPT_MODE, EncryptDecrypt.gcmKey(aesKey, hmacKey), new GCMParameterSpec(EncryptDecrypt.GCM_TAG_BITS, iv));
+                cipher.updateAAD(header.duplicate());
+            } else {
+                cipher = CryptoUtil.aesCbc();
+                cipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(iv));
+                mac = CryptoUtil.hmacSHA256();
+                mac.init(hmacKey);
+                mac.update(header.duplicate());
+            }
+            writeFully(output, header);
+
+            ByteBuffer in = ByteBuffer.allocate(CHUNK);
+            ByteBuffer out = ByteBuffer.allocate(cipher.getOutputSize(CHUNK));
+            while (input.read(in) != -1) {
+                in.flip();
+                out.clear();
+                cipher.update(in, out);
+                writeEncrypted(output, out, mac);
+                in.clear();
+            }
+
+            // The last CBC block, or the rest of the GCM ciphertext followed by its tag as the trailer
+            in.flip();
+            out = ByteBuffer.allocate(cipher.getOutputSize(0));
+            cipher.doFinal(in, out);
+            writeEncrypted(output, out, mac);
+            if (mac != null) {
+                writeFully(output, ByteBuffer.wrap(mac.doFinal()));
+            }
+        }
+    }
+
+    /**
+     * Decrypts a container into outputPath. The plaintext is written to a temporary file next to it and
+     * only moved into place once the HMAC or tag is verified, so a tampered file leaves nothing behind.
+     */
+    static void decrypt(Path inputPath, Path outputPath, SecretKey aesKey, SecretKey hmacKey) throws IOException, GeneralSecurityException {
+        Path partPath = outputPath.resolveSibling(outputPath.getFileName() + ".part");
+        try (FileChannel input = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+            ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER);
+            readFully(input, fixed);
+            fixed.flip();
+            byte[] magic = new byte[MAGIC.length];
+            fixed.get(magic);
+            if (!MessageDigest.isEqual(magic, MAGIC)) {
+                throw new SecurityException("Not an encrypted file.");
+            }
+            CipherSuite suite = CipherSuite.forVersion(fixed.get());
+            boolean gcm = suite == CipherSuite.AES_GCM;
+            fixed.getLong(); // Timestamp
+            int ivLength = fixed.get() & 0xff;
+            if (ivLength != (gcm ? EncryptDecrypt.GCM_IV_LENGTH : 16)) {
+                throw new SecurityException("Invalid IV length " + ivLength + " for " + suite.getName() + ".");
+            }
+
+            ByteBuffer rest = ByteBuffer.allocate(ivLength + 8);
+            readFully(input, rest);
+            rest.flip();
+            byte[] iv = new byte[ivLength];
+            rest.get(iv);
+            long ciphertextLength = rest.getLong();
+            int trailerLength = gcm ? EncryptDecrypt.GCM_TAG_BITS / 8 : HMAC_LENGTH;
+            if (ciphertextLength < 0 || input.size() != FIXED_HEADER + rest.capacity() + ciphertextLength + trailerLength) {
+                throw new SecurityException("Encrypted file is truncated or has trailing data.");
+            }
+            if (gcm && ciphertextLength > MAX_GCM_PLAINTEXT) {
+                throw new SecurityException("Encrypted file is larger than " + suite.getName() + " allows.");
+            }
+
+            Cipher cipher;
+            Mac mac = null;
+            if (gcm) {
+                cipher = CryptoUtil.aesGcm();
+                cipher.init(Cipher.DECRYPT_MODE, EncryptDecrypt.gcmKey(aesKey, hmacKey), new GCMParameterSpec(EncryptDecrypt.GCM_TAG_BITS, iv));
+                cipher.updateAAD(fixed.flip());
+                cipher.updateAAD(rest.flip());
+            } else {
+                cipher = CryptoUtil.aesCbc();
+                cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(iv));
+                mac = CryptoUtil.hmacSHA256();
+                mac.init(hmacKey);
+                mac.update(fixed.flip());
+                mac.update(rest.flip());
+            }
+
+            try (FileChannel output = FileChannel.open(partPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                if (gcm) {
+                    decryptGCM(input, output, cipher, ciphertextLength + trailerLength);
+                } else {
+                    decryptCBC(input, output, cipher, mac, ciphertextLength);
+                }
+            }
+            Files.move(partPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(partPath);
+        }
+    }
+
+    // Streams the ciphertext through the HMAC and CBC, the HMAC is checked before the padding so a forged file never reaches the padding check
+    private static void decryptCBC(FileChannel input, FileChannel output, Cipher cipher, Mac mac, long ciphertextLength)
+            throws IOException, GeneralSecurityException {
+        long remaining = ciphertextLength;
+        ByteBuffer in = ByteBuffer.allocate(CHUNK);
+        ByteBuffer out = ByteBuffer.allocate(cipher.getOutputSize(CHUNK) + 16); // Room for the block CBC holds back for the padding
+        while (remaining > 0) {
+            in.clear().limit((int) Math.min(CHUNK, remaining));
+            readFully(input, in);
+            in.flip();
+            remaining -= in.remaining();
+            mac.update(in.duplicate());
+            out.clear();
+            cipher.update(in, out);
+            writeFully(output, out.flip());
+        }
+
+        ByteBuffer trailer = ByteBuffer.allocate(HMAC_LENGTH);
+        readFully(input, trailer);
+        if (!MessageDigest.isEqual(trailer.array(), mac.doFinal())) {
+            throw new SecurityException("HMAC verification failed. Data may have been tampered with.");
+        }
+        out = ByteBuffer.allocate(cipher.getOutputSize(0));
+        cipher.doFinal(ByteBuffer.allocate(0), out);
+        writeFully(output, out.flip());
+    }
+
+    // GCM releases no plaintext before the tag is checked, so the ciphertext and tag are mapped and decrypted in one call instead of being buffered chunk by chunk;
+    // length is at most MAX_GCM_PLAINTEXT plus the tag, so it fits the int size of the output buffer
+    private static void decryptGCM(FileChannel input, FileChannel output, Cipher cipher, long length) throws IOException, GeneralSecurityException {
+        ByteBuffer in = input.map(FileChannel.MapMode.READ_ONLY, input.position(), length);
+        ByteBuffer out = ByteBuffer.allocate(cipher.getOutputSize((int) length));
+        try {
+            cipher.doFinal(in, out);
+        } catch (AEADBadTagException e) {
+            throw new SecurityException("GCM tag verification failed. Data may have been tampered with.", e);
+        }
+        writeFully(output, out.flip());
+    }
+
+    // Writes ciphertext from out, adding it to the HMAC for fernet
+    private static void writeEncrypted(FileChannel output, ByteBuffer out, Mac mac) throws IOException {
+        out.flip();
+        if (mac != null) {
+            mac.update(out.duplicate());
+        }
+        writeFully(output, out);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                throw new SecurityException("Encrypted file is truncated.");
+            }
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package keystore;
+
+import utils.HashUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The keys of all nodes in one binary file, {@code keys/keystore.bin} by default ({@code node.keystore}).
+ * <p>
+ * The file is memory-mapped once. Only its index is read up front: node id to entry offset, and the
+ * SHA-256 fingerprint of every public key to its node. An entry is decoded on first use and cached, so
+ * later lookups are a hash probe. Nodes missing from the file are looked up in the public-key directory,
+ * {@code keys/directory.bin} ({@code node.keyDirectory}), a keystore with only the public keys of all
+ * provisioned nodes, and then in their old {@code keys/<nodeId>.txt} file, if there is one.
+ * <pre>
+ * magic 'K' 'S' 'T' '1' | count (4)
+ * index:   count x (nodeId | offset (4) | fingerprints (1) | fingerprints x 32 bytes)
+ * entries: keys (4) | keys x (name | value)
+ * </pre>
+ * Strings are their UTF-8 length (4) followed by the bytes. Writes rewrite the file to a temporary file
+ * and move it into place, they are rare (key generation and imports) and batched with {@link #putAll}.
+ */
+public class KeyStore {
+    private static final byte[] MAGIC = {'K', 'S', 'T', '1'};
+    private static final String DEFAULT_PATH = "keys/keystore.bin";
+    private static final String DEFAULT_DIRECTORY_PATH = "keys/directory.bin";
+    private static final String LEGACY_DIR = "keys";
+    private static volatile KeyStore instance;
+
+    private final Path path;
+    private final Path legacyDir; // null for the directory, which has no key files
+    private final KeyStore directory; // Public keys of other nodes, null for the directory itself
+    private final Map<String, NodeKeys> cache = new ConcurrentHashMap<>();
+    private final Map<String, String> legacyFingerprints = new ConcurrentHashMap<>(); // fingerprint -> nodeId, for nodes read from key files
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    // The mapped file with its index, replaced as a whole on every load so readers never mix two versions of the file
+    private record Snapshot(ByteBuffer mapped, Map<String, Integer> offsets, Map<String, String> fingerprints) {
+        static final Snapshot EMPTY = new Snapshot(null, Map.of(), Map.of()); // offsets: nodeId -> entry offset, fingerprints: fingerprint -> nodeId
+    }
+
+    public KeyStore(Path path, Path legacyDir) throws IOException {
+        this(path, null, legacyDir);
+    }
+
+    public KeyStore(Path path, KeyStore directory, Path legacyDir) throws IOException {
+        this.path = path;
+        this.directory = directory;
+        this.legacyDir = legacyDir;
+        load();
+    }
+
+    // The keystore of this process, opened on first use
+    public static KeyStore get() {
+        KeyStore current = instance;
+        if (current == null) {
+            synchronized (KeyStore.class) {
+                if (instance == null) {
+                    try {
+                        KeyStore directory = new KeyStore(Paths.get(System.getProperty("node.keyDirectory", DEFAULT_DIRECTORY_PATH)), null, null);
+                        instance = new KeyStore(Paths.get(System.getProperty("node.keystore", DEFAULT_PATH)), directory, Paths.get(LEGACY_DIR));
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Could not open the keystore: " + e.getMessage(), e);
+                    }
+                }
+                current = instance;
+            }
+        }
+        return current;
+    }
+
+    // The keys of a node, from the keystore, the directory or its old key file
+    public Optional<NodeKeys> find(String nodeId) {
+        NodeKeys keys = cache.get(nodeId);
+        if (keys != null) {
+            return Optional.of(keys);
+        }
+        Snapshot current = snapshot;
+        Integer offset = current.offsets().get(nodeId);
+        if (offset != null) {
+            keys = readEntry(current, nodeId, offset);
+        } else if (directory != null && directory.snapshot.offsets().containsKey(nodeId)) {
+            return directory.find(nodeId);
+        } else {
+            keys = readLegacy(nodeId);
+            if (keys == null) {
+                return Optional.empty();
+            }
+            indexFingerprints(keys);
+        }
+        NodeKeys existing = cache.putIfAbsent(nodeId, keys);
+        return Optional.of(existing != null ? existing : keys);
+    }
+
+    // The keys of a node, IllegalStateException if it has none
+    public NodeKeys require(String nodeId) {
+        return find(nodeId).orElseThrow(() -> new IllegalStateException("No keys for " + nodeId));
+    }
+
+    // The node a public key line belongs to
+    public Optional<String> nodeIdFor(String publicKeyLine) {
+        return nodeIdForFingerprint(NodeKeys.fingerprint(publicKeyLine));
+    }
+
+    // The public key line with the fingerprint, from the keys of its node
+    public Optional<String> publicKeyFor(String fingerprint) {
+        return nodeIdForFingerprint(fingerprint)
+                .flatMap(this::find)
+                .flatMap(keys -> keys.keys().keySet().stream()
+                        .filter(NodeKeys::isPublicKey)
+                        .map(keys::line)
+                        .filter(line -> NodeKeys.fingerprint(line).equals(fingerprint))
+                        .findFirst());
+    }
+
+    private Optional<String> nodeIdForFingerprint(String fingerprint) {
+        String nodeId = snapshot.fingerprints().get(fingerprint);
+        if (nodeId == null && directory != null) {
+            nodeId = directory.snapshot.fingerprints().get(fingerprint);
+        }
+        return Optional.ofNullable(nodeId != null ? nodeId : legacyFingerprints.get(fingerprint));
+    }
+
+    /**
+     * Adds or replaces the keys of a node and writes the keystore.
+     *
+     * @param keys The node's keys.
+     * @throws IOException If the keystore could not be written.
+     */
+    public void put(NodeKeys keys) throws IOException {
+        putAll(List.of(keys));
+    }
+
+    /**
+     * Adds or replaces the keys of several nodes, writing the keystore once.
+     *
+     * @param keys The nodes' keys.
+     * @throws IOException If the keystore could not be written.
+     */
+    public synchronized void putAll(Collection<NodeKeys> keys) throws IOException {
+        Snapshot current = snapshot;
+        Map<String, NodeKeys> all = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : current.offsets().entrySet()) {
+            NodeKeys cached = cache.get(entry.getKey());
+            all.put(entry.getKey(), cached != null ? cached : readEntry(current, entry.getKey(), entry.getValue()));
+        }
+        for (NodeKeys nodeKeys : keys) {
+            all.put(nodeKeys.nodeId(), nodeKeys);
+        }
+        write(all.values());
+        for (NodeKeys nodeKeys : keys) {
+            cache.put(nodeKeys.nodeId(), nodeKeys);
+        }
+        load();
+    }
+
+    /**
+     * Adds the public keys of nodes to the public-key directory, which other nodes load to find them.
+     *
+     * @param keys The nodes' keys, private keys are left out.
+     * @throws IOException If the directory could not be written.
+     */
+    public void publish(Collection<NodeKeys> keys) throws IOException {
+        if (directory == null) {
+            throw new IllegalStateException("This keystore has no directory.");
+        }
+        directory.putAll(keys.stream().map(NodeKeys::publicKeys).toList());
+    }
+
+    // Node ids stored in the keystore file
+    public List<String> nodeIds() {
+        return new ArrayList<>(snapshot.offsets().keySet());
+    }
+
+    private synchronized void load() throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException(path + " is not a keystore.");
+        }
+        int count = buffer.getInt();
+        Map<String, Integer> index = new LinkedHashMap<>();
+        Map<String, String> fingerprintIndex = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String nodeId = readString(buffer);
+            index.put(nodeId, buffer.getInt());
+            int fingerprintCount = buffer.get() & 0xff;
+            for (int j = 0; j < fingerprintCount; j++) {
+                byte[] fingerprint = new byte[32];
+                buffer.get(fingerprint);
+                fingerprintIndex.put(HashUtil.toHex(fingerprint), nodeId);
+            }
+        }
+        snapshot = new Snapshot(buffer, Collections.unmodifiableMap(index), Collections.unmodifiableMap(fingerprintIndex));
+    }
+
+    private static NodeKeys readEntry(Snapshot snapshot, String nodeId, int offset) {
+        ByteBuffer buffer = snapshot.mapped().duplicate().position(offset);
+        int count = buffer.getInt();
+        Map<String, String> keys = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            keys.put(readString(buffer), readString(buffer));
+        }
+        return new NodeKeys(nodeId, keys);
+    }
+
+    private NodeKeys readLegacy(String nodeId) {
+        if (legacyDir == null) {
+            return null;
+        }
+        Path legacyFile = legacyDir.resolve(nodeId + ".txt");
+        if (!Files.exists(legacyFile)) {
+            return null;
+        }
+        try {
+            return NodeKeys.parse(nodeId, Files.readString(legacyFile));
+        } catch (IOException e) {
+            System.err.println("Error reading keys for " + nodeId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void indexFingerprints(NodeKeys keys) {
+        for (String name : keys.keys().keySet()) {
+            if (NodeKeys.isPublicKey(name)) {
+                legacyFingerprints.put(NodeKeys.fingerprint(keys.line(name)), keys.nodeId());
+            }
+        }
+    }
+
+    private void write(Iterable<NodeKeys> all) throws IOException {
+        // Entries first, so the index can point at their offsets
+        List<byte[]> nodeIds = new ArrayList<>();
+        List<List<byte[]>> entryFingerprints = new ArrayList<>();
+        List<byte[]> entries = new ArrayList<>();
+        int indexSize = 0;
+        for (NodeKeys keys : all) {
+            byte[] nodeId = keys.nodeId().getBytes(StandardCharsets.UTF_8);
+            List<byte[]> publicKeys = new ArrayList<>();
+            int entrySize = 4;
+            for (Map.Entry<String, String> key : keys.keys().entrySet()) {
+                entrySize += 8 + utf8Length(key.getKey()) + utf8Length(key.getValue());
+                if (NodeKeys.isPublicKey(key.getKey())) {
+                    publicKeys.add(HexFormat.of().parseHex(NodeKeys.fingerprint(keys.line(key.getKey()))));
+                }
+            }
+            ByteBuffer entry = ByteBuffer.allocate(entrySize).putInt(keys.keys().size());
+            keys.keys().forEach((name, value) -> writeString(writeString(entry, name), value));
+            nodeIds.add(nodeId);
+            entryFingerprints.add(publicKeys);
+            entries.add(entry.array());
+            indexSize += 4 + nodeId.length + 4 + 1 + 32 * publicKeys.size();
+        }
+
+        int offset = MAGIC.length + 4 + indexSize;
+        int entriesSize = entries.stream().mapToInt(entry -> entry.length).sum();
+        ByteBuffer file = ByteBuffer.allocate(offset + entriesSize).put(MAGIC).putInt(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            file.putInt(nodeIds.get(i).length).put(nodeIds.get(i)).putInt(offset).put((byte) entryFingerprints.get(i).size());
+            entryFingerprints.get(i).forEach(file::put);
+            offset += entries.get(i).length;
+        }
+        entries.forEach(file::put);
+
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, "keystore", ".tmp");
+        try {
+            Files.write(temp, file.array());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static ByteBuffer writeString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args[0].startsWith("-help")) {
+            System.out.println("Usage:  java keystore.KeyStore import <nodeId>... | list");
+            return;
+        }
+
+        KeyStore keyStore = get();
+        if ("import".equals(args[0])) {
+            // Copies keys/<nodeId>.txt into the keystore, the text files can be removed afterwards
+            for (int i = 1; i < args.length; i++) {
+                NodeKeys keys = keyStore.readLegacy(args[i]);
+                if (keys == null) {
+                    System.out.println("No key file for " + args[i]);
+                    continue;
+                }
+                keyStore.put(keys);
+                System.out.println("Imported " + args[i] + ": " + String.join(", ", keys.keys().keySet()));
+            }
+        } else if ("list".equals(args[0])) {
+            for (String nodeId : keyStore.nodeIds()) {
+                NodeKeys keys = keyStore.require(nodeId);
+                for (String name : keys.keys().keySet()) {
+                    if (NodeKeys.isPublicKey(name)) {
+                        System.out.println(nodeId + " " + name + " " + NodeKeys.fingerprint(keys.line(name)));
+                    }
+                }
+            }
+        } else {
+            System.out.println("Use command 'import' or 'list'.");
+        }
+    }
+}
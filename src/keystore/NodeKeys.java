@@ -0,0 +1,87 @@
+package keystore;
+
+import utils.HashUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The keys of one node by name, e.g. {@code publicKey}, {@code privateKey} (RSA, {@code e,n} / {@code d,n})
+ * and {@code x25519PublicKey}, {@code x25519PrivateKey}. A key is recorded in transactions as its line,
+ * {@code name=value}, like in the key files the keystore replaces.
+ */
+public final class NodeKeys {
+    private final String nodeId;
+    private final Map<String, String> keys;
+
+    public NodeKeys(String nodeId, Map<String, String> keys) {
+        this.nodeId = nodeId;
+        this.keys = Collections.unmodifiableMap(new LinkedHashMap<>(keys));
+    }
+
+    // Keys from the text of a keys/<nodeId>.txt file, one name=value per line
+    public static NodeKeys parse(String nodeId, String keyFileContent) {
+        Map<String, String> keys = new LinkedHashMap<>();
+        keyFileContent.lines()
+                .filter(line -> line.indexOf('=') > 0)
+                .forEach(line -> keys.put(line.substring(0, line.indexOf('=')).trim(), line.substring(line.indexOf('=') + 1).trim()));
+        return new NodeKeys(nodeId, keys);
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public Map<String, String> keys() {
+        return keys;
+    }
+
+    // The value of a key, or null
+    public String get(String name) {
+        return keys.get(name);
+    }
+
+    // The value of a key, IllegalStateException if the node does not have it
+    public String value(String name) {
+        String value = keys.get(name);
+        if (value == null) {
+            throw new IllegalStateException(name + " not found for " + nodeId);
+        }
+        return value;
+    }
+
+    // name=value of a key, as recorded in transactions
+    public String line(String name) {
+        return name + "=" + value(name);
+    }
+
+    // A copy with the key added or replaced
+    public NodeKeys with(String name, String value) {
+        Map<String, String> updated = new LinkedHashMap<>(keys);
+        updated.put(name, value);
+        return new NodeKeys(nodeId, updated);
+    }
+
+    // A copy with only the public keys, for the public-key directory
+    public NodeKeys publicKeys() {
+        Map<String, String> publicKeys = new LinkedHashMap<>();
+        keys.forEach((name, value) -> {
+            if (isPublicKey(name)) {
+                publicKeys.put(name, value);
+            }
+        });
+        return new NodeKeys(nodeId, publicKeys);
+    }
+
+    // Public keys are the ones named publicKey or ending in PublicKey
+    static boolean isPublicKey(String name) {
+        return name.equals("publicKey") || name.endsWith("PublicKey");
+    }
+
+    // Hex SHA-256 of a public key line, also its key id in transactions and FTC blocks
+    public static String fingerprint(String publicKeyLine) {
+        return HashUtil.toHex(HashUtil.sha256().digest(publicKeyLine.getBytes(StandardCharsets.UTF_8)));
+    }
+}
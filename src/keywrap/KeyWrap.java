@@ -0,0 +1,34 @@
+package keywrap;
+
+import keystore.NodeKeys;
+
+/**
+ * Encrypts (wraps) a Fernet file key for the owner of a public key, and decrypts it again with the
+ * matching private key. Every scheme keeps its own keys in the node's {@link NodeKeys}, next to the RSA
+ * keys that sign transactions.
+ */
+public interface KeyWrap {
+
+    // Name recorded in the transactions that use the scheme
+    String scheme();
+
+    /**
+     * @param keys Keys of a node.
+     * @return The public key line of the scheme, as recorded in transactions and UserInfos.
+     */
+    String publicKey(NodeKeys keys);
+
+    /**
+     * @param fileKey The Base64 Fernet key.
+     * @param publicKey A public key line as returned by {@link #publicKey(NodeKeys)}.
+     * @return The wrapped file key.
+     */
+    String wrap(String fileKey, String publicKey);
+
+    /**
+     * @param wrappedKey A file key wrapped for the owner of the keys.
+     * @param keys Keys of the owner, with the private key of the scheme.
+     * @return The Base64 Fernet key.
+     */
+    String unwrap(String wrappedKey, NodeKeys keys);
+}
@@ -0,0 +1,27 @@
+package keywrap;
+
+/**
+ * The key-wrap schemes by name. New uploads use {@code node.keyWrap} (default {@code rsa}); a file keeps
+ * the scheme of its upload, so shares and downloads use the scheme recorded in the file's transaction,
+ * and blocks from before schemes were recorded are RSA.
+ */
+public class KeyWraps {
+    private static final KeyWrap RSA = new RsaKeyWrap();
+    private static final KeyWrap X25519 = new X25519KeyWrap();
+
+    // The scheme for a recorded name, null is RSA
+    public static KeyWrap get(String scheme) {
+        if (scheme == null || RsaKeyWrap.SCHEME.equals(scheme)) {
+            return RSA;
+        }
+        if (X25519KeyWrap.SCHEME.equals(scheme)) {
+            return X25519;
+        }
+        throw new IllegalArgumentException("Unknown key-wrap scheme: " + scheme);
+    }
+
+    // The scheme new uploads use
+    public static KeyWrap configured() {
+        return get(System.getProperty("node.keyWrap", RsaKeyWrap.SCHEME));
+    }
+}
@@ -0,0 +1,41 @@
+package keywrap;
+
+import keystore.NodeKeys;
+import rsa.EncryptDecrypt;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The original scheme: the Base64 text of the file key is read as a number and encrypted with textbook
+ * RSA, the result is written in decimal. Blocks without a recorded scheme use it.
+ */
+public class RsaKeyWrap implements KeyWrap {
+    public static final String SCHEME = "rsa";
+
+    @Override
+    public String scheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public String publicKey(NodeKeys keys) {
+        return keys.line("publicKey");
+    }
+
+    @Override
+    public String wrap(String fileKey, String publicKey) {
+        String[] pubParts = publicKey.split("=")[1].split(",");
+        BigInteger e = new BigInteger(pubParts[0]);
+        BigInteger n = new BigInteger(pubParts[1]);
+        return EncryptDecrypt.encrypt(new BigInteger(fileKey.getBytes(StandardCharsets.UTF_8)), e, n).toString();
+    }
+
+    @Override
+    public String unwrap(String wrappedKey, NodeKeys keys) {
+        String[] privParts = keys.value("privateKey").split(",");
+        BigInteger d = new BigInteger(privParts[0]);
+        BigInteger n = new BigInteger(privParts[1]);
+        return (String) EncryptDecrypt.decrypt(new BigInteger(wrappedKey), d, n, true);
+    }
+}
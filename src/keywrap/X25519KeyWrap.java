@@ -0,0 +1,154 @@
+package keywrap;
+
+import keystore.KeyStore;
+import keystore.NodeKeys;
+import utils.CryptoUtil;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * ECIES over X25519: every wrap generates an ephemeral key pair, agrees a secret with the receiver's
+ * public key, derives an AES-256 key from it with HKDF-SHA256 and encrypts the file key with AES-GCM.
+ * The wrapped key is the Base64 of the ephemeral public key (X.509, 44 bytes), the 12 byte IV and the
+ * ciphertext with its 16 byte tag; the ephemeral public key is also authenticated as associated data.
+ * <p>
+ * A key pair takes a fraction of a millisecond against seconds to find the primes of an RSA key, and
+ * an unwrap is about ten times faster than an RSA decryption. A wrap generates an ephemeral key pair, so
+ * it costs more than the RSA encryption with e = 65537, about a millisecond. Keys are kept as
+ * {@code x25519PublicKey} and {@code x25519PrivateKey} (Base64 X.509 / PKCS#8) in the node's keys.
+ */
+public class X25519KeyWrap implements KeyWrap {
+    public static final String SCHEME = "x25519";
+    static final String PUBLIC_KEY = "x25519PublicKey";
+    static final String PRIVATE_KEY = "x25519PrivateKey";
+
+    private static final String ALGORITHM = "X25519";
+    private static final int PUBLIC_KEY_LENGTH = 44;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final byte[] HKDF_INFO = "file-key-wrap".getBytes(StandardCharsets.UTF_8);
+
+    @Override
+    public String scheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public String publicKey(NodeKeys keys) {
+        return keys.line(PUBLIC_KEY);
+    }
+
+    @Override
+    public String wrap(String fileKey, String publicKey) {
+        try {
+            PublicKey receiverKey = KeyFactory.getInstance(ALGORITHM)
+                    .generatePublic(new X509EncodedKeySpec(decodeKeyLine(publicKey)));
+            KeyPair ephemeral = KeyPairGenerator.getInstance(ALGORITHM).generateKeyPair();
+            byte[] ephemeralPublic = ephemeral.getPublic().getEncoded();
+
+            byte[] iv = new byte[IV_LENGTH];
+            CryptoUtil.randomBytes(iv);
+            Cipher cipher = CryptoUtil.aesGcm();
+            cipher.init(Cipher.ENCRYPT_MODE, deriveKey(ephemeral.getPrivate(), receiverKey, ephemeralPublic),
+                    new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(ephemeralPublic);
+            byte[] ciphertext = cipher.doFinal(fileKey.getBytes(StandardCharsets.UTF_8));
+
+            byte[] wrapped = new byte[ephemeralPublic.length + IV_LENGTH + ciphertext.length];
+            System.arraycopy(ephemeralPublic, 0, wrapped, 0, ephemeralPublic.length);
+            System.arraycopy(iv, 0, wrapped, ephemeralPublic.length, IV_LENGTH);
+            System.arraycopy(ciphertext, 0, wrapped, ephemeralPublic.length + IV_LENGTH, ciphertext.length);
+            return Base64.getEncoder().encodeToString(wrapped);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to wrap the file key: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String unwrap(String wrappedKey, NodeKeys keys) {
+        try {
+            byte[] wrapped = Base64.getDecoder().decode(wrappedKey);
+            if (wrapped.length < PUBLIC_KEY_LENGTH + IV_LENGTH + TAG_BITS / 8) {
+                throw new IllegalArgumentException("Wrapped file key is too short.");
+            }
+            byte[] ephemeralPublic = Arrays.copyOfRange(wrapped, 0, PUBLIC_KEY_LENGTH);
+            PublicKey ephemeralKey = KeyFactory.getInstance(ALGORITHM).generatePublic(new X509EncodedKeySpec(ephemeralPublic));
+            PrivateKey privateKey = KeyFactory.getInstance(ALGORITHM)
+                    .generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(keys.value(PRIVATE_KEY))));
+
+            Cipher cipher = CryptoUtil.aesGcm();
+            cipher.init(Cipher.DECRYPT_MODE, deriveKey(privateKey, ephemeralKey, ephemeralPublic),
+                    new GCMParameterSpec(TAG_BITS, wrapped, PUBLIC_KEY_LENGTH, IV_LENGTH));
+            cipher.updateAAD(ephemeralPublic);
+            int offset = PUBLIC_KEY_LENGTH + IV_LENGTH;
+            return new String(cipher.doFinal(wrapped, offset, wrapped.length - offset), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to unwrap the file key: " + e.getMessage(), e);
+        }
+    }
+
+    // HKDF-SHA256 of the shared secret, salted with the ephemeral public key; one expand block gives the 32 byte AES key
+    private static SecretKeySpec deriveKey(PrivateKey privateKey, PublicKey publicKey, byte[] ephemeralPublic) throws GeneralSecurityException {
+        KeyAgreement agreement = KeyAgreement.getInstance(ALGORITHM);
+        agreement.init(privateKey);
+        agreement.doPhase(publicKey, true);
+        byte[] secret = agreement.generateSecret();
+
+        Mac mac = CryptoUtil.hmacSHA256();
+        mac.init(new SecretKeySpec(ephemeralPublic, "HmacSHA256"));
+        byte[] prk = mac.doFinal(secret);
+        mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        mac.update(HKDF_INFO);
+        mac.update((byte) 1);
+        return new SecretKeySpec(mac.doFinal(), "AES");
+    }
+
+    private static byte[] decodeKeyLine(String line) {
+        return Base64.getDecoder().decode(line.substring(line.indexOf('=') + 1).trim());
+    }
+
+    // The keys with a new X25519 key pair added, replacing an older one
+    public static NodeKeys addKeys(NodeKeys keys) {
+        try {
+            KeyPair keyPair = KeyPairGenerator.getInstance(ALGORITHM).generateKeyPair();
+            return keys.with(PUBLIC_KEY, Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()))
+                    .with(PRIVATE_KEY, Base64.getEncoder().encodeToString(keyPair.getPrivate().getEncoded()));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !"genX25519Keys".equals(args[0])) {
+            System.out.println("Usage:  java keywrap.X25519KeyWrap genX25519Keys <nodeId>...");
+            return;
+        }
+
+        // Adds the keys to the node's keystore entry, keeping its RSA keys
+        KeyStore keyStore = KeyStore.get();
+        for (int i = 1; i < args.length; i++) {
+            String nodeId = args[i];
+            NodeKeys keys = addKeys(keyStore.find(nodeId).orElseGet(() -> new NodeKeys(nodeId, Map.of())));
+            keyStore.put(keys);
+            System.out.println(nodeId + " keys: " + keys.line(PUBLIC_KEY));
+        }
+        System.out.println("Keys generated and saved to the keystore.");
+    }
+}
@@ -0,0 +1,164 @@
+package logging;
+
+import metrics.Metrics;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Non-blocking structured logging for the consensus paths.
+ * <p>
+ * A call only puts an event in a lock-free ring buffer; a background thread formats and writes the
+ * events to stdout (WARN and ERROR to stderr). If the ring is full the event is dropped and counted
+ * in the {@code log.dropped} metric, so a handler never waits on the console; only an ERROR is then
+ * written directly so it is not lost. Events are written as
+ * {@code 12:00:00.000 INFO [TAG] message key=value ...}. Fields are given as key, value pairs, and a
+ * Throwable as the last argument is printed with its stack trace.
+ * <p>
+ * The level is set with {@code -Dlog.level=DEBUG|INFO|WARN|ERROR} (default INFO) and the ring size
+ * with {@code -Dlog.bufferSize} (default 8192, a power of two).
+ */
+public class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final Level LEVEL = Level.valueOf(System.getProperty("log.level", "INFO").toUpperCase());
+    private static final int BUFFER_SIZE = Integer.getInteger("log.bufferSize", 8192);
+    private static final long IDLE_PARK_NANOS = 1_000_000; // Writer sleep when the ring is empty
+    private static final int MAX_BATCH_CHARS = 64 * 1024; // Write out a batch once it gets this large
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static final LogRing<Event> ring = new LogRing<>(BUFFER_SIZE);
+    private static final Map<String, AtomicLong> sampleCounters = new ConcurrentHashMap<>();
+    private static final Thread writer = new Thread(Log::drainLoop, "log-writer");
+    private static volatile boolean idle = true; // Writer has written everything it took from the ring
+
+    static {
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private record Event(long timeMillis, Level level, String tag, String message, Object[] fields) {
+    }
+
+    private Log() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    public static void debug(String tag, String message, Object... fields) {
+        log(Level.DEBUG, tag, message, fields);
+    }
+
+    public static void info(String tag, String message, Object... fields) {
+        log(Level.INFO, tag, message, fields);
+    }
+
+    public static void warn(String tag, String message, Object... fields) {
+        log(Level.WARN, tag, message, fields);
+    }
+
+    public static void error(String tag, String message, Object... fields) {
+        log(Level.ERROR, tag, message, fields);
+    }
+
+    // Logs only one in every n events of this tag, for high frequency events like heartbeats
+    public static void every(int n, Level level, String tag, String message, Object... fields) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long seen = sampleCounters.computeIfAbsent(tag, t -> new AtomicLong()).getAndIncrement();
+        if (seen % n == 0) {
+            log(level, tag, message, fields);
+        }
+    }
+
+    public static void log(Level level, String tag, String message, Object... fields) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Event event = new Event(System.currentTimeMillis(), level, tag, message, fields);
+        if (ring.offer(event)) {
+            return;
+        }
+
+        // Errors are rare and should not get lost, so those are written directly when the ring is full
+        Metrics.increment("log.dropped");
+        if (level == Level.ERROR) {
+            StringBuilder sb = new StringBuilder();
+            format(event, sb);
+            System.err.print(sb);
+        }
+    }
+
+    // Waits up to timeoutMillis for the queued events to be written, e.g. before the process exits
+    public static void flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while ((!ring.isEmpty() || !idle) && System.currentTimeMillis() < deadline) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private static void drainLoop() {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        while (true) {
+            idle = false;
+            Event event = ring.poll();
+            if (event == null) {
+                write(System.out, out);
+                write(System.err, err);
+                idle = true;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            try {
+                format(event, event.level().compareTo(Level.WARN) >= 0 ? err : out);
+            } catch (RuntimeException e) {
+                err.append("Error formatting log event: ").append(e).append('\n');
+            }
+            if (out.length() > MAX_BATCH_CHARS || err.length() > MAX_BATCH_CHARS) {
+                write(System.out, out);
+                write(System.err, err);
+            }
+        }
+    }
+
+    private static void write(PrintStream stream, StringBuilder sb) {
+        if (sb.length() > 0) {
+            stream.print(sb);
+            stream.flush();
+            sb.setLength(0);
+        }
+    }
+
+    private static void format(Event event, StringBuilder sb) {
+        LocalTime time = LocalTime.ofInstant(Instant.ofEpochMilli(event.timeMillis()), ZoneId.systemDefault());
+        TIME_FORMAT.formatTo(time, sb);
+        sb.append(' ').append(event.level()).append(" [").append(event.tag()).append("] ").append(event.message());
+
+        Object[] fields = event.fields();
+        int pairs = fields.length / 2;
+        for (int i = 0; i < pairs; i++) {
+            sb.append(' ').append(fields[2 * i]).append('=').append(fields[2 * i + 1]);
+        }
+        sb.append('\n');
+
+        if (fields.length % 2 == 1 && fields[fields.length - 1] instanceof Throwable error) {
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            sb.append(trace);
+        }
+    }
+}
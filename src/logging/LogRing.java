@@ -0,0 +1,55 @@
+package logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer.
+ * <p>
+ * Producers claim a slot by moving the tail with a CAS and never wait: if the ring is full
+ * {@link #offer} returns false straight away. The single consumer reads slots in order and
+ * frees them by moving the head.
+ */
+class LogRing<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // Next slot to claim
+    private volatile long head = 0; // Next slot to read, only moved by the consumer
+
+    LogRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two.");
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    boolean offer(T item) {
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (claimed - head >= slots.length()) {
+                return false;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+
+        slots.set((int) (claimed & mask), item);
+        return true;
+    }
+
+    // Next item, or null if the ring is empty or the next claimed slot is not written yet. Consumer only.
+    T poll() {
+        int index = (int) (head & mask);
+        T item = slots.get(index);
+        if (item == null) {
+            return null;
+        }
+        slots.set(index, null);
+        head = head + 1;
+        return item;
+    }
+
+    boolean isEmpty() {
+        return head == tail.get();
+    }
+}
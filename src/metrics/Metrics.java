@@ -0,0 +1,105 @@
+package metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process wide registry of counters, gauges and latency histograms.
+ * <p>
+ * Names are dotted, e.g. {@code pbft.fic.commit} or {@code upload.step4}. Counters and histograms are
+ * created on first use and are lock-free afterwards, so they can be updated from any hot path.
+ * Time a step with {@code long start = System.nanoTime(); ...; Metrics.recordSince("name", start);}.
+ * Gauges of a node are named {@code <nodeId>.<name>}, so several nodes in one process each report their
+ * own, and are removed when the node stops.
+ */
+public class Metrics {
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static void increment(String name) {
+        counter(name).increment();
+    }
+
+    public static void add(String name, long value) {
+        counter(name).add(value);
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    // Records the time since startNanos (from System.nanoTime()) in the named histogram
+    public static void recordSince(String name, long startNanos) {
+        histogram(name).record(System.nanoTime() - startNanos);
+    }
+
+    // Records a transfer of the given size, reported as latency and as throughput
+    public static void recordTransfer(String name, long bytes, long startNanos) {
+        recordSince(name, startNanos);
+        add(name + ".bytes", bytes);
+    }
+
+    // A value read when metrics are reported, e.g. a queue depth
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // A value of one node, reported as <nodeId>.<name>
+    public static void gauge(String nodeId, String name, LongSupplier value) {
+        gauges.put(nodeId + "." + name, value);
+    }
+
+    // Removes the gauges of a node, e.g. when it stops
+    public static void removeGauges(String nodeId) {
+        gauges.keySet().removeIf(name -> name.startsWith(nodeId + "."));
+    }
+
+    // Current counter and gauge values by name
+    public static Map<String, Long> counters() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    public static Map<String, LatencyHistogram> histograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Plain text snapshot: one line per counter or gauge, then one line per histogram with its count,
+     * mean, p50 / p90 / p99 and max in milliseconds, and the throughput if bytes were recorded for it.
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        Map<String, Long> values = counters();
+        values.forEach((name, value) -> sb.append(name).append(' ').append(value).append('\n'));
+
+        histograms().forEach((name, histogram) -> {
+            sb.append(String.format("%s count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+                    name, histogram.getCount(), millis(histogram.getMean()), millis(histogram.getPercentile(50)),
+                    millis(histogram.getPercentile(90)), millis(histogram.getPercentile(99)), millis(histogram.getMax())));
+            Long bytes = values.get(name + ".bytes");
+            if (bytes != null && histogram.getSum() > 0) {
+                sb.append(String.format(" throughput=%.2fMB/s", bytes / 1e6 / (histogram.getSum() / 1e9)));
+            }
+            sb.append('\n');
+        });
+        return sb.toString();
+    }
+
+    private static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,13 @@
+package metrics;
+
+import java.util.Map;
+
+// JMX view of {@link Metrics}, registered as node:type=Metrics,name=<nodeId>
+public interface MetricsMXBean {
+    Map<String, Long> getCounters();
+
+    String getReport();
+
+    // Percentile of a histogram in milliseconds, 0 if it does not exist
+    double getLatencyMillis(String name, double percentile);
+}
@@ -0,0 +1,109 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.ObjectName;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes {@link Metrics} for one node: over HTTP on localhost ({@code GET /metrics}), as a JMX MXBean,
+ * and as a snapshot appended to a dump file at a fixed interval. Each of them can be switched off.
+ * Counters and histograms are those of the whole process; gauges carry the id of the node they belong to.
+ */
+public class MetricsReporter implements MetricsMXBean {
+    private final String nodeId;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metrics-dump");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private HttpServer server;
+
+    public MetricsReporter(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Starts the reporters.
+     *
+     * @param httpPort Port of the HTTP endpoint, or a negative number to disable it.
+     * @param dumpMillis Interval between dumps, or 0 to disable them.
+     * @param dumpPath File the dumps are appended to.
+     */
+    public void start(int httpPort, long dumpMillis, String dumpPath) {
+        if (httpPort >= 0) {
+            try {
+                server = HttpServer.create(new InetSocketAddress("localhost", httpPort), 0);
+                server.createContext("/metrics", exchange -> {
+                    byte[] body = Metrics.report().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                server.start();
+                System.out.println("[METRICS] " + nodeId + " Serving metrics on http://localhost:" + httpPort + "/metrics");
+            } catch (IOException e) {
+                System.err.println("[METRICS] " + nodeId + " Could not serve metrics on port " + httpPort + ": " + e.getMessage());
+            }
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("node:type=Metrics,name=" + nodeId));
+        } catch (Exception e) {
+            System.err.println("[METRICS] " + nodeId + " Could not register JMX bean: " + e.getMessage());
+        }
+
+        if (dumpMillis > 0) {
+            executor.scheduleAtFixedRate(() -> dump(dumpPath), dumpMillis, dumpMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        if (server != null) {
+            server.stop(0);
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName("node:type=Metrics,name=" + nodeId));
+        } catch (Exception ignored) {
+        }
+    }
+
+    public void dump(String dumpPath) {
+        try (FileWriter writer = new FileWriter(dumpPath, true)) {
+            writer.write("# " + nodeId + " " + new Date() + System.lineSeparator());
+            writer.write(Metrics.report());
+            writer.write(System.lineSeparator());
+        } catch (IOException e) {
+            System.err.println("[METRICS] Error writing metrics to file: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return Metrics.counters();
+    }
+
+    @Override
+    public String getReport() {
+        return Metrics.report();
+    }
+
+    @Override
+    public double getLatencyMillis(String name, double percentile) {
+        LatencyHistogram histogram = Metrics.histograms().get(name);
+        return histogram == null ? 0 : histogram.getPercentile(percentile) / 1e6;
+    }
+}
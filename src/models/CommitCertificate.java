@@ -0,0 +1,55 @@
+package models;
+
+import utils.GsonUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Signed COMMIT votes for one block, at most one per voter.
+ * The current leader collects them and attaches the certificate to the NEW_BLOCK / UPLOAD_NEW_BLOCK
+ * broadcast, so followers check one certificate instead of trusting the block as is.
+ */
+public class CommitCertificate {
+    private String blockHash;
+    private List<CommitVote> votes = new ArrayList<>();
+
+    public CommitCertificate(String blockHash) {
+        this.blockHash = Objects.requireNonNull(blockHash, "blockHash");
+    }
+
+    // Number of distinct votes needed out of the given number of participants (2/3, at least one)
+    public static int quorum(int participants) {
+        return Math.max(1, (participants * 2) / 3);
+    }
+
+    // Adds the vote unless it is for another block or the voter already voted.
+    // Returns the number of votes after adding it, or -1 if it was not added
+    public synchronized int addVote(CommitVote vote) {
+        if (vote == null || vote.getVoterId() == null || !blockHash.equals(vote.getBlockHash())) {
+            return -1;
+        }
+        for (CommitVote existing : votes) {
+            if (existing.getVoterId().equals(vote.getVoterId())) {
+                return -1;
+            }
+        }
+        votes.add(vote);
+        return votes.size();
+    }
+
+    public synchronized int size() {
+        return votes.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return GsonUtil.GSON.toJson(this);
+    }
+
+    // Getters
+    public String getBlockHash() { return blockHash; }
+
+    public synchronized List<CommitVote> getVotes() { return new ArrayList<>(votes); }
+}
@@ -0,0 +1,30 @@
+package models;
+
+import utils.GsonUtil;
+
+public class CommitVote {
+    private String voterId; // Node that sent the COMMIT
+    private String blockHash; // Hash of the block the vote is for
+    private String signature; // Voter's signature over voterId and blockHash
+
+    public CommitVote(String voterId, String blockHash, String signature) {
+        this.voterId = voterId;
+        this.blockHash = blockHash;
+        this.signature = signature;
+    }
+
+    @Override
+    public String toString() {
+        return GsonUtil.GSON.toJson(this);
+    }
+
+    // Getters and Setters
+    public String getVoterId() { return voterId; }
+    public void setVoterId(String voterId) { this.voterId = voterId; }
+
+    public String getBlockHash() { return blockHash; }
+    public void setBlockHash(String blockHash) { this.blockHash = blockHash; }
+
+    public String getSignature() { return signature; }
+    public void setSignature(String signature) { this.signature = signature; }
+}
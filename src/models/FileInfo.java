@@ -1,6 +1,6 @@
 package models;
 
-import com.google.gson.Gson;
+import utils.GsonUtil;
 
 public class FileInfo {
     private String fileName;
@@ -15,7 +15,7 @@ public class FileInfo {
 
     @Override
     public String toString() {
-        return new Gson().toJson(this);
+        return GsonUtil.GSON.toJson(this);
     }
 
     // Getters and Setters
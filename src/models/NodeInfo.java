@@ -1,6 +1,6 @@
 package models;
 
-import com.google.gson.Gson;
+import utils.GsonUtil;
 
 public class NodeInfo {
     private String nodeId; // Unique identifier for the node, e.g., username
@@ -27,7 +27,7 @@ public class NodeInfo {
 
     @Override
     public String toString() {
-        return new Gson().toJson(this);
+        return GsonUtil.GSON.toJson(this);
     }
 
     // Getters and Setters
@@ -1,7 +1,7 @@
 package models;
 
-import com.google.gson.Gson;
 import utils.HashUtil;
+import utils.GsonUtil;
 
 public class Transaction {
     private NodeInfo sender;
@@ -14,6 +14,7 @@ public class Transaction {
     private String transactionType;
     private String creatorSign;
     private String validatorSign;
+    private String keyWrap; // Key-wrap scheme of encryptedFileKey, null for RSA blocks from before schemes were recorded
 
     public Transaction(NodeInfo sender, NodeInfo receiver, String fileName, String fileHash, String senderPublicKey, String receiverPublicKey,
                        String encryptedFileKey, String transactionType,
@@ -32,7 +33,7 @@ public class Transaction {
 
     @Override
     public String toString() {
-        return new Gson().toJson(this);
+        return GsonUtil.GSON.toJson(this);
     }
 
 
@@ -66,4 +67,7 @@ public class Transaction {
 
     public String getValidatorSign() { return validatorSign; }
     public void setValidatorSign(String validatorSign) { this.validatorSign = validatorSign; }
+
+    public String getKeyWrap() { return keyWrap; }
+    public void setKeyWrap(String keyWrap) { this.keyWrap = keyWrap; }
 }
\ No newline at end of file
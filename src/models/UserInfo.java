@@ -1,6 +1,6 @@
 package models;
 
-import com.google.gson.Gson;
+import utils.GsonUtil;
 
 public class UserInfo {
     private String publicKey; // User's public key
@@ -13,7 +13,7 @@ public class UserInfo {
 
     @Override
     public String toString() {
-        return new Gson().toJson(this);
+        return GsonUtil.GSON.toJson(this);
     }
 
     // Getters and Setters
@@ -1,11 +1,12 @@
 package models;
 
-import com.google.gson.Gson;
+import utils.GsonUtil;
 
 public class VoteInfo {
     private String voterId;
     private String candidateId;
     private double voteWeight;
+    private transient String[] candidateIds; // Parsed candidateId, not serialized
 
     public VoteInfo(String voterId, String candidateId, double voteWeight) {
         this.voterId = voterId;
@@ -24,7 +25,7 @@ public class VoteInfo {
 
     @Override
     public String toString() {
-        return new Gson().toJson(this);
+        return GsonUtil.GSON.toJson(this);
     }
 
     // Getters and Setters
@@ -32,7 +33,15 @@ public class VoteInfo {
     public void setVoterId(String voterId) { this.voterId = voterId; }
 
     public String getCandidateId() { return candidateId; }
-    public void setCandidateId(String candidateId) { this.candidateId = candidateId; }
+    public void setCandidateId(String candidateId) { this.candidateId = candidateId; this.candidateIds = null; }
+
+    // candidateId split on "," once and cached, so vote counting does not split it again
+    public String[] getCandidateIds() {
+        if (candidateIds == null) {
+            candidateIds = candidateId == null ? new String[0] : candidateId.split(",");
+        }
+        return candidateIds;
+    }
 
     public double getVoteWeight() { return voteWeight; }
     public void setVoteWeight(double voteWeight) { this.voteWeight = voteWeight; }
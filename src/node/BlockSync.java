@@ -0,0 +1,270 @@
+package node;
+
+import blockchain.BlockCodec;
+import blockchain.FICBlock;
+import blockchain.FICBlockchain;
+import blockchain.FTCBlock;
+import blockchain.FTCBlockchain;
+import com.google.gson.reflect.TypeToken;
+import logging.Log;
+import models.NodeInfo;
+import transport.Address;
+import transport.Transport;
+import utils.GsonUtil;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * Catch-up protocol for nodes that missed blocks.
+ * <p>
+ * Every node answers {@code GET_TIP} with the height and last hash of both chains, and
+ * {@code GET_BLOCKS-<FIC|FTC>-<from>-<to>} with the blocks in that range. A lagging node asks all
+ * peers for their tip, splits the missing range into chunks, fetches the chunks from different peers
+ * in parallel and appends them in order, checking each block against the one before it. If the peer
+ * chain does not link to ours at all, the whole chain is fetched and replaces ours when it is valid
+ * and longer.
+ */
+public class BlockSync {
+    private static final int CHUNK_SIZE = 32; // Blocks per GET_BLOCKS request
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private final String nodeId;
+    private final FICBlockchain ficBlockchain;
+    private final FTCBlockchain ftcBlockchain;
+    private final Transport transport;
+    private final Function<NodeInfo, Address> addresses; // Where each peer is reached
+    private final ExecutorService executor = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "block-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean syncing = new AtomicBoolean(false);
+
+    // Height and last hash of a peer's chains
+    record Tip(NodeInfo peer, int ficHeight, String ficHash, int ftcHeight, String ftcHash) {
+    }
+
+    // The calls that differ between the FIC and the FTC chain
+    private interface Chain<B> {
+        String name();
+        int height();
+        String lastHash();
+        Type listType();
+        int heightOf(Tip tip);
+        int append(List<B> blocks);
+        boolean replaceWith(List<B> blocks);
+    }
+
+    public BlockSync(String nodeId, FICBlockchain ficBlockchain, FTCBlockchain ftcBlockchain, Transport transport, Function<NodeInfo, Address> addresses) {
+        this.nodeId = nodeId;
+        this.ficBlockchain = ficBlockchain;
+        this.ftcBlockchain = ftcBlockchain;
+        this.transport = transport;
+        this.addresses = addresses;
+    }
+
+    // Answer to GET_TIP
+    public String getTip() {
+        return "TIP-" + ficBlockchain.getHeight() + "-" + ficBlockchain.getLastBlock().getHash()
+                + "-" + ftcBlockchain.getHeight() + "-" + ftcBlockchain.getLastBlock().getHash();
+    }
+
+    // Answer to GET_BLOCKS-<FIC|FTC>-<from>-<to>, as a JSON array on one line, compressed if it is large
+    public String getBlocks(String chainName, int from, int to) {
+        Object blockchain = "FIC".equals(chainName) ? ficBlockchain : ftcBlockchain;
+        synchronized (blockchain) {
+            List<?> chain = "FIC".equals(chainName) ? ficBlockchain.getChain() : ftcBlockchain.getChain();
+            int end = Math.min(to, chain.size());
+            int start = Math.max(0, Math.min(from, end));
+            return BlockCodec.encode(GsonUtil.GSON.toJson(new ArrayList<>(chain.subList(start, end))),
+                    "FIC".equals(chainName) ? BlockCodec.Chain.FIC : BlockCodec.Chain.FTC);
+        }
+    }
+
+    // Start a sync in the background, unless one is already running
+    public void requestSync(List<NodeInfo> peers) {
+        if (!syncing.compareAndSet(false, true)) {
+            return;
+        }
+        List<NodeInfo> peersCopy = new ArrayList<>(peers);
+        executor.submit(() -> {
+            try {
+                sync(peersCopy);
+            } catch (Exception e) {
+                Log.error("SYNC", "Error during block sync", "node", nodeId, "error", e.getMessage());
+            } finally {
+                syncing.set(false);
+            }
+        });
+    }
+
+    // Bring both chains up to the highest tip among the peers
+    public void sync(List<NodeInfo> peers) {
+        List<CompletableFuture<Tip>> tipRequests = new ArrayList<>();
+        for (NodeInfo peer : peers) {
+            if (!peer.getNodeId().equals(nodeId)) {
+                tipRequests.add(CompletableFuture.supplyAsync(() -> requestTip(peer), executor));
+            }
+        }
+
+        List<Tip> tips = new ArrayList<>();
+        for (CompletableFuture<Tip> request : tipRequests) {
+            Tip tip = request.join();
+            if (tip != null) {
+                tips.add(tip);
+            }
+        }
+
+        syncChain(ficChain(), tips);
+        syncChain(ftcChain(), tips);
+    }
+
+    private <B> void syncChain(Chain<B> chain, List<Tip> tips) {
+        int targetHeight = chain.height();
+        for (Tip tip : tips) {
+            targetHeight = Math.max(targetHeight, chain.heightOf(tip));
+        }
+        if (targetHeight <= chain.height()) {
+            return;
+        }
+
+        int finalTargetHeight = targetHeight;
+        List<Tip> sources = tips.stream().filter(tip -> chain.heightOf(tip) >= finalTargetHeight).toList();
+        Log.info("SYNC", "Catching up", "node", nodeId, "chain", chain.name(), "height", chain.height(), "target", targetHeight, "peers", sources.size());
+
+        // Request all chunks at once, spread over the peers that have the full range
+        int from = chain.height();
+        List<int[]> ranges = new ArrayList<>();
+        List<CompletableFuture<List<B>>> chunks = new ArrayList<>();
+        for (int i = 0; from + i * CHUNK_SIZE < targetHeight; i++) {
+            int start = from + i * CHUNK_SIZE;
+            int end = Math.min(start + CHUNK_SIZE, targetHeight);
+            NodeInfo peer = sources.get(i % sources.size()).peer();
+            ranges.add(new int[]{start, end});
+            chunks.add(CompletableFuture.supplyAsync(() -> requestBlocks(chain, peer, start, end), executor));
+        }
+
+        // Append the chunks in order, retrying a chunk with the other peers if its peer failed
+        for (int i = 0; i < chunks.size(); i++) {
+            int[] range = ranges.get(i);
+            List<B> blocks = chunks.get(i).join();
+            for (int attempt = 1; (blocks == null || blocks.isEmpty()) && attempt < sources.size(); attempt++) {
+                blocks = requestBlocks(chain, sources.get((i + attempt) % sources.size()).peer(), range[0], range[1]);
+            }
+            if (blocks == null || blocks.isEmpty()) {
+                Log.warn("SYNC", "Could not fetch blocks", "node", nodeId, "chain", chain.name(), "from", range[0], "to", range[1]);
+                return;
+            }
+
+            int appended = chain.append(blocks);
+            if (appended == 0 && i == 0) {
+                // Our last block is not in the peer's chain, take the whole chain from the peer instead
+                replaceFromPeer(chain, sources.get(0));
+                return;
+            }
+            if (appended < blocks.size()) {
+                Log.warn("SYNC", "Invalid block received, stopped", "node", nodeId, "chain", chain.name(), "height", chain.height());
+                return;
+            }
+        }
+
+        Log.info("SYNC", "Chain synced", "node", nodeId, "chain", chain.name(), "height", chain.height(), "hash", chain.lastHash());
+    }
+
+    private <B> void replaceFromPeer(Chain<B> chain, Tip tip) {
+        List<B> blocks = requestBlocks(chain, tip.peer(), 0, chain.heightOf(tip));
+        if (blocks != null && chain.replaceWith(blocks)) {
+            Log.info("SYNC", "Replaced chain with the chain of a peer", "node", nodeId, "chain", chain.name(), "peer", tip.peer().getNodeId());
+        } else {
+            Log.warn("SYNC", "Chain of peer is invalid, keeping ours", "node", nodeId, "chain", chain.name(), "peer", tip.peer().getNodeId());
+        }
+    }
+
+    private Tip requestTip(NodeInfo peer) {
+        String response = request(peer, "GET_TIP");
+        if (response == null || !response.startsWith("TIP-")) {
+            return null;
+        }
+        String[] parts = response.split("-");
+        return new Tip(peer, Integer.parseInt(parts[1]), parts[2], Integer.parseInt(parts[3]), parts[4]);
+    }
+
+    private <B> List<B> requestBlocks(Chain<B> chain, NodeInfo peer, int from, int to) {
+        String response = request(peer, "GET_BLOCKS-" + chain.name() + "-" + from + "-" + to);
+        if (response == null) {
+            return null;
+        }
+        try {
+            return BlockCodec.parse(response, chain.listType());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // Send one request line to a peer and read the one line answer
+    private String request(NodeInfo peer, String message) {
+        try {
+            return transport.request(addresses.apply(peer), message, TIMEOUT_MILLIS).join();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // Checks that a chain received from a peer starts with our genesis block and links up
+    private <B> boolean isValidChain(List<B> blocks, B genesis, BiPredicate<B, B> isValidNext, Function<B, String> hash) {
+        if (blocks.isEmpty() || !hash.apply(blocks.get(0)).equals(hash.apply(genesis))) {
+            return false;
+        }
+        for (int i = 1; i < blocks.size(); i++) {
+            if (!isValidNext.test(blocks.get(i - 1), blocks.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Chain<FICBlock> ficChain() {
+        return new Chain<>() {
+            public String name() { return "FIC"; }
+            public int height() { return ficBlockchain.getHeight(); }
+            public String lastHash() { return ficBlockchain.getLastBlock().getHash(); }
+            public Type listType() { return new TypeToken<List<FICBlock>>(){}.getType(); }
+            public int heightOf(Tip tip) { return tip.ficHeight(); }
+            public int append(List<FICBlock> blocks) { return ficBlockchain.appendBlocks(blocks); }
+            public boolean replaceWith(List<FICBlock> blocks) {
+                if (!isValidChain(blocks, ficBlockchain.getBlock(0), ficBlockchain::isValidNext, FICBlock::getHash)) {
+                    return false;
+                }
+                ficBlockchain.replaceChain(new ArrayList<>(blocks));
+                return true;
+            }
+        };
+    }
+
+    private Chain<FTCBlock> ftcChain() {
+        return new Chain<>() {
+            public String name() { return "FTC"; }
+            public int height() { return ftcBlockchain.getHeight(); }
+            public String lastHash() { return ftcBlockchain.getLastBlock().getHash(); }
+            public Type listType() { return new TypeToken<List<FTCBlock>>(){}.getType(); }
+            public int heightOf(Tip tip) { return tip.ftcHeight(); }
+            public int append(List<FTCBlock> blocks) { return ftcBlockchain.appendBlocks(blocks); }
+            public boolean replaceWith(List<FTCBlock> blocks) {
+                // Key ids are checked against the keys the candidate records itself, not against our chain
+                if (!ftcBlockchain.isValidReplacement(blocks)) {
+                    return false;
+                }
+                ftcBlockchain.replaceChain(new ArrayList<>(blocks));
+                return true;
+            }
+        };
+    }
+}
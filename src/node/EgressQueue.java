@@ -0,0 +1,194 @@
+package node;
+
+import logging.Log;
+import metrics.Metrics;
+import transport.Address;
+import transport.Transport;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Outbound stage between the message handlers and the transport.
+ * <p>
+ * Every peer has its own bounded queue, drained in order by a virtual thread of its own that only runs
+ * while the queue has messages. A broadcast only queues the message once per peer and returns, so a slow
+ * or dead peer delays its own messages but never the other peers. A failed send is retried with
+ * exponential backoff; a peer whose last {@code maxAttempts} sends all failed gets one attempt per
+ * message until a send succeeds again, so it cannot back up its queue with retries. Messages that do
+ * not fit in a full queue are dropped and counted.
+ */
+public class EgressQueue {
+    private static final long SEND_TIMEOUT_MILLIS = 10000; // Transport timeouts normally fire first
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    private final String name;
+    private final Transport transport;
+    private final int capacity;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final Map<Address, Peer> peers = new ConcurrentHashMap<>();
+    private volatile boolean stopped = false;
+
+    // Queue and counters of one peer; the queue and draining flag are guarded by the peer
+    private final class Peer {
+        final Address address;
+        final String label;
+        final ArrayDeque<String> queue = new ArrayDeque<>();
+        boolean draining = false;
+        volatile long sent = 0;
+        volatile long failed = 0;
+        volatile long dropped = 0;
+        volatile long sendNanos = 0; // Total time of the successful sends
+        volatile int consecutiveFailures = 0;
+
+        Peer(Address address, String label) {
+            this.address = address;
+            this.label = label;
+        }
+
+        void drain() {
+            while (!stopped) {
+                String message;
+                synchronized (this) {
+                    message = queue.poll();
+                    if (message == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                deliver(message);
+            }
+        }
+
+        // Sends one message, retrying with backoff unless the peer keeps failing
+        private void deliver(String message) {
+            int attempts = consecutiveFailures >= maxAttempts ? 1 : maxAttempts;
+            for (int attempt = 1; attempt <= attempts && !stopped; attempt++) {
+                long start = System.nanoTime();
+                try {
+                    transport.send(address, message).get(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    long elapsed = System.nanoTime() - start;
+                    sent++;
+                    sendNanos += elapsed;
+                    consecutiveFailures = 0;
+                    Metrics.histogram("egress.send").record(elapsed);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException | TimeoutException e) {
+                    if (attempt < attempts) {
+                        Metrics.increment("egress.retries");
+                        sleep(Math.min(MAX_BACKOFF_MILLIS, backoffMillis << (attempt - 1)));
+                    } else {
+                        failed++;
+                        consecutiveFailures++;
+                        Metrics.increment("egress.failed");
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        Log.every(100, Log.Level.WARN, "EGRESS", "Could not send message", "node", name, "to", label,
+                                "attempts", attempts, "error", cause.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param name Node the messages are sent from.
+     * @param transport Transport the messages are sent with.
+     * @param capacity Messages queued per peer at most.
+     * @param maxAttempts Sends of a message before it is given up.
+     * @param backoffMillis Wait before the first retry, doubled for every further retry.
+     */
+    public EgressQueue(String name, Transport transport, int capacity, int maxAttempts, long backoffMillis) {
+        if (capacity <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("Egress capacity and attempts must be positive.");
+        }
+        this.name = name;
+        this.transport = transport;
+        this.capacity = capacity;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * Queues a message for a peer and returns straight away.
+     *
+     * @param to Address of the peer.
+     * @param label Name of the peer in logs and stats, e.g. its nodeId.
+     * @param message The message line.
+     * @return false if the peer's queue was full and the message was dropped.
+     */
+    public boolean send(Address to, String label, String message) {
+        if (stopped) {
+            return false;
+        }
+        Peer peer = peers.computeIfAbsent(to, address -> new Peer(address, label));
+        boolean startDrain;
+        synchronized (peer) {
+            if (peer.queue.size() >= capacity) {
+                peer.dropped++;
+                Metrics.increment("egress.dropped");
+                Log.every(100, Log.Level.WARN, "EGRESS", "Peer queue is full, message dropped", "node", name, "to", label);
+                return false;
+            }
+            peer.queue.add(message);
+            startDrain = !peer.draining;
+            peer.draining = true;
+        }
+        if (startDrain) {
+            Thread.ofVirtual().name(name + "-egress-" + label).start(peer::drain);
+        }
+        return true;
+    }
+
+    // Drops what is still queued; messages being sent finish or fail on their own
+    public void shutdown() {
+        stopped = true;
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                peer.queue.clear();
+            }
+        }
+    }
+
+    // Messages queued over all peers
+    public int getDepth() {
+        int depth = 0;
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                depth += peer.queue.size();
+            }
+        }
+        return depth;
+    }
+
+    // One line per peer: queued, sent, failed and dropped messages and the mean send time
+    public String stats() {
+        StringBuilder sb = new StringBuilder();
+        for (Peer peer : peers.values()) {
+            int depth;
+            synchronized (peer) {
+                depth = peer.queue.size();
+            }
+            long sent = peer.sent;
+            double meanMillis = sent == 0 ? 0 : peer.sendNanos / 1e6 / sent;
+            sb.append(String.format("%-12s %-21s depth=%d sent=%d failed=%d dropped=%d mean=%.2fms%n",
+                    peer.label, peer.address, depth, sent, peer.failed, peer.dropped, meanMillis));
+        }
+        return sb.toString();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
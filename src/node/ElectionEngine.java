@@ -0,0 +1,156 @@
+package node;
+
+import models.NodeInfo;
+import models.VoteInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Leader selection and vote counting for {@link Node}.
+ * <p>
+ * Both steps only need the best k entries, so instead of sorting every node or every vote count
+ * they keep a bounded min-heap of size k over primitive indices (O(n log k)). Vote totals are
+ * accumulated in a {@code double[]} indexed by candidate, not a map of boxed doubles.
+ */
+public class ElectionEngine {
+
+    /**
+     * Selects the k nodes with the highest efficiency score, then reputation score.
+     * Ties keep the order of the input list, like the stable sort this replaces.
+     *
+     * @param nodes The discovered nodes.
+     * @param k Number of nodes to select.
+     * @return The selected nodes, best first.
+     */
+    public static List<NodeInfo> selectTopNodes(List<NodeInfo> nodes, int k) {
+        int size = nodes.size();
+        double[] efficiencyScores = new double[size];
+        double[] reputationScores = new double[size];
+        for (int i = 0; i < size; i++) {
+            NodeInfo nodeInfo = nodes.get(i);
+            efficiencyScores[i] = nodeInfo.getEfficiencyScore();
+            reputationScores[i] = nodeInfo.getReputationScore();
+        }
+        int[] top = topK(size, k, efficiencyScores, reputationScores);
+
+        List<NodeInfo> result = new ArrayList<>(top.length);
+        for (int index : top) {
+            result.add(nodes.get(index));
+        }
+        return result;
+    }
+
+    /**
+     * Adds up the vote weight of every candidate and returns the k candidates with the most weight.
+     * Ties are broken by the order in which candidates were first seen.
+     *
+     * @param voteInfos The votes cast by nodes.
+     * @param k Number of candidates to select.
+     * @return The ids of the selected candidates, highest weight first.
+     */
+    public static List<String> tallyVotes(List<VoteInfo> voteInfos, int k) {
+        Map<String, Integer> candidateIndex = new HashMap<>();
+        List<String> candidates = new ArrayList<>();
+        double[] totals = new double[16];
+
+        for (VoteInfo voteInfo : voteInfos) {
+            double weight = voteInfo.getVoteWeight();
+            for (String candidateId : voteInfo.getCandidateIds()) {
+                Integer index = candidateIndex.get(candidateId);
+                if (index == null) {
+                    index = candidates.size();
+                    candidateIndex.put(candidateId, index);
+                    candidates.add(candidateId);
+                    if (index == totals.length) {
+                        totals = Arrays.copyOf(totals, totals.length * 2);
+                    }
+                }
+                totals[index] += weight;
+            }
+        }
+
+        int[] top = topK(candidates.size(), k, totals, null);
+
+        List<String> result = new ArrayList<>(top.length);
+        for (int index : top) {
+            result.add(candidates.get(index));
+        }
+        return result;
+    }
+
+    // Keeps the k best of n indices in a min-heap (worst kept entry at the root) and returns them best first.
+    // Indices are ranked by primary, then secondary (may be null), then lower index first.
+    static int[] topK(int n, int k, double[] primary, double[] secondary) {
+        int capacity = Math.max(0, Math.min(k, n));
+        int[] heap = new int[capacity];
+        int size = 0;
+
+        for (int i = 0; i < n && capacity > 0; i++) {
+            if (size < capacity) {
+                heap[size] = i;
+                siftUp(heap, size, primary, secondary);
+                size++;
+            } else if (ranksAbove(i, heap[0], primary, secondary)) {
+                heap[0] = i;
+                siftDown(heap, size, primary, secondary);
+            }
+        }
+
+        // Pop the worst entry into the back of the result until the heap is empty
+        int[] result = new int[size];
+        for (int end = size - 1; end >= 0; end--) {
+            result[end] = heap[0];
+            heap[0] = heap[end];
+            siftDown(heap, end, primary, secondary);
+        }
+        return result;
+    }
+
+    private static void siftUp(int[] heap, int child, double[] primary, double[] secondary) {
+        while (child > 0) {
+            int parent = (child - 1) / 2;
+            if (!ranksAbove(heap[parent], heap[child], primary, secondary)) {
+                return;
+            }
+            swap(heap, parent, child);
+            child = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, double[] primary, double[] secondary) {
+        int parent = 0;
+        while (true) {
+            int left = 2 * parent + 1;
+            if (left >= size) {
+                return;
+            }
+            int right = left + 1;
+            int lowest = (right < size && ranksAbove(heap[left], heap[right], primary, secondary)) ? right : left;
+            if (!ranksAbove(heap[parent], heap[lowest], primary, secondary)) {
+                return;
+            }
+            swap(heap, parent, lowest);
+            parent = lowest;
+        }
+    }
+
+    private static boolean ranksAbove(int a, int b, double[] primary, double[] secondary) {
+        if (primary[a] != primary[b]) {
+            return primary[a] > primary[b];
+        }
+        if (secondary != null && secondary[a] != secondary[b]) {
+            return secondary[a] > secondary[b];
+        }
+        return a < b;
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int temp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = temp;
+    }
+}
@@ -0,0 +1,196 @@
+package node;
+
+import logging.Log;
+
+import java.time.Clock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives election rounds and FIC block production for a node.
+ * <p>
+ * Rounds are aligned to wall-clock multiples of the epoch length so that independent nodes still run
+ * their elections together. On top of that the scheduler watches the current leader: if no heartbeat
+ * arrives within the leader timeout, a view change is triggered straight away instead of waiting for
+ * the next epoch. The epoch shrinks to {@code minEpochMillis} when the previous epoch saw at least
+ * {@code loadThreshold} FTC blocks, so busy networks rotate leaders faster.
+ * <p>
+ * {@code epochMillis} should be a multiple of {@code minEpochMillis}, so nodes that picked different
+ * intervals still meet on the longer boundary. At most one round is pending at any time: a round triggered
+ * while another one runs starts right after it instead of starting a second schedule.
+ * <p>
+ * Heartbeats and the leader watch run on their own thread, so a long round neither silences the leader nor
+ * hides a dead one. The view change itself runs on the round thread, between rounds, as it changes the leaders.
+ */
+public class ElectionScheduler {
+    private final long epochMillis; // Default time between rounds
+    private final long minEpochMillis; // Time between rounds under load
+    private final long leaderTimeoutMillis; // Time without a heartbeat before the leader is considered down
+    private final int loadThreshold; // FTC blocks per epoch that switch to the short interval
+
+    private final Runnable roundTask; // Election / leader rotation / FIC block round
+    private final Runnable viewChangeTask; // Drops the failed leader before the recovery round
+    private final Runnable heartbeatTask; // Sends a heartbeat if this node is the current leader
+    private final Clock clock; // Wall clock for epoch boundaries and leader timeouts, replaceable in simulations
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1, runnable -> new Thread(runnable, "election-scheduler"));
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newScheduledThreadPool(1, runnable -> new Thread(runnable, "leader-heartbeat"));
+    private final AtomicInteger epochLoad = new AtomicInteger(); // FTC blocks seen since the last round
+    private ScheduledFuture<?> nextRound; // The pending round, null while a round runs; guarded by this
+    private long roundId = 0; // Id of the pending round, a round that was replaced does not run; guarded by this
+    private boolean roundRunning = false; // Guarded by this
+    private boolean triggered = false; // A round was triggered while another one ran; guarded by this
+
+    private volatile long lastLeaderActivity;
+    private volatile boolean watchingLeader = false;
+
+    public ElectionScheduler(long epochMillis, long minEpochMillis, long leaderTimeoutMillis, int loadThreshold,
+                             Runnable roundTask, Runnable viewChangeTask, Runnable heartbeatTask) {
+        this(epochMillis, minEpochMillis, leaderTimeoutMillis, loadThreshold, roundTask, viewChangeTask, heartbeatTask, Clock.systemUTC());
+    }
+
+    public ElectionScheduler(long epochMillis, long minEpochMillis, long leaderTimeoutMillis, int loadThreshold,
+                             Runnable roundTask, Runnable viewChangeTask, Runnable heartbeatTask, Clock clock) {
+        if (epochMillis <= 0 || minEpochMillis <= 0 || leaderTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Scheduler intervals must be positive.");
+        }
+        this.epochMillis = epochMillis;
+        this.minEpochMillis = Math.min(minEpochMillis, epochMillis);
+        this.leaderTimeoutMillis = leaderTimeoutMillis;
+        this.loadThreshold = loadThreshold;
+        this.roundTask = roundTask;
+        this.viewChangeTask = viewChangeTask;
+        this.heartbeatTask = heartbeatTask;
+        this.clock = clock;
+    }
+
+    public synchronized void start() {
+        scheduleNextRound(epochLoad.get());
+
+        // Heartbeats go out three times per timeout so a single lost message does not cause a view change
+        long heartbeatPeriod = Math.max(1, leaderTimeoutMillis / 3);
+        heartbeatExecutor.scheduleAtFixedRate(this::safeHeartbeat, heartbeatPeriod, heartbeatPeriod, TimeUnit.MILLISECONDS);
+        heartbeatExecutor.scheduleAtFixedRate(this::checkLeader, heartbeatPeriod, heartbeatPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        heartbeatExecutor.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    // Called whenever an FTC block is created or received
+    public void recordLoad() {
+        epochLoad.incrementAndGet();
+    }
+
+    // Start watching a leader that is not this node
+    public void watchLeader() {
+        lastLeaderActivity = clock.millis();
+        watchingLeader = true;
+    }
+
+    // Stop watching, e.g. when this node becomes the leader or leaders are cleared
+    public void stopWatchingLeader() {
+        watchingLeader = false;
+    }
+
+    // Called on every heartbeat received from the current leader
+    public void leaderSeen() {
+        lastLeaderActivity = clock.millis();
+    }
+
+    // Run a round right away instead of waiting for the next epoch boundary, or right after the running one
+    public synchronized void triggerNow() {
+        if (roundRunning) {
+            triggered = true;
+            return;
+        }
+        schedule(0);
+    }
+
+    // Interval to use for the next round, based on the load seen so far in this epoch
+    public long currentInterval() {
+        return interval(epochLoad.get());
+    }
+
+    private long interval(int load) {
+        return load >= loadThreshold ? minEpochMillis : epochMillis;
+    }
+
+    // Schedules the one pending round, load is the number of FTC blocks of the epoch that just ended
+    private synchronized void scheduleNextRound(int load) {
+        if (triggered) {
+            triggered = false;
+            schedule(0);
+            return;
+        }
+        long interval = interval(load);
+        long currentTime = clock.millis();
+        long nextBoundary = ((currentTime / interval) + 1) * interval;
+        long delay = nextBoundary - currentTime;
+
+        Log.info("STEP-1", "Waiting until the next round", "delayMs", delay, "intervalMs", interval);
+        schedule(delay);
+    }
+
+    // Replaces the pending round
+    private synchronized void schedule(long delay) {
+        if (nextRound != null) {
+            nextRound.cancel(false);
+        }
+        long id = ++roundId;
+        nextRound = executor.schedule(() -> runRound(id), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void runRound(long id) {
+        synchronized (this) {
+            if (id != roundId) {
+                return;
+            }
+            roundRunning = true;
+            nextRound = null;
+        }
+        int load = epochLoad.getAndSet(0);
+        try {
+            roundTask.run();
+        } catch (Exception e) {
+            Log.error("ROUND", "Error during election round", e);
+        } finally {
+            synchronized (this) {
+                roundRunning = false;
+                scheduleNextRound(load);
+            }
+        }
+    }
+
+    private void checkLeader() {
+        if (!watchingLeader || clock.millis() - lastLeaderActivity < leaderTimeoutMillis) {
+            return;
+        }
+
+        watchingLeader = false;
+        Log.warn("VIEW_CHANGE", "No heartbeat from leader", "timeoutMs", leaderTimeoutMillis);
+        executor.execute(this::viewChange);
+    }
+
+    // Runs on the round thread, after the running round if there is one
+    private void viewChange() {
+        try {
+            viewChangeTask.run();
+        } catch (Exception e) {
+            Log.error("VIEW_CHANGE", "Error during view change", e);
+        }
+        triggerNow();
+    }
+
+    private void safeHeartbeat() {
+        try {
+            heartbeatTask.run();
+        } catch (Exception e) {
+            Log.every(10, Log.Level.ERROR, "LEADER_HEARTBEAT", "Error sending heartbeat", "error", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package node;
+
+import logging.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded ingress stage between the server socket and the message handlers.
+ * <p>
+ * Every inbound message is classified by its type into a lane, and a fixed pool of workers always
+ * serves the highest priority lane that has work: consensus, then block sync, then discovery, then user
+ * traffic. Each lane has its own bounded queue. Messages are submitted from the transport thread, so
+ * {@link #submit} never waits: a message for a full lane is shed straight away and counted per lane.
+ */
+public class IngressQueue {
+    public enum Lane { CONSENSUS, SYNC, DISCOVERY, USER }
+
+    private static final Lane[] LANES = Lane.values();
+    private static final Map<String, Lane> LANE_BY_TYPE = Map.ofEntries(
+            Map.entry("VOTING_RESULT", Lane.CONSENSUS),
+            Map.entry("CURRENT_LEADER", Lane.CONSENSUS),
+            Map.entry("LEADER_HEARTBEAT", Lane.CONSENSUS),
+            Map.entry("ROTATION_COUNT", Lane.CONSENSUS),
+            Map.entry("PRE_PREPARE", Lane.CONSENSUS),
+            Map.entry("PREPARE", Lane.CONSENSUS),
+            Map.entry("COMMIT", Lane.CONSENSUS),
+            Map.entry("RESET", Lane.CONSENSUS),
+            Map.entry("NEW_BLOCK", Lane.CONSENSUS),
+            Map.entry("UPLOAD_PRE_PREPARE", Lane.CONSENSUS),
+            Map.entry("UPLOAD_PREPARE", Lane.CONSENSUS),
+            Map.entry("UPLOAD_COMMIT", Lane.CONSENSUS),
+            Map.entry("UPLOAD_NEW_BLOCK", Lane.CONSENSUS),
+            Map.entry("GET_TIP", Lane.SYNC),
+            Map.entry("GET_BLOCKS", Lane.SYNC),
+            Map.entry("GET_NODE_INFO", Lane.DISCOVERY),
+            Map.entry("SHARE", Lane.USER));
+
+    private final List<BlockingQueue<Runnable>> queues;
+    private final Semaphore pending = new Semaphore(0); // One permit per queued message over all lanes
+    private final Thread[] workers;
+
+    private final AtomicLongArray accepted = new AtomicLongArray(LANES.length);
+    private final AtomicLongArray dropped = new AtomicLongArray(LANES.length);
+
+    public IngressQueue(String name, int workerCount, int laneCapacity) {
+        if (workerCount <= 0 || laneCapacity <= 0) {
+            throw new IllegalArgumentException("Ingress workers and capacity must be positive.");
+        }
+        List<BlockingQueue<Runnable>> laneQueues = new ArrayList<>(LANES.length);
+        for (int i = 0; i < LANES.length; i++) {
+            laneQueues.add(new ArrayBlockingQueue<>(laneCapacity));
+        }
+        this.queues = List.copyOf(laneQueues);
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::work, name + "-ingress-" + i);
+            workers[i].setDaemon(true);
+        }
+    }
+
+    // Lane for a message type, the first "-" separated part of the request; unknown types are user traffic
+    public static Lane classify(String type) {
+        return LANE_BY_TYPE.getOrDefault(type, Lane.USER);
+    }
+
+    public static boolean isKnownType(String type) {
+        return LANE_BY_TYPE.containsKey(type);
+    }
+
+    public void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    public void shutdown() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Queues a message handler in its lane.
+     *
+     * @param lane The lane of the message.
+     * @param handler Handles the message on a worker thread.
+     * @return false if the lane was full and the message was shed.
+     */
+    public boolean submit(Lane lane, Runnable handler) {
+        int i = lane.ordinal();
+        if (!queues.get(i).offer(handler)) {
+            long count = dropped.incrementAndGet(i);
+            if (count == 1 || count % 1000 == 0) {
+                Log.warn("INGRESS", "Lane is full, message shed", "lane", lane, "dropped", count);
+            }
+            return false;
+        }
+        accepted.incrementAndGet(i);
+        pending.release();
+        return true;
+    }
+
+    public int getDepth(Lane lane) {
+        return queues.get(lane.ordinal()).size();
+    }
+
+    public long getAccepted(Lane lane) {
+        return accepted.get(lane.ordinal());
+    }
+
+    public long getDropped(Lane lane) {
+        return dropped.get(lane.ordinal());
+    }
+
+    // One line per lane: depth, accepted and shed messages
+    public String stats() {
+        StringBuilder sb = new StringBuilder();
+        for (Lane lane : LANES) {
+            sb.append(String.format("%-9s depth=%d accepted=%d dropped=%d%n",
+                    lane, getDepth(lane), getAccepted(lane), getDropped(lane)));
+        }
+        return sb.toString();
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Runnable handler;
+            try {
+                pending.acquire();
+                handler = next();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                handler.run();
+            } catch (RuntimeException e) {
+                Log.error("INGRESS", "Error in message handler", e);
+            }
+        }
+    }
+
+    // Highest priority message; a permit guarantees one is queued
+    private Runnable next() {
+        for (BlockingQueue<Runnable> queue : queues) {
+            Runnable handler = queue.poll();
+            if (handler != null) {
+                return handler;
+            }
+        }
+        throw new IllegalStateException("Ingress permit without a queued message.");
+    }
+}
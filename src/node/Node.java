@@ -1,32 +1,73 @@
 package node;
 
+import blockchain.BlockCodec;
+import blockchain.BlockJournal;
 import blockchain.FICBlock;
 import blockchain.FICBlockchain;
 import blockchain.FTCBlock;
 import blockchain.FTCBlockchain;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import download.Download;
+import keystore.KeyStore;
+import keystore.NodeKeys;
+import keywrap.KeyWrap;
+import keywrap.KeyWraps;
+import logging.Log;
+import metrics.Metrics;
+import metrics.MetricsReporter;
 import models.*;
+import transport.Address;
+import transport.NioTransport;
+import transport.Transport;
 import upload.Upload;
 import utils.BlockUtil;
+import utils.GsonUtil;
+import utils.SignUtil;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class Node {
     private static final int MIN_PORT_RANGE = 8000;
     private static final int MAX_PORT_RANGE = 8999;
 
-    public ServerSocket serverSocket;
+    // Scheduler settings, can be overridden with -Dnode.epochMillis=... etc.
+    private static final long EPOCH_MILLIS = Long.getLong("node.epochMillis", 120000); // Default time between elections
+    private static final long MIN_EPOCH_MILLIS = Long.getLong("node.minEpochMillis", 60000); // Time between elections under load
+    private static final long LEADER_TIMEOUT_MILLIS = Long.getLong("node.leaderTimeoutMillis", 10000); // Missing heartbeats before a view change
+    private static final int MAX_PENDING_CERTIFICATES = 64; // Certificates kept for blocks still collecting votes
+    private static final int LOAD_THRESHOLD = Integer.getInteger("node.loadThreshold", 5); // FTC blocks per epoch that count as load
+    private static final int INGRESS_WORKERS = Integer.getInteger("node.ingressWorkers", 4); // Threads handling inbound messages
+    private static final int INGRESS_CAPACITY = Integer.getInteger("node.ingressCapacity", 256); // Queued messages per priority lane
+    private static final int EGRESS_CAPACITY = Integer.getInteger("node.egressCapacity", 1024); // Outbound messages queued per peer
+    private static final int SEND_ATTEMPTS = Integer.getInteger("node.sendAttempts", 3); // Sends of a message before it is given up
+    private static final long SEND_BACKOFF_MILLIS = Long.getLong("node.sendBackoffMillis", 100); // Wait before the first retry, doubled per retry
+    private static final int REQUEST_READ_TIMEOUT_MILLIS = 2000; // Time a peer gets to send its request line
+    private static final int DISCOVERY_BATCH = 64; // GET_NODE_INFO requests in flight at once during discovery
+    private static final long DISCOVERY_TIMEOUT_MILLIS = 2000; // Time a discovered node gets to answer
+    private static final String NODE_HOST = System.getProperty("node.host", "localhost"); // Host other nodes reach this node on
+    private static final String PEERS = System.getProperty("node.peers", ""); // host:port list to discover, empty scans the local port range
+    private static final int METRICS_PORT_OFFSET = 1000; // Metrics are served on nodePort + offset unless node.metricsPort is set
+    private static final String JOURNAL_DIR = System.getProperty("node.journalDir", "."); // Directory of the block journals
+    private static final boolean JOURNAL_SYNC = Boolean.parseBoolean(System.getProperty("node.journalSync", "true")); // Force each journal batch to disk
+    private static final long METRICS_DUMP_MILLIS = Long.getLong("node.metricsDumpMillis", 60000); // Time between metrics dumps, 0 disables them
+
+    private final Transport transport; // Sends and receives the protocol messages
+    private final Map<String, Address> peerAddresses = new ConcurrentHashMap<>(); // Address of every discovered node by nodeId
     private final List<NodeInfo> nodeInfos = new ArrayList<>(); // List of nodes in the network
     private final List<NodeInfo> leaders = new ArrayList<>(); // List of elected leaders
     private final List<VoteInfo> voteInfos = new ArrayList<>(); // List of votes cast by nodes
     private NodeInfo currentLeader; // Current leader of the network
     private final List<List<NodeInfo>> groupedNodes = new ArrayList<>(); // List of nodes grouped by their efficiency and reputation scores
+    private volatile NodeGrouping grouping = NodeGrouping.fromGroups(null, NodeGrouping.DEFAULT_FANOUT); // Lookups over groupedNodes for this epoch
+    private final Map<String, Long> nodeLatencies = new ConcurrentHashMap<>(); // GET_NODE_INFO round trip time in ms by nodeId
 
     private final String nodeId; // Unique identifier for the node, e.g., username
     private final int nodePort;
@@ -36,175 +77,319 @@ public class Node {
     double alpha = 0.5; // Weight for efficiency score
     double beta = 0.5; // Weight for reputation score
 
-    private int commitCount = 0; // Number of commits received
+    private final Map<String, CommitCertificate> commitCertificates = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CommitCertificate> eldest) {
+            return size() > MAX_PENDING_CERTIFICATES;
+        }
+    }); // Commit votes collected per block hash while this node is the current leader
+    private final Map<String, Long> roundStarts = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_PENDING_CERTIFICATES;
+        }
+    }); // System.nanoTime() at PRE_PREPARE per block hash, to time the round until the commit quorum
+    private final Map<String, Long> firstVotes = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_PENDING_CERTIFICATES;
+        }
+    }); // System.nanoTime() of the first commit vote from another node per block hash, ends the prepare phase
+    private final Map<String, Object> decodedBlocks = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > MAX_PENDING_CERTIFICATES;
+        }
+    }); // Recently decoded blocks by payload, so a block carried by many messages is inflated and parsed once
     private int rotationCount = 0; // Tracks the number of rotations
+    private int pendingRotationCount = 0; // Latest count broadcast by the leaders, a follower applies it with the block of its round
 
     private final FICBlockchain ficBlockchain = new FICBlockchain(); // Blockchain instance
     private final FTCBlockchain ftcBlockchain = new FTCBlockchain(); // Blockchain instance
 
+    private final BlockSync blockSync; // Catch-up protocol for blocks this node missed
+    private final IngressQueue ingress; // Bounded, prioritised queue of inbound messages
+    private final EgressQueue egress; // Per-peer queues of outbound messages
+    private final MetricsReporter metricsReporter; // HTTP, JMX and file views of the metrics
+    private final BlockJournal ficJournal; // Line-delimited log of the FIC blocks in our chain, null if it could not be opened
+    private final BlockJournal ftcJournal; // Line-delimited log of the FTC blocks in our chain, null if it could not be opened
+
+    private final Clock clock; // Source of block timestamps and scheduler time
+    private final ElectionScheduler scheduler;
+
     public Node(String nodeId, int nodePort, double efficiencyScore, double reputationScore) {
+        this(nodeId, nodePort, efficiencyScore, reputationScore, Clock.systemUTC());
+    }
+
+    public Node(String nodeId, int nodePort, double efficiencyScore, double reputationScore, Clock clock) {
+        this(nodeId, nodePort, efficiencyScore, reputationScore, clock, new NioTransport(nodeId, REQUEST_READ_TIMEOUT_MILLIS));
+    }
+
+    public Node(String nodeId, int nodePort, double efficiencyScore, double reputationScore, Clock clock, Transport transport) {
         this.nodeId = nodeId;
         this.nodePort = nodePort;
         this.efficiencyScore = efficiencyScore;
         this.reputationScore = reputationScore;
+        this.clock = clock;
+        this.transport = transport;
+        this.scheduler = new ElectionScheduler(EPOCH_MILLIS, MIN_EPOCH_MILLIS, LEADER_TIMEOUT_MILLIS,
+                LOAD_THRESHOLD, this::runRound, this::handleLeaderTimeout, this::sendLeaderHeartbeat, clock);
+        this.blockSync = new BlockSync(nodeId, ficBlockchain, ftcBlockchain, transport, this::addressOf);
+        this.ingress = new IngressQueue(nodeId, INGRESS_WORKERS, INGRESS_CAPACITY);
+        this.egress = new EgressQueue(nodeId, transport, EGRESS_CAPACITY, SEND_ATTEMPTS, SEND_BACKOFF_MILLIS);
+        this.metricsReporter = new MetricsReporter(nodeId);
+        this.ficJournal = openJournal(Paths.get(JOURNAL_DIR, "fic_blockchain_" + nodeId + ".log"));
+        this.ftcJournal = openJournal(Paths.get(JOURNAL_DIR, "ftc_blockchain_" + nodeId + ".log"));
+        ficBlockchain.setJournal(ficJournal);
+        ftcBlockchain.setJournal(ftcJournal);
+
+        for (IngressQueue.Lane lane : IngressQueue.Lane.values()) {
+            String name = lane.name().toLowerCase();
+            Metrics.gauge(nodeId, "ingress.depth." + name, () -> ingress.getDepth(lane));
+            Metrics.gauge(nodeId, "ingress.dropped." + name, () -> ingress.getDropped(lane));
+        }
+        Metrics.gauge(nodeId, "chain.fic.height", ficBlockchain::getHeight);
+        Metrics.gauge(nodeId, "chain.ftc.height", ftcBlockchain::getHeight);
+        Metrics.gauge(nodeId, "egress.depth", egress::getDepth);
+    }
+
+    private BlockJournal openJournal(Path path) {
+        try {
+            return new BlockJournal(path, JOURNAL_SYNC);
+        } catch (IOException e) {
+            Log.error("JOURNAL", "Could not open block journal", "node", nodeId, "file", path, "error", e.getMessage());
+            return null;
+        }
     }
 
-    // Start Node
-    private void startNode() {
-        // Run the server in a separate thread
-        new Thread(this::startServer).start();
+    /**
+     * Starts the server, catches up with the other nodes and starts the election scheduler.
+     *
+     * @param interactive Whether to read commands from stdin; simulations drive the node through its methods instead.
+     */
+    public void start(boolean interactive) {
+        metricsReporter.start(Integer.getInteger("node.metricsPort", nodePort + METRICS_PORT_OFFSET), METRICS_DUMP_MILLIS, "metrics_" + nodeId + ".log");
+
+        startServer();
 
         // Run handler for user input in a separate thread
-        new Thread(this::handleUserInput).start();
+        if (interactive) {
+            new Thread(this::handleUserInput).start();
+        }
+
+        // Catch up with the blocks created while this node was down
+        discoverNodes();
+        blockSync.sync(nodeInfos);
 
         // Start node discovery and election process
-        while (true) {
-            try {
-                // Calculate the delay until the next minute starts
-                long currentTime = System.currentTimeMillis();
-                long nextMinute = ((currentTime / 60000) + 2) * 60000;
-                long delay = nextMinute - currentTime;
-
-                System.out.println("[STEP-1] " + nodeId + " Waiting until the 2 minute..." + delay);
-                // Wait until the next minute
-                Thread.sleep(delay);
-
-                // This logic wll determine if NEW_ELECTION will be started
-                // If rotationCount is 0 or greater than the number of leaders, it means all leaders have been rotated
-                if ((rotationCount == 0 || rotationCount >= leaders.size()) & currentLeader != null) {
-                    System.out.println("[INFO] All leaders have been rotated. Starting new election.");
-                    leaders.clear(); // Clear the leaders list
-                    currentLeader = null; // Clear the current leader
-                    rotationCount = 0; // Reset rotation count
-                }
+        scheduler.start();
+    }
 
-                // If leaders are not yet elected, start a new election
-                if (leaders.isEmpty()) {
-                    System.out.println("[NEW ELECTION] " + nodeId + " Starting new election...");
-                    discoverNodes();
-                    electLeader();
-                    calculateVotes();
-                }
+    // Stops the server and background threads, and writes out what is still queued
+    public void stop() {
+        transport.close();
+        scheduler.shutdown();
+        ingress.shutdown();
+        egress.shutdown();
+        metricsReporter.shutdown();
+        Metrics.removeGauges(nodeId);
+        if (ficJournal != null) {
+            ficJournal.close(1000);
+        }
+        if (ftcJournal != null) {
+            ftcJournal.close(1000);
+        }
+    }
 
-                boolean isInLeaders = leaders.stream().anyMatch(nodeInfo -> nodeInfo.getNodeId().equals(nodeId));
+    // Run an election / rotation round now instead of at the next epoch boundary
+    public void triggerRound() {
+        scheduler.triggerNow();
+    }
 
-                // If our node is in the leaders list, it will take part in selecting the current leader
-                if (isInLeaders) {
-                    // This is where we increment the rotation count
-                    selectCurrentLeader();
-                }
+    public String getNodeId() {
+        return nodeId;
+    }
 
-                // If our node is the current leader, it first sends the current leader information to all nodes then creates a new block
-                if (currentLeader != null && currentLeader.getNodeId().equals(nodeId)) {
+    public FICBlockchain getFicBlockchain() {
+        return ficBlockchain;
+    }
 
-                    // Send the current leader information to all nodes
-                    String message = "CURRENT_LEADER-" + currentLeader.getNodeId() + "-" + currentLeader.getNodePort() + "-" + currentLeader.getEfficiencyScore() + "-" + currentLeader.getReputationScore();
-                    broadcastMessage(message, nodeInfos);
+    public FTCBlockchain getFtcBlockchain() {
+        return ftcBlockchain;
+    }
 
-                    // Group nodes based on their efficiency and reputation scores
-                    groupNodes();
+    // One election / rotation round, run by the scheduler at every epoch or after a view change
+    private void runRound() {
+        long roundStart = System.nanoTime();
+        // This logic wll determine if NEW_ELECTION will be started
+        // If rotationCount is 0 or greater than the number of leaders, it means all leaders have been rotated
+        if ((rotationCount == 0 || rotationCount >= leaders.size()) & currentLeader != null) {
+            Log.info("INFO", "All leaders have been rotated. Starting new election.", "node", nodeId);
+            if (pendingRotationCount >= leaders.size()) {
+                pendingRotationCount = 0; // Still the count that ended the rotation, not one of the new leaders
+            }
+            leaders.clear(); // Clear the leaders list
+            currentLeader = null; // Clear the current leader
+            rotationCount = 0; // Reset rotation count
+            scheduler.stopWatchingLeader();
+        }
 
-                    // Create a new block and add it to the blockchain
-                    createFICBlock();
-                }
-            } catch (InterruptedException ignored) {
+        // If leaders are not yet elected, start a new election
+        if (leaders.isEmpty()) {
+            Log.info("NEW ELECTION", "Starting new election", "node", nodeId);
+            discoverNodes();
+            long electionStart = System.nanoTime();
+            electLeader();
+            calculateVotes();
+            Metrics.recordSince("election", electionStart);
+
+            // A new leader set starts its rotation from the first leader, whatever count arrived during the election
+            if (isLeader()) {
+                rotationCount = 0;
             }
         }
+
+        // If our node is in the leaders list, it will take part in selecting the current leader
+        if (isLeader()) {
+            // This is where we increment the rotation count
+            selectCurrentLeader();
+        }
+
+        // If our node is the current leader, it first sends the current leader information to all nodes then creates a new block
+        if (currentLeader != null && currentLeader.getNodeId().equals(nodeId)) {
+            scheduler.stopWatchingLeader();
+
+            // Send the current leader information to all nodes
+            String message = "CURRENT_LEADER-" + currentLeader.getNodeId() + "-" + currentLeader.getNodePort() + "-" + currentLeader.getEfficiencyScore() + "-" + currentLeader.getReputationScore();
+            broadcastMessage(message, nodeInfos);
+
+            // Group nodes based on their efficiency and reputation scores
+            groupNodes();
+
+            // Create a new block and add it to the blockchain
+            createFICBlock();
+        }
+        Metrics.recordSince("round", roundStart);
+    }
+
+    private boolean isLeader() {
+        return leaders.stream().anyMatch(nodeInfo -> nodeInfo.getNodeId().equals(nodeId));
+    }
+
+    // Drop the current leader after it missed its heartbeats, the next round picks the next leader in rotation
+    private void handleLeaderTimeout() {
+        if (currentLeader == null) {
+            return;
+        }
+
+        String failedLeaderId = currentLeader.getNodeId();
+        Log.warn("VIEW_CHANGE", "Leader timed out. Starting view change.", "node", nodeId, "leader", failedLeaderId);
+        leaders.removeIf(nodeInfo -> nodeInfo.getNodeId().equals(failedLeaderId));
+        nodeInfos.removeIf(nodeInfo -> nodeInfo.getNodeId().equals(failedLeaderId));
+        currentLeader = null;
+    }
+
+    // Let the other nodes know the current leader is still alive
+    private void sendLeaderHeartbeat() {
+        if (currentLeader != null && currentLeader.getNodeId().equals(nodeId)) {
+            broadcastMessage("LEADER_HEARTBEAT-" + nodeId, nodeInfos);
+        }
     }
 
     private void startServer() {
         try {
-            serverSocket = new ServerSocket(nodePort);
+            ingress.start();
+            transport.bind(new Address(NODE_HOST, nodePort), this::acceptRequest);
             System.out.println("Node started on port: " + nodePort);
-
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                new Thread(() -> handleClientRequest(clientSocket)).start();
-            }
-        } catch (Exception e) {
-            System.err.println("Error starting server on port " + nodePort);
-            e.printStackTrace();
+        } catch (IOException e) {
+            Log.error("SERVER", "Error starting server", "node", nodeId, "port", nodePort, e);
         }
     }
 
     private void discoverNodes() {
+        long start = System.nanoTime();
         nodeInfos.clear();
         voteInfos.clear();
         nodeInfos.add(new NodeInfo(nodeId, nodePort, efficiencyScore, reputationScore));
 
-        for (int i = MIN_PORT_RANGE; i <= MAX_PORT_RANGE; i++) {
-            try {
-                if (i == nodePort) {
-                    continue; // Skip the current node's port
-                }
-                // Attempt to connect to each port in the range
-                NodeInfo nodeInfo = getNodeInfo(i);
-                if (nodeInfo == null) {
-                    continue; // Skip if node is not running
+        // Ask every candidate address for its node info, a batch of requests at a time
+        List<Address> candidates = discoveryCandidates();
+        for (int from = 0; from < candidates.size(); from += DISCOVERY_BATCH) {
+            List<CompletableFuture<NodeInfo>> requests = new ArrayList<>();
+            for (Address address : candidates.subList(from, Math.min(from + DISCOVERY_BATCH, candidates.size()))) {
+                requests.add(getNodeInfo(address));
+            }
+            for (CompletableFuture<NodeInfo> request : requests) {
+                NodeInfo nodeInfo = request.exceptionally(e -> null).join(); // Nothing listening on the address
+                if (nodeInfo != null && !nodeInfo.getNodeId().equals(nodeId)) {
+                    nodeInfos.add(nodeInfo);
                 }
-                nodeInfos.add(nodeInfo);
-            } catch (Exception e) {
-                // Ignore exceptions for ports that are not open
             }
         }
+        Metrics.recordSince("discovery", start);
 
         if (nodeInfos.isEmpty()) {
-            System.err.println("No nodes discovered.");
+            Log.warn("STEP-2", "No nodes discovered.", "node", nodeId);
             return;
         }
 
-        System.out.println("[STEP-2] " + nodeId + " Discovered nodes size: " + nodeInfos.size());
+        Log.info("STEP-2", "Discovered nodes", "node", nodeId, "size", nodeInfos.size());
     }
 
-    private NodeInfo getNodeInfo(int i) {
-        try {
-            Socket socket = new Socket("localhost", i);
+    // The configured peers, or every other port of the local range
+    private List<Address> discoveryCandidates() {
+        List<Address> candidates = new ArrayList<>();
+        if (!PEERS.isBlank()) {
+            for (String peer : PEERS.split(",")) {
+                Address address = Address.parse(peer);
+                if (!address.equals(new Address(NODE_HOST, nodePort))) {
+                    candidates.add(address);
+                }
+            }
+            return candidates;
+        }
+        for (int i = MIN_PORT_RANGE; i <= MAX_PORT_RANGE; i++) {
+            if (i != nodePort) {
+                candidates.add(new Address("localhost", i));
+            }
+        }
+        return candidates;
+    }
 
-            // if node is not running then skip
-            if (!socket.isConnected()) {
+    private CompletableFuture<NodeInfo> getNodeInfo(Address address) {
+        long startTime = System.nanoTime();
+        return transport.request(address, "GET_NODE_INFO", DISCOVERY_TIMEOUT_MILLIS).thenApply(response -> {
+            if (response == null) {
                 return null;
             }
-
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out.println("GET_NODE_INFO"); // Request to get node info
-
-            // Read the response from the node
-            String response = in.readLine();
             String[] infoParts = response.split(",");
             String nodeId = infoParts[0].split(":")[1];
             double efficiencyScore = Double.parseDouble(infoParts[1].split(":")[1]);
             double reputationScore = Double.parseDouble(infoParts[2].split(":")[1]);
 
-            return new NodeInfo(nodeId, i, efficiencyScore, reputationScore);
-        } catch (IOException e) {
-            // Ignore exceptions for ports that are not open
-            return null;
-        }
+            // Remember how long the node took to answer, used to balance groups
+            nodeLatencies.put(nodeId, (System.nanoTime() - startTime) / 1_000_000);
+            peerAddresses.put(nodeId, address);
+
+            return new NodeInfo(nodeId, address.port(), efficiencyScore, reputationScore);
+        });
+    }
+
+    // Where a node is reached: the address it was discovered at, or its port on localhost
+    private Address addressOf(NodeInfo node) {
+        Address address = peerAddresses.get(node.getNodeId());
+        return address != null ? address : new Address("localhost", node.getNodePort());
     }
 
     private void electLeader() {
         if (nodeInfos.isEmpty()) {
-            System.err.println("No nodes to elect a leader from.");
+            Log.warn("STEP-3", "No nodes to elect a leader from.", "node", nodeId);
             return;
         }
 
-        List<NodeInfo> electedLeaders = new ArrayList<>();
-
-        // Sort nodes based on efficiency and reputation scores
-        nodeInfos.sort((n1, n2) -> {
-            int efficiencyComparison = Double.compare(n2.getEfficiencyScore(), n1.getEfficiencyScore());
-            if (efficiencyComparison != 0) {
-                return efficiencyComparison;
-            }
-            return Double.compare(n2.getReputationScore(), n1.getReputationScore());
-        });
-
-        // Elect the 1/5 nodes with the highest scores as leaders
+        // Elect the 1/5 nodes with the highest efficiency and reputation scores as leaders
         int numLeaders = Math.max(1, nodeInfos.size() / 5); // 10 nodes, 2 leaders
-        for (int i = 0; i < numLeaders; i++) {
-            electedLeaders.add(nodeInfos.get(i));
-        }
+        List<NodeInfo> electedLeaders = ElectionEngine.selectTopNodes(nodeInfos, numLeaders);
 
         double voteWeight = alpha * efficiencyScore + beta * reputationScore;
 
@@ -222,46 +407,37 @@ public class Node {
         List<NodeInfo> nodesToBroadcast = new ArrayList<>(nodeInfos);
         nodesToBroadcast.removeIf(nodeInfo -> nodeInfo.getNodeId().equals(nodeId));
         broadcastMessage(message, nodesToBroadcast);
-        System.out.println("[STEP-3] " + nodeId + " Elected leaders: " + electedLeaders.stream().map(NodeInfo::getNodeId).collect(Collectors.joining(",")));
+        Log.info("STEP-3", "Elected leaders", "node", nodeId, "leaders", joinedNodeIds);
     }
 
     private void calculateVotes() {
         int leadersToSelect = Math.max(1, nodeInfos.size() / 5); // 10 nodes, 2 leaders
-        Map<String, Double> voteCounts = new HashMap<>();
 
         // Use a copy of the voteInfos list to avoid concurrent modification
         List<VoteInfo> voteInfosCopy = new ArrayList<>(voteInfos);
 
-        // Iterate through the copied list
-        for (VoteInfo voteInfo : voteInfosCopy) {
-            String[] joinedNodeIds = voteInfo.getCandidateId().split(",");
-            for (String nodeId : joinedNodeIds) {
-                voteCounts.put(nodeId, voteCounts.getOrDefault(nodeId, 0.0) + voteInfo.getVoteWeight());
-            }
-        }
-
-        // Sort the nodes by vote count in descending order and select the top leadersToSelect
-        List<String> topLeaders = voteCounts.entrySet().stream()
-                .sorted((e1, e2) -> Double.compare(e2.getValue(), e1.getValue()))
-                .limit(leadersToSelect)
-                .map(Map.Entry::getKey)
-                .toList();
+        // Select the leadersToSelect nodes with the highest vote count
+        List<String> topLeaders = ElectionEngine.tallyVotes(voteInfosCopy, leadersToSelect);
 
         // Add the top leaders to the leaders list
+        Map<String, NodeInfo> nodesById = new HashMap<>();
+        for (NodeInfo nodeInfo : nodeInfos) {
+            nodesById.putIfAbsent(nodeInfo.getNodeId(), nodeInfo);
+        }
         leaders.clear();
         for (String leaderId : topLeaders) {
-            nodeInfos.stream()
-                    .filter(nodeInfo -> nodeInfo.getNodeId().equals(leaderId))
-                    .findFirst()
-                    .ifPresent(leaders::add);
+            NodeInfo leader = nodesById.get(leaderId);
+            if (leader != null) {
+                leaders.add(leader);
+            }
         }
 
-        System.out.println("[STEP-4] " + nodeId + " Calculated leaders: " + leaders.stream().map(NodeInfo::getNodeId).collect(Collectors.joining(",")));
+        Log.info("STEP-4", "Calculated leaders", "node", nodeId, "leaders", String.join(",", topLeaders));
     }
 
     private void selectCurrentLeader() {
         if (leaders.isEmpty()) {
-            System.err.println("No leaders to select from.");
+            Log.warn("STEP-5", "No leaders to select from.", "node", nodeId);
             return;
         }
 
@@ -284,7 +460,7 @@ public class Node {
         // Select the current leader based on the rotation count
         int leaderIndex = rotationCount % leaders.size(); // 0 % 2 = 0, 1 % 2 = 1
         currentLeader = leaders.get(leaderIndex);
-        System.out.println("[STEP-5] " + nodeId + " Current leader selected: " + currentLeader.getNodeId());
+        Log.info("STEP-5", "Current leader selected", "node", nodeId, "leader", currentLeader.getNodeId());
 
         // Increment the rotation count and broadcast it
         rotationCount++;
@@ -293,56 +469,39 @@ public class Node {
 
     private void groupNodes() {
         if (leaders.isEmpty()) {
-            System.err.println("[ERROR] Cannot group nodes as there are no leaders.");
+            Log.error("STEP-6", "Cannot group nodes as there are no leaders.", "node", nodeId);
             return;
         }
 
-        int noOfGroups = leaders.size(); // Number of groups = number of leaders
-        List<NodeInfo> nonLeaderNodes = nodeInfos.stream()
-                .filter(node -> !leaders.contains(node)) // Exclude leaders
-                .toList();
-
-        int groupSize = nonLeaderNodes.size() / noOfGroups; // Base size of each group
-        int remainingNodes = nonLeaderNodes.size() % noOfGroups; // Remaining nodes to distribute
-        int startIndex = 0;
+        // Balance the groups by capacity and latency, and precompute the lookups used while handling messages
+        grouping = NodeGrouping.build(leaders, nodeInfos, nodeLatencies, NodeGrouping.DEFAULT_FANOUT);
 
         groupedNodes.clear(); // Clear previous groups
+        groupedNodes.addAll(grouping.getGroups());
 
-        // Iterate through the leaders and assign nodes to their respective groups
-        for (int i = 0; i < noOfGroups; i++) {
-            List<NodeInfo> group = new ArrayList<>();
-            group.add(leaders.get(i)); // Add the leader to the group
-
-            // Calculate the end index for the current group
-            int endIndex = startIndex + groupSize + (remainingNodes > 0 ? 1 : 0);
-            if (remainingNodes > 0) {
-                remainingNodes--; // Distribute one extra node to this group
-            }
-
-            // Add nodes to the group
-            group.addAll(nonLeaderNodes.subList(startIndex, Math.min(endIndex, nonLeaderNodes.size())));
-
-            groupedNodes.add(group); // Add the group to the list of groups
-            startIndex = endIndex; // Update start index for the next group
-        }
-
-        System.out.println("[STEP-6] " + nodeId + " Grouping done. ");
+        Log.info("STEP-6", "Grouping done", "node", nodeId, "groups", grouping.getGroups().size());
     }
 
     // Create a new block and add it to the blockchain
     private void createFICBlock() {
         String lastBlockHash = ficBlockchain.getLastBlock().getHash();
         String index = String.valueOf(ficBlockchain.getChain().size());
-        long timestamp = System.currentTimeMillis();
-        String merkleRoot = BlockUtil.calculateMerkleRoot(groupedNodes, voteInfos);
+        long timestamp = clock.millis();
+        // The block keeps copies: groupedNodes and voteInfos change with the next round while the block is still journaled and sent
+        List<List<NodeInfo>> blockGroups = new ArrayList<>();
+        for (List<NodeInfo> group : new ArrayList<>(groupedNodes)) {
+            blockGroups.add(new ArrayList<>(group));
+        }
+        List<VoteInfo> blockVotes = new ArrayList<>(voteInfos);
+        String merkleRoot = BlockUtil.calculateMerkleRoot(blockGroups, blockVotes);
         String hash = BlockUtil.calculateFICBlockHash(Integer.parseInt(index), timestamp, lastBlockHash, merkleRoot);
 
         // Create a new block with the gathered information
         FICBlock newBlock = new FICBlock(
                 Integer.parseInt(index),
                 timestamp,
-                groupedNodes,
-                voteInfos,
+                blockGroups,
+                blockVotes,
                 lastBlockHash,
                 merkleRoot,
                 hash
@@ -352,34 +511,26 @@ public class Node {
         try {
             ficBlockchain.addBlock(newBlock);
         } catch (Exception e) {
-            System.err.println("Error adding block to blockchain: " + e.getMessage());
+            Log.error("CHAIN", "Error adding block to blockchain", "node", nodeId, "error", e.getMessage());
         }
 
         // Broadcast the PRE_PREPARE message
-        String message = "PRE_PREPARE-" + newBlock;
-        broadcastMessage(message, leaders);
-        System.out.println("[STEP-7] " + nodeId + " Created new block: " + newBlock.getHash());
-        System.out.println("[PRE_PREPARE] " + nodeId + " Broadcasted PRE_PREPARE message to leaders: " + leaders.stream().map(NodeInfo::getNodeId).collect(Collectors.joining(",")));
-
-        if ("user1".equals(nodeId)) {
-            try (FileWriter writer = new FileWriter("fic_blockchain.log", true)) {
-                Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                String jsonBlock = gson.toJson(newBlock);
-                writer.write(jsonBlock + System.lineSeparator());
-            } catch (IOException e) {
-                System.err.println("Error writing block to file: " + e.getMessage());
-            }
+        roundStarts.put(newBlock.getHash(), System.nanoTime());
+        String block = BlockCodec.encode(newBlock);
+        broadcastMessage("PRE_PREPARE-" + block, leaders);
+        Log.info("STEP-7", "Created new block", "node", nodeId, "index", newBlock.getIndex(), "hash", newBlock.getHash());
+        Log.info("PRE_PREPARE", "Broadcasted PRE_PREPARE message to leaders", "node", nodeId, "leaders", leaders.size());
+
+        // The leader's own commit counts towards the quorum, so a single leader can commit alone
+        CommitVote ownVote = SignUtil.signVote(nodeId, newBlock.getHash());
+        if (ownVote != null) {
+            onCommitVote(ownVote, block, CommitCertificate.quorum(leaders.size()), "NEW_BLOCK", "pbft.fic");
         }
     }
 
-    private void createFTCBlock(Transaction transaction) {
-        String lastBlockHash = ftcBlockchain.getLastBlock().getHash();
-        int index = ftcBlockchain.getChain().size();
-        long timestamp = System.currentTimeMillis();
-        String fileName = transaction.getFileName();
-        String fileHash = transaction.getFileHash();
+    // Creates an FTC block for the transaction between its sender and receiver and sends it to the current leader, returns its hash
+    private String createFTCBlock(Transaction transaction) {
         String encryptedFileKey = transaction.getEncryptedFileKey();
-        FileInfo fileInfo = new FileInfo(fileName, fileHash, encryptedFileKey);
         String sendersPublicKey = transaction.getSenderPublicKey();
         String receiversPublicKey = transaction.getReceiverPublicKey();
 
@@ -391,54 +542,105 @@ public class Node {
             receiversPublicKey = "null";
         }
 
-        NodeInfo senderNode = transaction.getSender();
-        NodeInfo receiverNode = transaction.getReceiver();
         List<UserInfo> userInfos = new ArrayList<>();
         userInfos.add(new UserInfo(sendersPublicKey, encryptedFileKey));
         userInfos.add(new UserInfo(receiversPublicKey, encryptedFileKey));
+        return createFTCBlock(transaction, userInfos);
+    }
+
+    // Creates an FTC block for the transaction with the given users and sends it to the current leader, returns its hash
+    private String createFTCBlock(Transaction transaction, List<UserInfo> userInfos) {
+        String lastBlockHash = ftcBlockchain.getLastBlock().getHash();
+        int index = ftcBlockchain.getChain().size();
+        long timestamp = clock.millis();
+        FileInfo fileInfo = new FileInfo(transaction.getFileName(), transaction.getFileHash(), transaction.getEncryptedFileKey());
+        Map<String, String> publicKeys;
+        try {
+            publicKeys = unrecordedKeys(transaction, userInfos);
+        } catch (IllegalStateException e) {
+            Log.error("CHAIN", "Cannot create FTC block", "node", nodeId, "error", e.getMessage());
+            return null;
+        }
 
-        String hash = BlockUtil.calculateFTCBlockHash(index, timestamp, fileInfo, userInfos, transaction, lastBlockHash);
+        String hash = BlockUtil.calculateFTCBlockHash(index, timestamp, fileInfo, userInfos, transaction, lastBlockHash, publicKeys);
 
         // Create a new block with the gathered information
-        FTCBlock newBlock = new FTCBlock(index, timestamp, fileInfo, userInfos, transaction, lastBlockHash, hash);
+        FTCBlock newBlock = new FTCBlock(index, timestamp, fileInfo, userInfos, transaction, lastBlockHash, hash, publicKeys);
 
         // Add the new block to the blockchain
         try {
             ftcBlockchain.addBlock(newBlock);
+            scheduler.recordLoad();
         } catch (Exception e) {
-            System.err.println("Error adding block to blockchain: " + e.getMessage());
+            Log.error("CHAIN", "Error adding block to blockchain", "node", nodeId, "error", e.getMessage());
         }
 
-        // Broadcast the PRE_PREPARE message
-        String message = "UPLOAD_PRE_PREPARE-" + newBlock;
-        List<NodeInfo> currLeader = groupedNodes.stream()
-                .flatMap(List::stream)
-                .filter(node -> node.getNodeId().equals(currentLeader.getNodeId()))
-                .collect(Collectors.toList());
-        broadcastMessage(message, currLeader);
-        System.out.println("[UPLOAD/SHARE/DOWNLOAD-STEP-1] " + nodeId + " Created new block: " + newBlock.getHash());
-        System.out.println("[UPLOAD/SHARE/DOWNLOAD_PRE_PREPARE] " + nodeId + " Broadcasted PRE_PREPARE message to current leader: " + currentLeader.getNodeId());
+        // Send the block to the current leader, it runs the PBFT round for the upload
+        NodeInfo leader = currentLeader;
+        if (leader == null) {
+            Log.warn("UPLOAD/SHARE/DOWNLOAD_PRE_PREPARE", "No current leader, block stays local until the next sync", "node", nodeId, "hash", newBlock.getHash());
+            return newBlock.getHash();
+        }
+        String message = "UPLOAD_PRE_PREPARE-" + BlockCodec.encode(newBlock);
+        broadcastMessage(message, Collections.singletonList(leader));
+        Log.info("UPLOAD/SHARE/DOWNLOAD-STEP-1", "Created new block", "node", nodeId, "index", newBlock.getIndex(), "hash", newBlock.getHash());
+        Log.info("UPLOAD/SHARE/DOWNLOAD_PRE_PREPARE", "Broadcasted PRE_PREPARE message to current leader", "node", nodeId, "leader", leader.getNodeId());
+        return newBlock.getHash();
+    }
 
-        if ("user1".equals(nodeId)) {
-            try (FileWriter writer = new FileWriter("ftc_blockchain.log", true)) {
-                Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                String jsonBlock = gson.toJson(newBlock);
-                writer.write(jsonBlock + System.lineSeparator());
-            } catch (IOException e) {
-                System.err.println("Error writing block to file: " + e.getMessage());
+    // The keys a block refers to by id that no block on the chain has recorded yet, looked up in the keystore;
+    // IllegalStateException if the keystore does not know one of them
+    private Map<String, String> unrecordedKeys(Transaction transaction, List<UserInfo> userInfos) {
+        Set<String> keyIds = new LinkedHashSet<>();
+        keyIds.add(transaction.getSenderPublicKey());
+        keyIds.add(transaction.getReceiverPublicKey());
+        userInfos.forEach(userInfo -> keyIds.add(userInfo.getPublicKey()));
+
+        Map<String, String> publicKeys = new TreeMap<>();
+        KeyStore keyStore = KeyStore.get();
+        for (String keyId : keyIds) {
+            if (FTCBlockchain.isKeyId(keyId) && !ftcBlockchain.isRecorded(keyId)) {
+                publicKeys.put(keyId, keyStore.publicKeyFor(keyId)
+                        .orElseThrow(() -> new IllegalStateException("No public key for key id " + keyId)));
             }
         }
+        return publicKeys;
     }
 
-    private void handleClientRequest(Socket clientSocket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
+    // Queues a received request in its ingress lane, the exchange is closed if it is shed
+    private void acceptRequest(String request, Transport.Exchange exchange) {
+        Metrics.increment("messages.received");
+        String type = request.split("-", 2)[0];
+        IngressQueue.Lane lane = IngressQueue.classify(type);
+        String waitMetric = "ingress.wait." + lane.name().toLowerCase();
+        String handlerMetric = "handler." + (IngressQueue.isKnownType(type) ? type : "unknown");
+        long queuedAt = System.nanoTime();
+
+        boolean queued = ingress.submit(lane, () -> {
+            long start = System.nanoTime();
+            Metrics.histogram(waitMetric).record(start - queuedAt);
+            handleClientRequest(exchange, request);
+            Metrics.recordSince(handlerMetric, start);
+        });
+        if (!queued) {
+            exchange.close();
+        }
+    }
 
-            String request = in.readLine();
+    private void handleClientRequest(Transport.Exchange exchange, String request) {
+        try (exchange) {
             String[] reqParts = request.split("-");
 
             if ("GET_NODE_INFO".equals(reqParts[0])) {
-                out.println("nodeId:" +  nodeId + ",efficiencyScore:" + efficiencyScore + ",reputationScore:" + reputationScore);
+                exchange.reply("nodeId:" +  nodeId + ",efficiencyScore:" + efficiencyScore + ",reputationScore:" + reputationScore);
+            }
+
+            if ("GET_TIP".equals(reqParts[0])) {
+                exchange.reply(blockSync.getTip());
+            }
+
+            if ("GET_BLOCKS".equals(reqParts[0])) {
+                exchange.reply(blockSync.getBlocks(reqParts[1], Integer.parseInt(reqParts[2]), Integer.parseInt(reqParts[3])));
             }
 
             if ("VOTING_RESULT".equals(reqParts[0])) {
@@ -456,7 +658,7 @@ public class Node {
                 // Check for duplicate votes
                 for (VoteInfo voteInfo : voteInfos) {
                     if (voteInfo.getVoterId().equals(nodeId) && voteInfo.getVoteWeight() == Double.parseDouble(voteWeight)) {
-                        System.out.println("[INFO] Duplicate vote detected from node: " + nodeId);
+                        Log.debug("VOTING_RESULT", "Duplicate vote detected", "node", this.nodeId, "voter", nodeId);
                         return;
                     }
                 }
@@ -479,21 +681,29 @@ public class Node {
 
                 // Update the current leader and last selected leader index
                 currentLeader = new NodeInfo(leaderId, leaderPort, efficiencyScore, reputationScore);
-                System.out.println("[CURRENT_LEADER] Updated leader to: " + currentLeader.getNodeId());
+                scheduler.watchLeader();
+                Log.info("CURRENT_LEADER", "Updated leader", "node", nodeId, "leader", leaderId);
+            }
+
+            if ("LEADER_HEARTBEAT".equals(reqParts[0])) {
+                String leaderId = reqParts[1];
+
+                // Only heartbeats from the leader we know about keep it alive
+                if (currentLeader != null && currentLeader.getNodeId().equals(leaderId)) {
+                    scheduler.leaderSeen();
+                }
             }
 
             if ("ROTATION_COUNT".equals(reqParts[0])) {
                 String[] parts = request.split("-");
                 int rotationCount = Integer.parseInt(parts[1]);
 
-                // Skip if the response is from the current node
-                if (currentLeader == null || currentLeader.getNodeId().equals(this.nodeId)) {
-                    return;
-                }
-
-                // Works but fails on second round
-                if (rotationCount > this.rotationCount) {
-                    this.rotationCount = rotationCount;
+                // Leaders count their own rotations, a count from a faster leader would make them skip one.
+                // Followers keep it until the block of the round arrives: the count can come before their own round
+                // starts, and a follower that saw the last count of a rotation there would start the next election a
+                // round early and reject the block of the last leader
+                if (!isLeader()) {
+                    pendingRotationCount = rotationCount;
                 }
             }
 
@@ -509,7 +719,7 @@ public class Node {
                 // Phase 2: Prepare - leader sends block to all leaders
                 String vote = "PREPARE-" + block;
                 broadcastMessage(vote, leaders);
-                System.out.println("[PREPARE] " + nodeId + " Received block from leader");
+                Log.debug("PREPARE", "Received block from leader", "node", nodeId);
             }
 
             if ("PREPARE".equals(reqParts[0])) {
@@ -521,54 +731,75 @@ public class Node {
                     return; // Skip processing if no leader is selected or the message is from the current leader
                 }
 
-                // Phase 3: Commit - leader sends commit to all leaders
-                String commit = "COMMIT-" + block;
+                // Phase 3: Commit - leader sends commit to all leaders, signed so the leader can put it in the certificate
+                String blockHash = decodeBlock(block, FICBlock.class).getHash();
+                CommitVote vote = SignUtil.signVote(nodeId, blockHash);
+                if (vote == null) {
+                    return; // No keys to sign with, this leader's vote is absent
+                }
+                String commit = "COMMIT-" + nodeId + "-" + vote.getSignature() + "-" + block;
 
                 // Send commit message only to the current leader
                 if (currentLeader != null && !currentLeader.getNodeId().equals(nodeId)) {
                     broadcastMessage(commit, Collections.singletonList(currentLeader));
-                    System.out.println("[PREPARE & COMMIT] " + nodeId + " Received prepare message for block and broadcasted commit to current leader: " + currentLeader.getNodeId());
+                    Log.debug("PREPARE & COMMIT", "Received prepare message and sent commit to current leader", "node", nodeId, "leader", currentLeader.getNodeId(), "hash", blockHash);
                 }
             }
 
             if ("COMMIT".equals(reqParts[0])) {
-                String[] parts = request.split("-", 2);
-                String block = parts[1];
-
-                commitCount++;
+                String[] parts = request.split("-", 4);
+                String voterId = parts[1];
+                String signature = parts[2];
+                String block = parts[3];
 
-                // If our node is the current leader and commit count is greater than 2/3 of the leaders, add the block to the blockchain
-                if (currentLeader.getNodeId().equals(nodeId) && (leaders.size() == 1 || commitCount >= (leaders.size() * 2) / 3)) {
-                    commitCount = 0; // Reset commit count after adding block
-
-                    // Broadcast the newly added block to all nodes
-                    String broadcastBlockMessage = "NEW_BLOCK-" + block;
-                    broadcastMessage(broadcastBlockMessage, nodeInfos);
-                    System.out.println("[COMMIT] " + nodeId + " Received all and broadcasted NEW_BLOCK message to all nodes");
+                // Only the current leader collects commits, and only from leaders
+                if (currentLeader == null || !currentLeader.getNodeId().equals(nodeId) || !nodeIds(leaders).contains(voterId)) {
+                    return;
                 }
+
+                // Once 2/3 of the leaders committed, broadcast the block together with its certificate
+                String blockHash = decodeBlock(block, FICBlock.class).getHash();
+                onCommitVote(new CommitVote(voterId, blockHash, signature), block, CommitCertificate.quorum(leaders.size()), "NEW_BLOCK", "pbft.fic");
             }
 
             if ("RESET".equals(reqParts[0])) {
-                System.out.println("[INFO] " + nodeId + " Received request to reset.");
+                Log.info("RESET", "Received request to reset", "node", nodeId);
                 leaders.clear(); // Clear the leaders list
                 currentLeader = null; // Clear the current leader
                 rotationCount = 0; // Reset rotation count
+                pendingRotationCount = 0;
+                scheduler.stopWatchingLeader();
             }
 
             if ("NEW_BLOCK".equals(reqParts[0])) {
                 // Skip if the NEW_BLOCK message is from the current leader
-                if (currentLeader.getNodeId().equals(nodeId)) {
+                if (currentLeader != null && currentLeader.getNodeId().equals(nodeId)) {
                      return;
                 }
 
-               String serializedBlock = request.substring(request.indexOf("-") + 1); // Extract everything after "NEW_BLOCK-"
+               String[] parts = request.split("-", 3);
+               String serializedBlock = parts[2]; // Extract everything after "NEW_BLOCK-<certificate>-"
                try {
-                   ficBlockchain.addBlock(serializedBlock);
+                   // Check the commit certificate before trusting the block
+                   FICBlock block = decodeBlock(serializedBlock, FICBlock.class);
+                   String blockHash = block.getHash();
+                   if (!SignUtil.verifyCertificate(decodeCertificate(parts[1]), blockHash, nodeIds(leaders), CommitCertificate.quorum(leaders.size()))) {
+                       Log.warn("CERTIFICATE", "Invalid commit certificate", "node", nodeId, "hash", blockHash);
+                       return;
+                   }
+
+                   if (!isLeader() && pendingRotationCount > rotationCount) {
+                       rotationCount = pendingRotationCount; // Before the block is in, the next round can start right after it
+                   }
+
+                   ficBlockchain.addBlock(block);
                    FICBlock lastBlock = ficBlockchain.getLastBlock();
-                   System.out.println("[STEP-9] " + nodeId + " Received new block: " + lastBlock.getHash());
+                   grouping = NodeGrouping.fromGroups(lastBlock.getNodeInfos(), NodeGrouping.DEFAULT_FANOUT);
+                   Log.info("STEP-9", "Received new block", "node", nodeId, "index", lastBlock.getIndex(), "hash", lastBlock.getHash());
                } catch (Exception e) {
-                   System.err.println("Error at: " + nodeId + " Chain error: "+ e.getMessage());
-                   e.printStackTrace();
+                   Log.error("CHAIN", "Chain error", "node", nodeId, e);
+                   // We probably missed blocks, catch up with the other nodes
+                   blockSync.requestSync(nodeInfos);
                }
            }
 
@@ -582,16 +813,19 @@ public class Node {
                 }
 
                 // Current leader decides to send PREPARE_UPLOAD message to group it is leading
+                String blockHash = decodeBlock(block, FTCBlock.class).getHash();
+                roundStarts.put(blockHash, System.nanoTime());
                 String message = "UPLOAD_PREPARE-" + block;
-                // Find the group current leader is leading
-                List<NodeInfo> group = groupedNodes.stream()
-                        .filter(g -> g.get(0).getNodeId().equals(currentLeader.getNodeId()))
-                        .findFirst()
-                        .orElse(Collections.emptyList());
-                // Send PREPARE_UPLOAD message to the group
-                broadcastMessage(message, group);
+                // Send PREPARE_UPLOAD message to the first level of the group the current leader is leading, they forward it down the group
+                broadcastMessage(message, grouping.getChildren(nodeId));
 
-                System.out.println("[UPLOAD/SHARE/DOWNLOAD_PREPARE] " + nodeId + " Received block from node and broadcasted PREPARE_UPLOAD message to the group" );
+                Log.debug("UPLOAD/SHARE/DOWNLOAD_PREPARE", "Received block from node and sent UPLOAD_PREPARE to the group", "node", nodeId);
+
+                // The leader's own commit counts towards the quorum of its group
+                CommitVote ownVote = SignUtil.signVote(nodeId, blockHash);
+                if (ownVote != null) {
+                    onCommitVote(ownVote, block, uploadQuorum(nodeId), "UPLOAD_NEW_BLOCK", "pbft.ftc");
+                }
             }
 
             if ("UPLOAD_PREPARE".equals(reqParts[0])) {
@@ -603,52 +837,66 @@ public class Node {
                     return; // Skip processing if no leader is selected or the message is from the current leader
                 }
 
-                // Phase 3: Commit - leader sends commit to all leaders
-                String commit = "UPLOAD_COMMIT-" + block;
+                // Forward the prepare message to the members below this node in the group
+                broadcastMessage(request, grouping.getChildren(nodeId));
+
+                // Phase 3: Commit - leader sends commit to all leaders, signed so the leader can put it in the certificate
+                String blockHash = decodeBlock(block, FTCBlock.class).getHash();
+                CommitVote vote = SignUtil.signVote(nodeId, blockHash);
+                if (vote == null) {
+                    return; // No keys to sign with, this member's vote is absent
+                }
+                String commit = "UPLOAD_COMMIT-" + nodeId + "-" + vote.getSignature() + "-" + block;
 
                 // Send commit message only to the current leader
                 if (currentLeader != null && !currentLeader.getNodeId().equals(nodeId)) {
                     broadcastMessage(commit, Collections.singletonList(currentLeader));
-                    System.out.println("[PREPARE & UPLOAD/SHARE/DOWNLOAD_COMMIT] " + nodeId + " Received prepare message for block and broadcasted commit to current leader: " + currentLeader.getNodeId());
+                    Log.debug("PREPARE & UPLOAD/SHARE/DOWNLOAD_COMMIT", "Received prepare message and sent commit to current leader", "node", nodeId, "leader", currentLeader.getNodeId(), "hash", blockHash);
                 }
             }
 
             if ("UPLOAD_COMMIT".equals(reqParts[0])) {
-                String[] parts = request.split("-", 2);
-                String block = parts[1];
+                String[] parts = request.split("-", 4);
+                String voterId = parts[1];
+                String signature = parts[2];
+                String block = parts[3];
 
-                commitCount++;
-
-                // If our node is the current leader and commit count is greater than 2/3 of the group size participating in the upload, add the block to the blockchain
-                int groupSize = groupedNodes.stream()
-                        .filter(g -> g.get(0).getNodeId().equals(currentLeader.getNodeId()))
-                        .findFirst()
-                        .orElse(Collections.emptyList())
-                        .size();
-                if (currentLeader.getNodeId().equals(nodeId) && (groupedNodes.size() == 1 || commitCount >= (groupSize * 2) / 3)) {
-                    commitCount = 0; // Reset commit count after adding block
-
-                    // Broadcast the newly added block to all nodes
-                    String broadcastBlockMessage = "UPLOAD_NEW_BLOCK-" + block;
-                    broadcastMessage(broadcastBlockMessage, nodeInfos);
-                    System.out.println("[UPLOAD/SHARE/DOWNLOAD_NEW_BLOCK] " + nodeId + " Received all and broadcasted NEW_BLOCK message to all nodes");
+                // Only the current leader collects commits, and only from its group
+                if (currentLeader == null || !currentLeader.getNodeId().equals(nodeId) || !nodeIds(grouping.getGroup(nodeId)).contains(voterId)) {
+                    return;
                 }
+
+                // Once 2/3 of the group participating in the upload committed, broadcast the block together with its certificate
+                String blockHash = decodeBlock(block, FTCBlock.class).getHash();
+                onCommitVote(new CommitVote(voterId, blockHash, signature), block, uploadQuorum(nodeId), "UPLOAD_NEW_BLOCK", "pbft.ftc");
             }
 
             if ("UPLOAD_NEW_BLOCK".equals(reqParts[0])) {
                 // Skip if the NEW_BLOCK message is from the current leader
-                if (currentLeader.getNodeId().equals(nodeId)) {
+                if (currentLeader != null && currentLeader.getNodeId().equals(nodeId)) {
                      return;
                 }
 
-               String serializedBlock = request.substring(request.indexOf("-") + 1); // Extract everything after "NEW_BLOCK-"
+               String[] parts = request.split("-", 3);
+               String serializedBlock = parts[2]; // Extract everything after "UPLOAD_NEW_BLOCK-<certificate>-"
                try {
-                   ftcBlockchain.addBlock(serializedBlock);
+                   // Check the commit certificate before trusting the block
+                   FTCBlock block = decodeBlock(serializedBlock, FTCBlock.class);
+                   String blockHash = block.getHash();
+                   String leaderId = currentLeader.getNodeId();
+                   if (!SignUtil.verifyCertificate(decodeCertificate(parts[1]), blockHash, nodeIds(grouping.getGroup(leaderId)), uploadQuorum(leaderId))) {
+                       Log.warn("CERTIFICATE", "Invalid commit certificate", "node", nodeId, "hash", blockHash);
+                       return;
+                   }
+
+                   ftcBlockchain.addBlock(block);
+                   scheduler.recordLoad();
                    FTCBlock lastBlock = ftcBlockchain.getLastBlock();
-                   System.out.println("[UPLOAD/SHARE-STEP-2] " + nodeId + " Received new block: " + lastBlock.getHash());
+                   Log.info("UPLOAD/SHARE-STEP-2", "Received new block", "node", nodeId, "index", lastBlock.getIndex(), "hash", lastBlock.getHash());
                } catch (Exception e) {
-                   System.err.println("Error at: " + nodeId + " Chain error: "+ e.getMessage());
-                   e.printStackTrace();
+                   Log.error("CHAIN", "Chain error", "node", nodeId, e);
+                   // We probably missed blocks, catch up with the other nodes
+                   blockSync.requestSync(nodeInfos);
                }
             }
 
@@ -657,32 +905,332 @@ public class Node {
                 String transactionStr = parts[1];
 
                 // Parse the transaction string to create a Transaction object using Gson
-                 Transaction transaction = new Gson().fromJson(transactionStr, Transaction.class);
+                 Transaction transaction = GsonUtil.GSON.fromJson(transactionStr, Transaction.class);
 
                 // Receive the share transaction
-                System.out.println("[SHARE_RECEIVED] " + nodeId + " Received share transaction: " + transaction.getEncryptedFileKey() + "\n FileName: " + transaction.getFileName() + "\n FileHash: " + transaction.getFileHash());
+                Log.info("SHARE_RECEIVED", "Received share transaction", "node", nodeId, "fileName", transaction.getFileName(), "fileHash", transaction.getFileHash());
             }
 
         } catch (Exception e) {
-            System.err.println("Error handling client request: " + e.getMessage());
+            Log.error("REQUEST", "Error handling client request", "node", nodeId, "error", e.getMessage());
+        }
+    }
+
+    // Adds a verified commit vote to the certificate of its block, returns the number of distinct votes or -1 if it was rejected
+    private int addCommitVote(CommitVote vote) {
+        if (!SignUtil.verifyVote(vote)) {
+            Log.warn("COMMIT", "Rejected commit with invalid signature", "node", nodeId, "voter", vote.getVoterId());
+            return -1;
+        }
+        CommitCertificate certificate = commitCertificates.computeIfAbsent(vote.getBlockHash(), CommitCertificate::new);
+        return certificate.addVote(vote);
+    }
+
+    /**
+     * Adds a commit vote as the current leader. When the vote completes the quorum, the leader takes the block
+     * into its own chain and broadcasts it to all nodes together with its commit certificate.
+     *
+     * @param vote The commit vote.
+     * @param block The block JSON the vote is for.
+     * @param quorum Distinct votes needed.
+     * @param newBlockType NEW_BLOCK for FIC blocks, UPLOAD_NEW_BLOCK for FTC blocks.
+     * @param roundMetric Prefix of the round and phase histograms, pbft.fic or pbft.ftc.
+     */
+    private void onCommitVote(CommitVote vote, String block, int quorum, String newBlockType, String roundMetric) {
+        int votes = addCommitVote(vote);
+        if (!vote.getVoterId().equals(nodeId) && roundStarts.containsKey(vote.getBlockHash())) {
+            firstVotes.putIfAbsent(vote.getBlockHash(), System.nanoTime());
+        }
+        if (votes != quorum) {
+            return;
+        }
+
+        String blockHash = vote.getBlockHash();
+        long quorumAt = System.nanoTime();
+        recordRound(roundMetric, blockHash, quorumAt);
+        try {
+            if ("UPLOAD_NEW_BLOCK".equals(newBlockType)) {
+                ftcBlockchain.addBlock(decodeBlock(block, FTCBlock.class)); // Ignored if this leader created the block itself
+                scheduler.recordLoad();
+            }
+        } catch (Exception e) {
+            Log.error("CHAIN", "Error adding committed block", "node", nodeId, "hash", blockHash, "error", e.getMessage());
+        }
+
+        // Broadcast the newly added block to all nodes
+        broadcastMessage(newBlockType + "-" + encodeCertificate(commitCertificates.get(blockHash)) + "-" + block, nodeInfos);
+        Metrics.recordSince(roundMetric + ".phase.newBlock", quorumAt);
+        Log.info(newBlockType, "Reached commit quorum and broadcasted the block to all nodes", "node", nodeId, "hash", blockHash, "votes", votes);
+    }
+
+    // The block of a payload, decoded once for all messages that carry the same payload
+    private <T> T decodeBlock(String payload, Class<T> type) {
+        Object block = decodedBlocks.get(payload);
+        if (!type.isInstance(block)) {
+            block = BlockCodec.parse(payload, type);
+            if (block == null) {
+                throw new IllegalArgumentException("Empty block payload.");
+            }
+            decodedBlocks.put(payload, block);
+        }
+        return type.cast(block);
+    }
+
+    /**
+     * Times the round of a block this node leads: <prefix>.commit from PRE_PREPARE to the commit quorum, and the
+     * phases <prefix>.phase.prepare from PRE_PREPARE to the first vote of another node (it sends its vote once it
+     * has prepared the block) and <prefix>.phase.commit from that vote to the quorum. <prefix>.phase.newBlock,
+     * from the quorum until the block is broadcast, is recorded by the caller.
+     */
+    private void recordRound(String prefix, String blockHash, long quorumAt) {
+        Long start = roundStarts.remove(blockHash);
+        Long firstVote = firstVotes.remove(blockHash);
+        if (start == null) {
+            return;
+        }
+        Metrics.histogram(prefix + ".commit").record(quorumAt - start);
+        if (firstVote != null) {
+            Metrics.histogram(prefix + ".phase.prepare").record(firstVote - start);
+            Metrics.histogram(prefix + ".phase.commit").record(quorumAt - firstVote);
+        }
+    }
+
+    // Distinct commit votes needed for an FTC block, out of the group led by the given leader
+    private int uploadQuorum(String leaderId) {
+        return grouping.getGroups().size() == 1 ? 1 : CommitCertificate.quorum(grouping.getGroupSize(leaderId));
+    }
+
+    private static Set<String> nodeIds(List<NodeInfo> nodes) {
+        Set<String> ids = new HashSet<>();
+        for (NodeInfo node : nodes) {
+            ids.add(node.getNodeId());
+        }
+        return ids;
+    }
+
+    // Base64 keeps the certificate free of the "-" used to separate message parts
+    private static String encodeCertificate(CommitCertificate certificate) {
+        return Base64.getEncoder().encodeToString(certificate.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Null for a malformed certificate, which verifyCertificate rejects
+    private static CommitCertificate decodeCertificate(String encoded) {
+        try {
+            String json = new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+            return GsonUtil.GSON.fromJson(json, CommitCertificate.class);
+        } catch (JsonParseException | IllegalArgumentException e) {
+            return null;
         }
     }
 
     private void broadcastMessage(String message, List<NodeInfo> nodeInfo) {
         if (nodeInfo == null) {
-            System.out.println("Node info is null. Cannot broadcast message.");
+            Log.warn("BROADCAST", "Node info is null. Cannot broadcast message.", "node", nodeId);
             return;
         }
 
+        int typeEnd = message.indexOf('-');
+        String sentMetric = "messages.sent." + (typeEnd < 0 ? message : message.substring(0, typeEnd));
         for (NodeInfo node : nodeInfo) {
-            try (Socket socket = new Socket("localhost", node.getNodePort());
-                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-                out.println(message);
-            } catch (Exception e) {
-                System.err.println("Error sending message to " + node.getNodeId());
-                e.printStackTrace();
+            Metrics.increment("messages.sent");
+            Metrics.increment(sentMetric);
+            egress.send(addressOf(node), node.getNodeId(), message);
+        }
+    }
+
+    /**
+     * Encrypts and uploads a file, then proposes an FTC block for it.
+     *
+     * @param filePath Path of the file to upload.
+     * @return The block hash, or null if the upload failed.
+     */
+    public String uploadFile(String filePath) {
+        Transaction uploadTransaction = null;
+        // Upload the file and get the uploadTransaction pass the current node
+        NodeInfo currentNode = new NodeInfo(nodeId, nodePort, efficiencyScore, reputationScore);
+        try {
+            uploadTransaction = Upload.upload(filePath, currentNode);
+        } catch (Exception e) {
+            System.err.println("Error uploading file: " + e.getMessage());
+        }
+
+        // Create a new FTC block with the uploadTransaction
+        if (uploadTransaction == null) {
+            System.err.println("Transaction is null. Cannot create FTC block.");
+            return null;
+        }
+        return createFTCBlock(uploadTransaction);
+    }
+
+    /**
+     * Re-encrypts the file key of an FTC block for another node, proposes an FTC block for the share
+     * and sends the share transaction to the receiver.
+     *
+     * @param blockIndex Index of the FTC block of the file.
+     * @param receiverId Node to share the file with.
+     * @return The block hash, or null if the share failed.
+     */
+    public String shareFile(int blockIndex, String receiverId) {
+        NodeInfo senderNode = new NodeInfo(nodeId, nodePort, efficiencyScore, reputationScore);
+        // Find the receiver node from NodeInfo list
+        NodeInfo receiverNode = nodeInfos.stream()
+                .filter(node -> node.getNodeId().equals(receiverId))
+                .findFirst()
+                .orElse(null);
+
+        // Find the block with the given index
+        FTCBlock ftcBlock = ftcBlockchain.getBlock(blockIndex);
+        String fileName = ftcBlock.getFileInfo().getFileName();
+        String fileHash = ftcBlock.getFileInfo().getFileHash();
+        String keyWrap = ftcBlock.getTransactions() == null ? null : ftcBlock.getTransactions().getKeyWrap();
+
+        Transaction shareTransaction = null;
+        try {
+            String eFileKey = ownFileKey(ftcBlock, keyWrap);
+            shareTransaction = Download.share(fileName, fileHash, eFileKey, keyWrap, senderNode, receiverNode);
+        } catch (Exception e) {
+            System.err.println("Error creating share downTransaction: " + e.getMessage());
+        }
+
+        // Create a new FTC block with the uploadTransaction
+        if (shareTransaction == null) {
+            System.err.println("Transaction is null. Cannot create FTC block.");
+            return null;
+        }
+        String hash = createFTCBlock(shareTransaction);
+        if (hash == null) {
+            return null;
+        }
+
+        // Send receiver node the share downTransaction message
+        List<NodeInfo> reciverNodes = new ArrayList<>();
+        reciverNodes.add(receiverNode);
+        broadcastMessage("SHARE-" + shareTransaction, reciverNodes);
+        return hash;
+    }
+
+    /**
+     * Shares the file of an FTC block with several nodes in one FTC block. The file key is decrypted once
+     * and wrapped for every receiver, the block holds the sender's UserInfo followed by one per receiver,
+     * and every receiver is sent the transaction. Receivers that are not known to this node, or have no
+     * public key of the block's key-wrap scheme in the keystore, are skipped.
+     *
+     * @param blockIndex Index of the FTC block of the file.
+     * @param receiverIds Nodes to share the file with.
+     * @return The block hash, or null if the share failed.
+     */
+    public String shareFile(int blockIndex, List<String> receiverIds) {
+        NodeInfo senderNode = new NodeInfo(nodeId, nodePort, efficiencyScore, reputationScore);
+        FTCBlock ftcBlock = ftcBlockchain.getBlock(blockIndex);
+        String fileName = ftcBlock.getFileInfo().getFileName();
+        String fileHash = ftcBlock.getFileInfo().getFileHash();
+        String keyWrap = ftcBlock.getTransactions() == null ? null : ftcBlock.getTransactions().getKeyWrap();
+        KeyWrap wrap = KeyWraps.get(keyWrap);
+
+        List<NodeInfo> receiverNodes = new ArrayList<>();
+        for (String receiverId : new LinkedHashSet<>(receiverIds)) {
+            NodeInfo receiverNode = nodeInfos.stream()
+                    .filter(node -> node.getNodeId().equals(receiverId))
+                    .findFirst()
+                    .orElse(null);
+            if (receiverNode == null || receiverId.equals(nodeId)) {
+                Log.warn("SHARE", "Receiver skipped, not a known peer", "node", nodeId, "receiver", receiverId);
+                continue;
+            }
+            if (!hasPublicKey(wrap, receiverId)) {
+                Log.warn("SHARE", "Receiver skipped, no public key", "node", nodeId, "receiver", receiverId, "keyWrap", wrap.scheme());
+                continue;
+            }
+            receiverNodes.add(receiverNode);
+        }
+        if (receiverNodes.isEmpty()) {
+            System.err.println("No known receivers. Cannot create FTC block.");
+            return null;
+        }
+
+        String eFileKey;
+        Download.GroupShare groupShare;
+        try {
+            eFileKey = ownFileKey(ftcBlock, keyWrap);
+            groupShare = Download.shareWithGroup(fileName, fileHash, eFileKey, keyWrap, senderNode, receiverNodes);
+        } catch (Exception e) {
+            System.err.println("Error creating group share transaction: " + e.getMessage());
+            return null;
+        }
+
+        Transaction shareTransaction = groupShare.transaction();
+        List<UserInfo> userInfos = new ArrayList<>();
+        userInfos.add(new UserInfo(shareTransaction.getSenderPublicKey(), eFileKey));
+        userInfos.addAll(groupShare.recipients());
+        String hash = createFTCBlock(shareTransaction, userInfos);
+        if (hash == null) {
+            return null;
+        }
+
+        broadcastMessage("SHARE-" + shareTransaction, receiverNodes);
+        return hash;
+    }
+
+    /**
+     * Downloads and decrypts the file of an FTC block, then proposes an FTC block for the download.
+     *
+     * @param blockIndex Index of the FTC block of the file.
+     * @return The block hash, or null if the download failed.
+     */
+    public String downloadFile(int blockIndex) {
+        String type = "download";
+
+        NodeInfo senderNode = new NodeInfo(nodeId, nodePort, efficiencyScore, reputationScore);
+
+        // Find the block with the given index
+        FTCBlock ftcBlock = ftcBlockchain.getBlock(blockIndex);
+        String fileName = ftcBlock.getFileInfo().getFileName();
+        String fileHash = ftcBlock.getFileInfo().getFileHash();
+        String keyWrap = ftcBlock.getTransactions() == null ? null : ftcBlock.getTransactions().getKeyWrap();
+
+        Transaction downTransaction;
+        try {
+            String eFileKey = ownFileKey(ftcBlock, keyWrap);
+            downTransaction = Download.download(fileName, fileHash, eFileKey, keyWrap, senderNode, null, type);
+        } catch (Exception e) {
+            System.err.println("Error creating download downTransaction: " + e.getMessage());
+            return null;
+        }
+
+        // Create a new FTC block with the uploadTransaction
+        if (downTransaction == null) {
+            System.err.println("Transaction is null. Cannot create FTC block.");
+            return null;
+        }
+
+        return createFTCBlock(downTransaction);
+    }
+
+    /**
+     * The file key of an FTC block wrapped for this node: the one of the UserInfo with this node's public key,
+     * so a receiver of a group share gets its own entry, or the FileInfo's if no UserInfo is for this node.
+     * UserInfos refer to the key by its id, older blocks hold the whole public key line.
+     */
+    private String ownFileKey(FTCBlock block, String keyWrap) {
+        String publicKey = KeyWraps.get(keyWrap).publicKey(KeyStore.get().require(nodeId));
+        String keyId = NodeKeys.fingerprint(publicKey);
+        if (block.getUserInfos() != null) {
+            for (UserInfo userInfo : block.getUserInfos()) {
+                if (keyId.equals(userInfo.getPublicKey()) || publicKey.equals(userInfo.getPublicKey())) {
+                    return userInfo.getEncryptedFileKey();
+                }
             }
         }
+        return block.getFileInfo().getEncryptedFileKey();
+    }
+
+    // Whether the node has a public key of the scheme in the keystore
+    private static boolean hasPublicKey(KeyWrap wrap, String nodeId) {
+        try {
+            return KeyStore.get().find(nodeId).map(wrap::publicKey).isPresent();
+        } catch (IllegalStateException e) {
+            return false;
+        }
     }
 
     // handle user input
@@ -705,94 +1253,30 @@ public class Node {
                     System.out.println("1. help - Show available commands");
                     System.out.println("2. exit - Exit the program");
                     System.out.println("3. upload <filePath> - Upload a file");
-                    System.out.println("4. share <blockIndex> <receiverId> [fileName] [fileHash] - Share a file with another node");
+                    System.out.println("4. share <blockIndex> <receiverId>[,<receiverId>...] [fileName] [fileHash] - Share a file with other nodes, several receivers share in one block");
+                    System.out.println("5. stats - Show inbound queue depth and shed messages per lane, and outbound queues per peer");
+                    break;
+                case "stats":
+                    System.out.print(ingress.stats());
+                    System.out.print(egress.stats());
                     break;
                 case "exit":
                     System.out.println("Exiting...");
                     System.exit(0);
                     break;
                 case "upload":
-                    String filePath = parts[1];
-                    Transaction uploadTransaction = null;
-                    // Upload the file and get the uploadTransaction pass the current node
-                    NodeInfo currentNode = new NodeInfo(nodeId, nodePort, efficiencyScore, reputationScore);
-                    try {
-                        uploadTransaction = Upload.upload(filePath, currentNode);
-                    } catch (Exception e) {
-                        System.err.println("Error uploading file: " + e.getMessage());
-                    }
-
-                    // Create a new FTC block with the uploadTransaction
-                    if (uploadTransaction == null) {
-                        System.err.println("Transaction is null. Cannot create FTC block.");
-                        return;
-                    }
-                    createFTCBlock(uploadTransaction);
+                    uploadFile(parts[1]);
                     break;
                 case "share":
-                    String type = "share";
-                    int blockIndex = Integer.parseInt(parts[1]);
-                    String receiverId = parts[2];
-
-                    NodeInfo senderNode = new NodeInfo(nodeId, nodePort, efficiencyScore, reputationScore);
-                    // Find the receiver node from NodeInfo list
-                    NodeInfo receiverNode = nodeInfos.stream()
-                            .filter(node -> node.getNodeId().equals(receiverId))
-                            .findFirst()
-                            .orElse(null);
-
-                    // Find the block with the given index
-                    FTCBlock ftcBlock = ftcBlockchain.getBlock(blockIndex);
-                    String eFileKey = ftcBlock.getFileInfo().getEncryptedFileKey();
-                    String fileName = ftcBlock.getFileInfo().getFileName();
-                    String fileHash = ftcBlock.getFileInfo().getFileHash();
-
-                    Transaction shareTransaction = null;
-                    try {
-                        shareTransaction = Download.download(fileName, fileHash, eFileKey, senderNode, receiverNode, type);
-                    } catch (Exception e) {
-                        System.err.println("Error creating share downTransaction: " + e.getMessage());
+                    List<String> receiverIds = Arrays.asList(parts[2].split(","));
+                    if (receiverIds.size() == 1) {
+                        shareFile(Integer.parseInt(parts[1]), receiverIds.get(0));
+                    } else {
+                        shareFile(Integer.parseInt(parts[1]), receiverIds);
                     }
-
-                    // Create a new FTC block with the uploadTransaction
-                    if (shareTransaction == null) {
-                        System.err.println("Transaction is null. Cannot create FTC block.");
-                        return;
-                    }
-                    createFTCBlock(shareTransaction);
-
-                    // Send receiver node the share downTransaction message
-                    List<NodeInfo> reciverNodes = new ArrayList<>();
-                    reciverNodes.add(receiverNode);
-                    broadcastMessage("SHARE-" + shareTransaction, reciverNodes);
                     break;
                 case "download":
-                    String type2 = "download";
-                    int blockIndex2 = Integer.parseInt(parts[1]);
-
-                    NodeInfo senderNode2 = new NodeInfo(nodeId, nodePort, efficiencyScore, reputationScore);
-
-                    // Find the block with the given index
-                    FTCBlock ftcBlock2 = ftcBlockchain.getBlock(blockIndex2);
-                    String eFileKey2 = ftcBlock2.getFileInfo().getEncryptedFileKey();
-                    String fileName2 = ftcBlock2.getFileInfo().getFileName();
-                    String fileHash2 = ftcBlock2.getFileInfo().getFileHash();
-
-                    Transaction downTransaction;
-                    try {
-                        downTransaction = Download.download(fileName2, fileHash2, eFileKey2, senderNode2, null, type2);
-                    } catch (Exception e) {
-                        System.err.println("Error creating download downTransaction: " + e.getMessage());
-                        return;
-                    }
-
-                    // Create a new FTC block with the uploadTransaction
-                    if (downTransaction == null) {
-                        System.err.println("Transaction is null. Cannot create FTC block.");
-                        return;
-                    }
-
-                    createFTCBlock(downTransaction);
+                    downloadFile(Integer.parseInt(parts[1]));
                     break;
                 default:
                     System.out.println("Unknown command: " + command);
@@ -832,14 +1316,16 @@ public class Node {
             reputationScore = 0.99;
         }
 
+        // The keystore and the public-key directory are mapped at startup, not on the first upload
+        KeyStore.get();
+
         Node node = new Node(nodeId, nodePort, efficiencyScore, reputationScore);
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down node: " + nodeId);
             try {
-                if (node.serverSocket != null && !node.serverSocket.isClosed()) {
-                    node.serverSocket.close();
-                }
+                node.stop();
+                Log.flush(1000);
 
                 // print the blockchain at the end if nodeId is user1 or user2
 //                if (nodeId.equals("user1") || nodeId.equals("user2")) {
@@ -852,7 +1338,7 @@ public class Node {
             }
         }));
 
-        node.startNode();
+        node.start(true);
     }
 }
 
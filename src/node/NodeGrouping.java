@@ -0,0 +1,175 @@
+package node;
+
+import models.NodeInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Groups of nodes for one epoch, one group per leader.
+ * <p>
+ * Member counts are balanced first: every group gets the same number of members give or take one, so
+ * the commit quorum, which follows the group size, is the same for every leader within one vote. Within
+ * those counts groups are balanced by node capacity (efficiency score discounted by measured latency)
+ * instead of list order. The leader→group maps and group sizes are computed once when the grouping is
+ * built, so message handlers only do lookups.
+ * <p>
+ * Inside a group the members form an implicit tree of the given fanout: the member at position p
+ * forwards to the members at positions p * fanout + 1 ... p * fanout + fanout, with the leader at
+ * position 0. The best members sit closest to the leader. Followers can rebuild the same tree from
+ * the groups stored in the last FIC block, so no extra messages are needed. Only the prepare fan-out
+ * uses the tree: every member still sends its signed commit straight to the leader, which needs the
+ * individual signatures for the commit certificate.
+ */
+public class NodeGrouping {
+    public static final int DEFAULT_FANOUT = 8;
+    private static final double LATENCY_REFERENCE_MILLIS = 50.0; // Latency that halves a node's capacity
+
+    private final List<List<NodeInfo>> groups;
+    private final int fanout;
+    private final Map<String, List<NodeInfo>> groupByLeader = new HashMap<>();
+    private final Map<String, List<NodeInfo>> groupByMember = new HashMap<>();
+    private final Map<String, Integer> positionByMember = new HashMap<>();
+
+    private NodeGrouping(List<List<NodeInfo>> groups, int fanout) {
+        this.groups = groups;
+        this.fanout = Math.max(1, fanout);
+
+        for (List<NodeInfo> group : groups) {
+            if (group.isEmpty()) {
+                continue;
+            }
+            groupByLeader.put(group.get(0).getNodeId(), group);
+            for (int i = 0; i < group.size(); i++) {
+                groupByMember.put(group.get(i).getNodeId(), group);
+                positionByMember.put(group.get(i).getNodeId(), i);
+            }
+        }
+    }
+
+    /**
+     * Builds balanced groups, one per leader.
+     *
+     * @param leaders The elected leaders, each one heads a group.
+     * @param nodeInfos All nodes in the network, leaders included.
+     * @param latencies Measured round trip time in milliseconds by nodeId, missing nodes count as 0.
+     * @param fanout Number of members each member forwards to.
+     * @return The grouping for this epoch.
+     */
+    public static NodeGrouping build(List<NodeInfo> leaders, List<NodeInfo> nodeInfos, Map<String, Long> latencies, int fanout) {
+        if (leaders.isEmpty()) {
+            return new NodeGrouping(new ArrayList<>(), fanout);
+        }
+
+        Set<String> leaderIds = new HashSet<>();
+        for (NodeInfo leader : leaders) {
+            leaderIds.add(leader.getNodeId());
+        }
+
+        List<NodeInfo> nonLeaderNodes = new ArrayList<>();
+        for (NodeInfo nodeInfo : nodeInfos) {
+            if (!leaderIds.contains(nodeInfo.getNodeId())) {
+                nonLeaderNodes.add(nodeInfo);
+            }
+        }
+
+        Map<String, Double> capacities = new HashMap<>();
+        for (NodeInfo nodeInfo : nodeInfos) {
+            capacities.put(nodeInfo.getNodeId(), capacity(nodeInfo, latencies));
+        }
+        Comparator<NodeInfo> byCapacity = Comparator.comparingDouble((NodeInfo nodeInfo) -> capacities.get(nodeInfo.getNodeId())).reversed();
+
+        // Fix the member count of every group first, the first groups take one extra member each
+        nonLeaderNodes.sort(byCapacity);
+        int noOfGroups = leaders.size();
+        int[] groupSizes = new int[noOfGroups];
+        for (int i = 0; i < noOfGroups; i++) {
+            groupSizes[i] = nonLeaderNodes.size() / noOfGroups + (i < nonLeaderNodes.size() % noOfGroups ? 1 : 0);
+        }
+        double[] groupLoad = new double[noOfGroups];
+
+        List<List<NodeInfo>> members = new ArrayList<>();
+        for (int i = 0; i < noOfGroups; i++) {
+            members.add(new ArrayList<>());
+        }
+
+        PriorityQueue<Integer> openGroups = new PriorityQueue<>((g1, g2) -> {
+            int loadComparison = Double.compare(groupLoad[g1], groupLoad[g2]);
+            if (loadComparison != 0) {
+                return loadComparison;
+            }
+            int sizeComparison = Integer.compare(members.get(g1).size(), members.get(g2).size());
+            return sizeComparison != 0 ? sizeComparison : Integer.compare(g1, g2);
+        });
+        for (int i = 0; i < noOfGroups; i++) {
+            if (groupSizes[i] > 0) {
+                openGroups.add(i);
+            }
+        }
+
+        // Place the strongest nodes first, each into the group with the least capacity so far that is not full yet
+        for (NodeInfo nodeInfo : nonLeaderNodes) {
+            int group = openGroups.poll();
+            members.get(group).add(nodeInfo);
+            groupLoad[group] += capacities.get(nodeInfo.getNodeId());
+            if (members.get(group).size() < groupSizes[group]) {
+                openGroups.add(group);
+            }
+        }
+
+        List<List<NodeInfo>> groups = new ArrayList<>();
+        for (int i = 0; i < noOfGroups; i++) {
+            List<NodeInfo> group = new ArrayList<>();
+            group.add(leaders.get(i)); // Add the leader to the group
+            group.addAll(members.get(i)); // Already sorted by capacity, best members end up near the leader
+            groups.add(group);
+        }
+
+        return new NodeGrouping(groups, fanout);
+    }
+
+    // Rebuilds the grouping from groups that were already decided, e.g. the ones in the last FIC block
+    public static NodeGrouping fromGroups(List<List<NodeInfo>> groups, int fanout) {
+        return new NodeGrouping(groups == null ? new ArrayList<>() : groups, fanout);
+    }
+
+    // Efficiency score, discounted for nodes that are slow to answer
+    private static double capacity(NodeInfo nodeInfo, Map<String, Long> latencies) {
+        long latency = latencies.getOrDefault(nodeInfo.getNodeId(), 0L);
+        return nodeInfo.getEfficiencyScore() / (1.0 + latency / LATENCY_REFERENCE_MILLIS);
+    }
+
+    public List<List<NodeInfo>> getGroups() {
+        return groups;
+    }
+
+    // Group led by the given leader, empty if there is none
+    public List<NodeInfo> getGroup(String leaderId) {
+        return groupByLeader.getOrDefault(leaderId, Collections.emptyList());
+    }
+
+    public int getGroupSize(String leaderId) {
+        return getGroup(leaderId).size();
+    }
+
+    // Members the given node forwards group messages to
+    public List<NodeInfo> getChildren(String nodeId) {
+        List<NodeInfo> group = groupByMember.get(nodeId);
+        if (group == null) {
+            return Collections.emptyList();
+        }
+
+        int first = positionByMember.get(nodeId) * fanout + 1;
+        if (first >= group.size()) {
+            return Collections.emptyList();
+        }
+        return group.subList(first, Math.min(first + fanout, group.size()));
+    }
+}
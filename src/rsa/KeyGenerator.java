@@ -1,14 +1,20 @@
 package rsa;
 
-import utils.WriteKeysUtil;
+import keystore.KeyStore;
+import keystore.NodeKeys;
+import utils.CryptoUtil;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.Map;
+import java.security.SecureRandom;
+import java.util.List;
 import java.util.Objects;
-import java.util.Random;
+import java.util.stream.IntStream;
 
 public class KeyGenerator {
-    private static final Random rnd = new  Random();
+    private static final SecureRandom rnd = CryptoUtil.secureRandom(); // Thread-safe, shared by parallel provisioning
     private static final BigInteger DEFAULT_E = BigInteger.valueOf(65537);
 
     public static KeyPair getRSAKeys() {
@@ -59,29 +65,52 @@ public class KeyGenerator {
     public record KeyPair(PublicKey publicKey, PrivateKey privateKey) implements Serializable {
     }
 
-    public static void main(String[] args) {
-        if (args.length != 1 || args[0].startsWith("-help")) {
-            System.out.println("Usage:  java rsa.KeyGenerator genRSAKeys");
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args[0].startsWith("-help")) {
+            System.out.println("Usage:  java rsa.KeyGenerator genRSAKeys | provision <count> [prefix=user]");
             return;
         }
 
-        if (Objects.equals(args[0], "genRSAKeys")) {
-            KeyGenerator.KeyPair user1KeyPair = KeyGenerator.getRSAKeys();
-            KeyGenerator.KeyPair user2KeyPair = KeyGenerator.getRSAKeys();
-
-            String user1Keys = "publicKey=" + user1KeyPair.publicKey.e() + "," + user1KeyPair.publicKey.n()
-                    + "|privateKey=" + user1KeyPair.privateKey.d() + "," + user1KeyPair.privateKey.n();
-            String user2Keys = "publicKey=" + user2KeyPair.publicKey.e() + "," + user2KeyPair.publicKey.n()
-                    + "|privateKey=" + user2KeyPair.privateKey.d() + "," + user2KeyPair.privateKey.n();
-
-            WriteKeysUtil.writeKeysToFile("RSA", "keys/user1.txt", user1Keys);
-            WriteKeysUtil.writeKeysToFile("RSA", "keys/user2.txt", user2Keys);
+        if (Objects.equals(args[0], "provision") && args.length >= 2) {
+            provision(Integer.parseInt(args[1]), args.length > 2 ? args[2] : "user");
+            return;
+        }
 
-            System.out.println("User1 keys: " + user1Keys);
-            System.out.println("User2 keys: " + user2Keys);
-            System.out.println("Keys generated and saved to files.");
+        if (Objects.equals(args[0], "genRSAKeys")) {
+            // The RSA keys replace the old ones of user1 and user2, their other keys are kept
+            provision(2, "user");
         } else {
-            System.out.println("Use command 'genRSAKeys' to generate keys.");
+            System.out.println("Use command 'genRSAKeys' or 'provision' to generate keys.");
         }
     }
+
+    /**
+     * Generates RSA keys for the nodes prefix1 to prefixN on all cores, then writes them to the keystore
+     * and their public keys to the public-key directory, each in one write. Nodes keep their other keys.
+     *
+     * @param count Number of nodes.
+     * @param prefix Node id prefix, e.g. "user".
+     * @throws IOException If the keystore or the directory could not be written.
+     */
+    public static void provision(int count, String prefix) throws IOException {
+        KeyStore keyStore = KeyStore.get();
+        long start = System.nanoTime();
+        List<NodeKeys> provisioned = IntStream.rangeClosed(1, count)
+                .parallel()
+                .mapToObj(i -> {
+                    String nodeId = prefix + i;
+                    KeyGenerator.KeyPair keyPair = KeyGenerator.getRSAKeys();
+                    return keyStore.find(nodeId).orElseGet(() -> new NodeKeys(nodeId, Map.of()))
+                            .with("publicKey", keyPair.publicKey.e() + "," + keyPair.publicKey.n())
+                            .with("privateKey", keyPair.privateKey.d() + "," + keyPair.privateKey.n());
+                })
+                .toList();
+        long generated = System.nanoTime();
+
+        keyStore.putAll(provisioned);
+        keyStore.publish(provisioned);
+        System.out.printf("Provisioned %d nodes: keys generated in %d ms on %d cores, written in %d ms.%n",
+                count, (generated - start) / 1_000_000, Runtime.getRuntime().availableProcessors(),
+                (System.nanoTime() - generated) / 1_000_000);
+    }
 }
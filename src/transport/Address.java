@@ -0,0 +1,22 @@
+package transport;
+
+/**
+ * Host and port of a node.
+ */
+public record Address(String host, int port) {
+
+    // Parses "host:port", or just a port on localhost
+    public static Address parse(String address) {
+        String trimmed = address.trim();
+        int colon = trimmed.lastIndexOf(':');
+        if (colon < 0) {
+            return new Address("localhost", Integer.parseInt(trimmed));
+        }
+        return new Address(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,75 @@
+package transport;
+
+import java.net.BindException;
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Network of {@link InMemoryTransport}s in one JVM, for tests and simulations with thousands of nodes
+ * and no sockets.
+ * <p>
+ * One dispatcher thread delivers every message in the order it was sent, so a run does not depend on
+ * connection timing. Handlers are called on the dispatcher thread and should hand the work off quickly,
+ * as a node does with its ingress queue; a blocked handler holds up the whole network.
+ */
+public class InMemoryNetwork {
+    private final Map<Address, Transport.RequestHandler> handlers = new ConcurrentHashMap<>();
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "in-memory-network");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public Transport newTransport() {
+        return new InMemoryTransport(this);
+    }
+
+    void register(Address address, Transport.RequestHandler handler) throws BindException {
+        if (handlers.putIfAbsent(address, handler) != null) {
+            throw new BindException("Address already in use: " + address);
+        }
+    }
+
+    void unregister(Address address) {
+        handlers.remove(address);
+    }
+
+    // Completes once the handler of the address got the message, fails if nothing is bound to it
+    CompletableFuture<Void> deliver(Address to, String message, Transport.Exchange exchange) {
+        CompletableFuture<Void> delivered = new CompletableFuture<>();
+        try {
+            dispatcher.execute(() -> deliverNow(to, message, exchange, delivered));
+        } catch (RejectedExecutionException e) {
+            delivered.completeExceptionally(new ConnectException("Network is shut down"));
+        }
+        return delivered;
+    }
+
+    private void deliverNow(Address to, String message, Transport.Exchange exchange, CompletableFuture<Void> delivered) {
+        Transport.RequestHandler handler = handlers.get(to);
+        if (handler == null) {
+            delivered.completeExceptionally(new ConnectException("Connection refused: " + to));
+            return;
+        }
+        try {
+            handler.onRequest(message, exchange);
+            delivered.complete(null);
+        } catch (RuntimeException e) {
+            exchange.close();
+            delivered.completeExceptionally(e);
+        }
+    }
+
+    // Stops delivering messages, e.g. at the end of a simulation; messages not delivered yet fail
+    public void shutdown() {
+        handlers.clear();
+        for (Runnable undelivered : dispatcher.shutdownNow()) {
+            undelivered.run();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package transport;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport of one node on an {@link InMemoryNetwork}. Messages are handed to the receiver's handler
+ * directly; an answer completes the request future of the sender.
+ */
+public class InMemoryTransport implements Transport {
+    private final InMemoryNetwork network;
+    private volatile Address local;
+
+    public InMemoryTransport(InMemoryNetwork network) {
+        this.network = network;
+    }
+
+    @Override
+    public void bind(Address local, RequestHandler handler) throws IOException {
+        network.register(local, handler);
+        this.local = local;
+    }
+
+    @Override
+    public CompletableFuture<Void> send(Address to, String message) {
+        return network.deliver(to, message, new Exchange() {
+            @Override
+            public void reply(String line) {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> request(Address to, String message, long timeoutMillis) {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        network.deliver(to, message, new Exchange() {
+            @Override
+            public void reply(String line) {
+                response.complete(line);
+            }
+
+            @Override
+            public void close() {
+                response.complete(null); // No answer, like a peer closing the connection without writing
+            }
+        }).whenComplete((delivered, error) -> {
+            if (error != null) {
+                response.completeExceptionally(error);
+            }
+        });
+        return response.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        Address address = local;
+        if (address != null) {
+            network.unregister(address);
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package transport;
+
+import logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * TCP transport on non-blocking channels, one connection per message like the node protocol has always
+ * used, so it talks to nodes that still use plain sockets.
+ * <p>
+ * A single selector thread accepts connections, connects, reads and writes for all messages of the node;
+ * no thread ever waits on a peer. Sends and replies from other threads are handed to the selector thread
+ * through a task queue. Received request lines are passed to the handler on the selector thread, so it
+ * must hand them off without blocking. Tasks queued while or after the transport closes still run and
+ * fail their futures.
+ */
+public class NioTransport implements Transport {
+    private static final long TICK_MILLIS = 100; // Longest select, timeouts are checked this often
+    private static final long SEND_TIMEOUT_MILLIS = 5000; // Time to connect and write a one-way message
+    private static final int READ_BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_LINE_BYTES = 64 * 1024 * 1024; // GET_BLOCKS answers hold whole chains
+    private static final int ACCEPT_BACKLOG = 1024; // Broadcasts make many peers connect at once
+
+    private final String name;
+    private final long requestReadTimeoutMillis;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // Run on the selector thread
+    private final Thread loop;
+    private volatile boolean closed = false;
+    private volatile ServerSocketChannel server;
+    private volatile RequestHandler handler;
+    private long nextExpiry = 0; // System.nanoTime() of the next timeout check, selector thread only
+
+    // One connection, inbound if both futures are null. Only used on the selector thread.
+    private static final class Connection {
+        final SocketChannel channel;
+        final CompletableFuture<Void> sent; // Outbound message without an answer
+        final CompletableFuture<String> response; // Outbound request waiting for its answer
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        final Deque<ByteBuffer> writes = new ArrayDeque<>();
+        long deadline; // System.nanoTime() after which the connection is dropped
+        boolean closeWhenWritten = false;
+        SelectionKey key;
+
+        Connection(SocketChannel channel, CompletableFuture<Void> sent, CompletableFuture<String> response, long deadline) {
+            this.channel = channel;
+            this.sent = sent;
+            this.response = response;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * @param name Name of the selector thread.
+     * @param requestReadTimeoutMillis Time a connecting peer gets to send its request line.
+     */
+    public NioTransport(String name, long requestReadTimeoutMillis) {
+        this.name = name;
+        this.requestReadTimeoutMillis = requestReadTimeoutMillis;
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open selector", e);
+        }
+        this.loop = new Thread(this::run, name + "-nio");
+        this.loop.setDaemon(true);
+        this.loop.start();
+    }
+
+    // Listens on all interfaces at the port of the address, like a plain ServerSocket
+    @Override
+    public void bind(Address local, RequestHandler handler) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(local.port()), ACCEPT_BACKLOG);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.handler = handler;
+        this.server = channel;
+        execute(() -> {
+            try {
+                channel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (ClosedChannelException e) {
+                Log.warn("TRANSPORT", "Server channel closed before it was registered", "transport", name);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> send(Address to, String message) {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        connect(to, message, sent, null, SEND_TIMEOUT_MILLIS);
+        return sent;
+    }
+
+    @Override
+    public CompletableFuture<String> request(Address to, String message, long timeoutMillis) {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        connect(to, message, null, response, timeoutMillis);
+        return response;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        ServerSocketChannel channel = server;
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+        selector.wakeup();
+    }
+
+    private void connect(Address to, String message, CompletableFuture<Void> sent, CompletableFuture<String> response, long timeoutMillis) {
+        if (closed) {
+            failFutures(sent, response, new ClosedChannelException());
+            return;
+        }
+        InetSocketAddress remote = new InetSocketAddress(to.host(), to.port()); // Resolved here, not on the selector thread
+        ByteBuffer bytes = encode(message);
+        long deadline = deadline(timeoutMillis);
+
+        execute(() -> {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                Connection connection = new Connection(channel, sent, response, deadline);
+                connection.writes.add(bytes);
+                boolean connected = channel.connect(remote);
+                connection.key = channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, connection);
+            } catch (IOException | RuntimeException e) {
+                if (channel != null) {
+                    closeQuietly(channel);
+                }
+                failFutures(sent, response, e);
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        if (selector.isOpen()) {
+            selector.wakeup();
+        } else {
+            runTasks(); // The loop has stopped, the task fails on the closed selector right here
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.warn("TRANSPORT", "Task failed", "transport", name, "error", e.toString());
+            }
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                selector.select(TICK_MILLIS);
+            } catch (IOException e) {
+                Log.error("TRANSPORT", "Selector failed", "transport", name, e);
+                break;
+            }
+
+            runTasks();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                handleKey(key);
+            }
+
+            expire();
+        }
+        shutdown();
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isConnectable() && connection.channel.finishConnect()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(connection);
+            }
+            if (key.isValid() && key.isReadable()) {
+                read(connection);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(connection, e);
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel, null, null, deadline(requestReadTimeoutMillis));
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        } catch (IOException e) {
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+            Log.every(100, Log.Level.WARN, "TRANSPORT", "Error accepting connection", "transport", name, "error", e.getMessage());
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        while (!connection.writes.isEmpty()) {
+            ByteBuffer bytes = connection.writes.peek();
+            connection.channel.write(bytes);
+            if (bytes.hasRemaining()) {
+                return; // Socket buffer is full, continue when it is writable again
+            }
+            connection.writes.poll();
+        }
+
+        if (connection.sent != null) {
+            connection.sent.complete(null);
+            close(connection);
+        } else if (connection.response != null) {
+            connection.key.interestOps(SelectionKey.OP_READ);
+        } else if (connection.closeWhenWritten) {
+            close(connection);
+        } else {
+            connection.key.interestOps(0);
+        }
+    }
+
+    // Reads up to the first line end; one line per connection, anything after it is ignored
+    private void read(Connection connection) throws IOException {
+        int read = connection.channel.read(connection.readBuffer);
+        if (read < 0) {
+            onLine(connection, connection.line.size() > 0 ? takeLine(connection) : null);
+            return;
+        }
+
+        byte[] bytes = connection.readBuffer.array();
+        int end = connection.readBuffer.position();
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] == '\n') {
+                connection.line.write(bytes, 0, i);
+                onLine(connection, takeLine(connection));
+                return;
+            }
+        }
+        connection.line.write(bytes, 0, end);
+        connection.readBuffer.clear();
+        if (connection.line.size() > MAX_LINE_BYTES) {
+            throw new IOException("Line longer than " + MAX_LINE_BYTES + " bytes");
+        }
+    }
+
+    // A request line for our handler, or the answer to one of our requests; null if the peer closed first
+    private void onLine(Connection connection, String line) {
+        if (connection.response != null) {
+            connection.response.complete(line);
+            close(connection);
+            return;
+        }
+        if (line == null || handler == null) {
+            close(connection);
+            return;
+        }
+
+        connection.deadline = Long.MAX_VALUE; // The handler closes the exchange when it is done
+        connection.key.interestOps(0);
+        try {
+            handler.onRequest(line, new ChannelExchange(connection));
+        } catch (RuntimeException e) {
+            Log.error("TRANSPORT", "Error in request handler", "transport", name, e);
+            close(connection);
+        }
+    }
+
+    private static String takeLine(Connection connection) {
+        String line = connection.line.toString(StandardCharsets.UTF_8);
+        connection.line.reset();
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    // Answers to a received message, queued for the selector thread
+    private final class ChannelExchange implements Exchange {
+        private final Connection connection;
+
+        ChannelExchange(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void reply(String line) {
+            ByteBuffer bytes = encode(line);
+            execute(() -> {
+                if (connection.key.isValid()) {
+                    connection.writes.add(bytes);
+                    connection.key.interestOps(SelectionKey.OP_WRITE);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            execute(() -> {
+                connection.closeWhenWritten = true;
+                if (connection.writes.isEmpty()) {
+                    NioTransport.this.close(connection);
+                }
+            });
+        }
+    }
+
+    // Drops the connections that ran out of time, checked once per tick
+    private void expire() {
+        long now = System.nanoTime();
+        if (now < nextExpiry) {
+            return;
+        }
+        nextExpiry = now + TICK_MILLIS * 1_000_000;
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection connection && now > connection.deadline) {
+                fail(connection, new SocketTimeoutException("Timed out"));
+            }
+        }
+    }
+
+    private void shutdown() {
+        runTasks(); // Connects queued before closing register their connections, which fail below
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection connection) {
+                fail(connection, new ClosedChannelException());
+            } else {
+                closeQuietly(key.channel());
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Log.warn("TRANSPORT", "Error closing selector", "transport", name, "error", e.getMessage());
+        }
+        runTasks(); // Tasks queued in the meantime fail on the closed selector, later ones run in execute()
+    }
+
+    private void fail(Connection connection, Throwable error) {
+        close(connection);
+        failFutures(connection.sent, connection.response, error);
+    }
+
+    private static void failFutures(CompletableFuture<Void> sent, CompletableFuture<String> response, Throwable error) {
+        if (sent != null) {
+            sent.completeExceptionally(error);
+        }
+        if (response != null) {
+            response.completeExceptionally(error);
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection.key != null) {
+            connection.key.cancel();
+        }
+        closeQuietly(connection.channel);
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static ByteBuffer encode(String line) {
+        return ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long deadline(long timeoutMillis) {
+        return System.nanoTime() + timeoutMillis * 1_000_000;
+    }
+}
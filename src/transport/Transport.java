@@ -0,0 +1,43 @@
+package transport;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Moves the line-based messages of the node protocol between nodes.
+ * <p>
+ * A message is one line. {@link #send} delivers a line and does not wait for an answer,
+ * {@link #request} delivers a line and completes with the one line the receiver answers (null if it
+ * answers nothing). Both return straight away; the futures complete when the message was delivered or
+ * answered and fail if the peer cannot be reached or does not answer in time.
+ */
+public interface Transport {
+
+    // Handles a message received by this node, called on a transport thread so it must not block for long
+    interface RequestHandler {
+        void onRequest(String request, Exchange exchange);
+    }
+
+    // The sender's side of one received message; may be answered and closed from any thread
+    interface Exchange extends AutoCloseable {
+        void reply(String line);
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Starts receiving messages sent to this node.
+     *
+     * @param local The address other nodes send to.
+     * @param handler Called for every message received.
+     */
+    void bind(Address local, RequestHandler handler) throws IOException;
+
+    CompletableFuture<Void> send(Address to, String message);
+
+    CompletableFuture<String> request(Address to, String message, long timeoutMillis);
+
+    // Stops receiving messages and fails what is still in flight
+    void close();
+}
@@ -1,17 +1,21 @@
 package upload;
 
+import fernet.CipherSuite;
 import fernet.FernetKeyPair;
 import fernet.KeyGenerator;
+import keystore.KeyStore;
+import keystore.NodeKeys;
+import keywrap.KeyWrap;
+import keywrap.KeyWraps;
+import metrics.Metrics;
 import models.NodeInfo;
 import models.Transaction;
 import rsa.EncryptDecrypt;
+import utils.FileStorage;
 import utils.IPFSUtil;
-import utils.WriteKeysUtil;
 
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 
 import static fernet.EncryptDecrypt.*;
 
@@ -40,56 +44,50 @@ public class Upload {
 
         // STEP 1: GENERATE FERN KEY
         String fernKey = null;
-        String fernFilePath = "keys/fileKey.txt";
+        long stepStart = System.nanoTime();
 
         try {
             KeyGenerator fernKeyGen = new KeyGenerator();
+            // The file key stays in memory, it is only stored wrapped in the transaction
             fernKey = fernKeyGen.getFernKey();
-            fernFilePath = "keys/fileKey.txt";
-            WriteKeysUtil.writeKeysToFile("Fernet", fernFilePath, fernKey);
 
+            Metrics.recordSince("upload.step1", stepStart);
             System.out.println("STEP 1: SUCCESS");
         } catch (Exception e) {
-            throw new RuntimeException("Failed to generate/write Fernet key: " + e.getMessage(), e);
+            throw new RuntimeException("Failed to generate Fernet key: " + e.getMessage(), e);
         }
 
         // STEP 2: ENCRYPT FILE WITH FERNET KEY
         String fileOutPath;
+        stepStart = System.nanoTime();
         try {
-            FernetKeyPair keyPair = getKeysFromFile(fernFilePath);
+            FernetKeyPair keyPair = getKeys(fernKey);
             String[] filenameParts = fileName.split("\\.");
             fileOutPath = basePath + filenameParts[0] + "_encrypted." + filenameParts[1];
-            encryptFile(basePath + fileName, fileOutPath, keyPair.aesKey, keyPair.hmacKey);
+            encryptFile(basePath + fileName, fileOutPath, keyPair.aesKey, keyPair.hmacKey, CipherSuite.configured());
 
+            Metrics.recordSince("upload.step2", stepStart);
             System.out.println("STEP 2: SUCCESS");
         } catch (Exception e) {
             throw new RuntimeException("Failed to encrypt the file: " + e.getMessage(), e);
         }
 
         // STEP 3: ENCRYPT FERNET KEY (FILE KEY) WITH USER'S PUBLIC KEY
-        BigInteger eFileKey;
-        String fileContent = Files.readString(Paths.get("keys/" + node.getNodeId() + ".txt"));
-
-        String pubKey = fileContent.lines()
-                .filter(line -> line.startsWith("publicKey="))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("publicKey not found"));
-
-        String[] pubParts = pubKey.split("=")[1].split(",");
-        BigInteger e = new BigInteger(pubParts[0]);
-        BigInteger n = new BigInteger(pubParts[1]);
-
-        String privKey = fileContent.lines()
-                .filter(line -> line.startsWith("privateKey="))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("privateKey not found"));
-        String[] privParts = privKey.split("=")[1].split(",");
+        String eFileKey;
+        stepStart = System.nanoTime();
+        NodeKeys keys = KeyStore.get().require(node.getNodeId());
+        KeyWrap keyWrap = KeyWraps.configured();
+        String pubKey = keyWrap.publicKey(keys);
+
+        // The RSA keys sign the transaction whatever the key-wrap scheme
+        String[] privParts = keys.value("privateKey").split(",");
         BigInteger d = new BigInteger(privParts[0]);
+        BigInteger n = new BigInteger(privParts[1]);
 
         try {
-            BigInteger fileKey = new BigInteger(fernKey.getBytes(StandardCharsets.UTF_8));
-            eFileKey = EncryptDecrypt.encrypt(fileKey, e, n);
+            eFileKey = keyWrap.wrap(fernKey, pubKey);
 
+            Metrics.recordSince("upload.step3", stepStart);
             System.out.println("STEP 3: SUCCESS");
         } catch (Exception ex) {
             throw new RuntimeException("Failed to encrypt the fileKey: " + ex.getMessage(), ex);
@@ -97,27 +95,34 @@ public class Upload {
 
         // STEP 4: UPLOAD FILE TO IPFS AND GET FILE HASH (CID)
         String fileHash;
+        stepStart = System.nanoTime();
 
         try {
-            IPFSUtil ipfsUtil = new IPFSUtil("/ip4/127.0.0.1/tcp/5001");
-            fileHash = ipfsUtil.upload(fileOutPath);
+            FileStorage storage = IPFSUtil.storage();
+            fileHash = storage.upload(fileOutPath);
 
+            Metrics.recordSince("upload.step4", stepStart);
             System.out.println("STEP 4: SUCCESS fileHash: " + fileHash);
         } catch (Exception ex) {
             throw new RuntimeException("Failed to upload on IPFS: " + ex.getMessage(), ex);
         }
 
         // STEP 5: CREATE A TRANSACTION
+        stepStart = System.nanoTime();
         String bFileName = fileName;
         String bFileHash = fileHash;
-        String bEncryptedFileKey = eFileKey.toString();
+        String bEncryptedFileKey = eFileKey;
         String bTransactionType = "upload";
-        Transaction transaction = new Transaction(node, null, bFileName, bFileHash, pubKey, null,
+        // The block refers to the key by its id, the key itself is recorded on the chain once
+        Transaction transaction = new Transaction(node, null, bFileName, bFileHash, NodeKeys.fingerprint(pubKey), null,
                 bEncryptedFileKey, bTransactionType, null, null);
+        transaction.setKeyWrap(keyWrap.scheme());
 
+        Metrics.recordSince("upload.step5", stepStart);
         System.out.println("STEP 5: SUCCESS");
 
         // STEP 6: SIGN TRANSACTION WITH USER'S PRIVATE KEY
+        stepStart = System.nanoTime();
         try {
             String transactionStr = transaction.toString();
             // Convert the transaction string to a BigInteger
@@ -132,6 +137,7 @@ public class Upload {
 
             // Convert signedTransaction to string and set it in the transaction
             transaction.setCreatorSign(signedTransaction);
+            Metrics.recordSince("upload.step6", stepStart);
             System.out.println("STEP 6: SUCCESS creatorsSign");
 
         } catch (Exception ex) {
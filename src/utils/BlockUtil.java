@@ -5,52 +5,70 @@ import com.google.gson.reflect.TypeToken;
 import models.*;
 import com.google.gson.Gson;
 
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class BlockUtil {
 
     public static String calculateMerkleRoot(List<List<NodeInfo>> nodeInfos, List<VoteInfo> voteInfos) {
-        List<String> transactions = new ArrayList<>();
+        // Leaves are the SHA-256 of the canonical encoding of each node and vote
+        List<byte[]> transactions = new ArrayList<>();
 
         for (List<NodeInfo> group : nodeInfos) {
             for (NodeInfo node : group) {
-                transactions.add(node.toString());
+                transactions.add(CanonicalEncoder.get().writeNodeInfo(node).digest());
             }
         }
 
         // Defensive copy to avoid ConcurrentModificationException
         List<VoteInfo> voteInfosCopy = new ArrayList<>(voteInfos);
         for (VoteInfo vote : voteInfosCopy) {
-            transactions.add(vote.toString());
+            transactions.add(CanonicalEncoder.get().writeVoteInfo(vote).digest());
         }
 
         while (transactions.size() > 1) {
-            List<String> newLevel = new ArrayList<>(); // Create a new list for the next level
+            List<byte[]> newLevel = new ArrayList<>((transactions.size() + 1) / 2); // Create a new list for the next level
             for (int i = 0; i < transactions.size(); i += 2) {
-                String left = transactions.get(i);
-                String right = (i + 1 < transactions.size()) ? transactions.get(i + 1) : left;
-                newLevel.add(HashUtil.generateSHA256(left + right));
+                byte[] left = transactions.get(i);
+                byte[] right = (i + 1 < transactions.size()) ? transactions.get(i + 1) : left;
+                MessageDigest md = HashUtil.sha256();
+                md.update(left);
+                md.update(right);
+                newLevel.add(md.digest());
             }
             transactions = newLevel; // Replace the old list with the new one
         }
 
-        return transactions.isEmpty() ? "" : transactions.get(0);
+        return transactions.isEmpty() ? "" : HashUtil.toHex(transactions.get(0));
     }
 
     public static String calculateFICBlockHash(int index, long timestamp, String prevHash, String merkleRoot) {
-        String dataToHash = index + "|" + timestamp + "|" + prevHash + "|" + merkleRoot;
-        return HashUtil.generateSHA256(dataToHash);
+        return CanonicalEncoder.get()
+                .writeInt(index)
+                .writeLong(timestamp)
+                .writeString(prevHash)
+                .writeString(merkleRoot)
+                .hexDigest();
     }
 
     public static String calculateFTCBlockHash(int index, long timestamp, FileInfo fileInfo, List<UserInfo> userInfo, Transaction transactions, String prevHash) {
-        // Assuming fileInfo, userInfo, and transactions have a proper toString() method
-        String fileInfoString = fileInfo != null ? fileInfo.toString() : "";
-        String userInfoString = userInfo != null ? userInfo.toString() : "";
-        String transactionsString = transactions != null ? transactions.toString() : "";
+        return calculateFTCBlockHash(index, timestamp, fileInfo, userInfo, transactions, prevHash, null);
+    }
 
-        String dataToHash = index + "|" + timestamp + "|" + fileInfoString + "|" + userInfoString + "|" + transactionsString + "|" + prevHash;
-        return HashUtil.generateSHA256(dataToHash);
+    public static String calculateFTCBlockHash(int index, long timestamp, FileInfo fileInfo, List<UserInfo> userInfo, Transaction transactions, String prevHash,
+                                               Map<String, String> publicKeys) {
+        // Canonical binary encoding streamed into the digest, no JSON involved
+        return CanonicalEncoder.get()
+                .writeInt(index)
+                .writeLong(timestamp)
+                .writeFileInfo(fileInfo)
+                .writeUserInfos(userInfo)
+                .writeTransaction(transactions)
+                .writeString(prevHash)
+                .writePublicKeys(publicKeys)
+                .hexDigest();
     }
 
     public static List<List<NodeInfo>> parseNodeInfos(String nodeInfosString) {
@@ -59,7 +77,7 @@ public class BlockUtil {
         }
 
         try {
-            Gson gson = new Gson();
+            Gson gson = GsonUtil.GSON;
             // Assuming nodeInfos is a list of lists of NodeInfo
             return gson.fromJson(nodeInfosString, new TypeToken<List<List<NodeInfo>>>(){}.getType());
         } catch (JsonSyntaxException e) {
@@ -73,7 +91,7 @@ public class BlockUtil {
         }
 
         try {
-            Gson gson = new Gson();
+            Gson gson = GsonUtil.GSON;
             return gson.fromJson(voteInfosString, new TypeToken<List<VoteInfo>>(){}.getType());
         } catch (JsonSyntaxException e) {
             throw new IllegalArgumentException("Failed to parse voteInfos: " + e.getMessage(), e);
@@ -86,7 +104,7 @@ public class BlockUtil {
                 return null;
             }
 
-            Gson gson = new Gson();
+            Gson gson = GsonUtil.GSON;
             return gson.fromJson(transactionString, Transaction.class);
 
         } catch (Exception e) {
@@ -101,7 +119,7 @@ public class BlockUtil {
                 return new ArrayList<>();  // Return an empty list if input is empty or null
             }
 
-            Gson gson = new Gson();
+            Gson gson = GsonUtil.GSON;
             // Use Gson to deserialize the string into a List of UserInfo objects
             return gson.fromJson(userInfosString, new TypeToken<List<UserInfo>>(){}.getType());
         } catch (Exception e) {
@@ -116,7 +134,7 @@ public class BlockUtil {
                 return null;  // Return null if input is empty or null
             }
 
-            Gson gson = new Gson();
+            Gson gson = GsonUtil.GSON;
             // Deserialize the fileInfoString into a FileInfo object
             return gson.fromJson(fileInfoString, FileInfo.class);
         } catch (Exception e) {
@@ -131,7 +149,7 @@ public class BlockUtil {
                 return null;  // Return null if input is empty or null
             }
 
-            Gson gson = new Gson();
+            Gson gson = GsonUtil.GSON;
             // Deserialize the nodeInfoString into a NodeInfo object
             return gson.fromJson(nodeInfoString, NodeInfo.class);
         } catch (Exception e) {
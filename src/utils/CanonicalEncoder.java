@@ -0,0 +1,219 @@
+package utils;
+
+import models.FileInfo;
+import models.NodeInfo;
+import models.Transaction;
+import models.UserInfo;
+import models.VoteInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Canonical binary encoding of the models, streamed straight into a SHA-256 digest.
+ * <p>
+ * Every record starts with a one byte tag, strings are written as their UTF-8 length followed by
+ * the bytes (length -1 for null), numbers as big-endian ints / longs and doubles as their IEEE bits,
+ * lists as their size followed by the elements. The result does not depend on Gson or field order,
+ * and nothing is built as an intermediate String. Each thread reuses one encoder and its buffer.
+ */
+public class CanonicalEncoder {
+    private static final byte NULL_TAG = 0;
+    private static final byte NODE_INFO_TAG = 'N';
+    private static final byte VOTE_INFO_TAG = 'V';
+    private static final byte FILE_INFO_TAG = 'F';
+    private static final byte USER_INFO_TAG = 'U';
+    private static final byte TRANSACTION_TAG = 'T';
+    private static final byte WRAPPED_TRANSACTION_TAG = 'W'; // A transaction with a recorded key-wrap scheme
+    private static final byte PUBLIC_KEYS_TAG = 'K';
+
+    private static final ThreadLocal<CanonicalEncoder> ENCODER = ThreadLocal.withInitial(CanonicalEncoder::new);
+
+    private final MessageDigest digest = HashUtil.newSHA256();
+    private final byte[] buffer = new byte[4096];
+    private int position = 0;
+
+    private CanonicalEncoder() {
+    }
+
+    // The calling thread's encoder, with an empty digest
+    public static CanonicalEncoder get() {
+        CanonicalEncoder encoder = ENCODER.get();
+        encoder.position = 0;
+        encoder.digest.reset();
+        return encoder;
+    }
+
+    public CanonicalEncoder writeByte(byte value) {
+        ensureRoom(1);
+        buffer[position++] = value;
+        return this;
+    }
+
+    public CanonicalEncoder writeInt(int value) {
+        ensureRoom(4);
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    public CanonicalEncoder writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        return writeInt((int) value);
+    }
+
+    public CanonicalEncoder writeDouble(double value) {
+        return writeLong(Double.doubleToLongBits(value));
+    }
+
+    public CanonicalEncoder writeBytes(byte[] bytes) {
+        writeInt(bytes.length);
+        return writeRaw(bytes, 0, bytes.length);
+    }
+
+    public CanonicalEncoder writeString(String value) {
+        if (value == null) {
+            return writeInt(-1);
+        }
+
+        // Fast path for ASCII, which covers ids, hashes and the decimal keys and signatures
+        int length = value.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+        if (!ascii) {
+            return writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        writeInt(length);
+        for (int i = 0; i < length; i++) {
+            if (position == buffer.length) {
+                flush();
+            }
+            buffer[position++] = (byte) value.charAt(i);
+        }
+        return this;
+    }
+
+    public CanonicalEncoder writeNodeInfo(NodeInfo nodeInfo) {
+        if (nodeInfo == null) {
+            return writeByte(NULL_TAG);
+        }
+        return writeByte(NODE_INFO_TAG)
+                .writeString(nodeInfo.getNodeId())
+                .writeInt(nodeInfo.getNodePort())
+                .writeDouble(nodeInfo.getEfficiencyScore())
+                .writeDouble(nodeInfo.getReputationScore());
+    }
+
+    public CanonicalEncoder writeVoteInfo(VoteInfo voteInfo) {
+        if (voteInfo == null) {
+            return writeByte(NULL_TAG);
+        }
+        return writeByte(VOTE_INFO_TAG)
+                .writeString(voteInfo.getVoterId())
+                .writeString(voteInfo.getCandidateId())
+                .writeDouble(voteInfo.getVoteWeight());
+    }
+
+    public CanonicalEncoder writeFileInfo(FileInfo fileInfo) {
+        if (fileInfo == null) {
+            return writeByte(NULL_TAG);
+        }
+        return writeByte(FILE_INFO_TAG)
+                .writeString(fileInfo.getFileName())
+                .writeString(fileInfo.getFileHash())
+                .writeString(fileInfo.getEncryptedFileKey());
+    }
+
+    public CanonicalEncoder writeUserInfo(UserInfo userInfo) {
+        if (userInfo == null) {
+            return writeByte(NULL_TAG);
+        }
+        return writeByte(USER_INFO_TAG)
+                .writeString(userInfo.getPublicKey())
+                .writeString(userInfo.getEncryptedFileKey());
+    }
+
+    public CanonicalEncoder writeUserInfos(List<UserInfo> userInfos) {
+        if (userInfos == null) {
+            return writeInt(-1);
+        }
+        writeInt(userInfos.size());
+        for (UserInfo userInfo : userInfos) {
+            writeUserInfo(userInfo);
+        }
+        return this;
+    }
+
+    public CanonicalEncoder writeTransaction(Transaction transaction) {
+        if (transaction == null) {
+            return writeByte(NULL_TAG);
+        }
+        // Transactions without a scheme keep their encoding, so the hashes of older blocks do not change
+        writeByte(transaction.getKeyWrap() == null ? TRANSACTION_TAG : WRAPPED_TRANSACTION_TAG)
+                .writeNodeInfo(transaction.getSender())
+                .writeNodeInfo(transaction.getReceiver())
+                .writeString(transaction.getFileName())
+                .writeString(transaction.getFileHash())
+                .writeString(transaction.getSenderPublicKey())
+                .writeString(transaction.getReceiverPublicKey())
+                .writeString(transaction.getEncryptedFileKey())
+                .writeString(transaction.getTransactionType())
+                .writeString(transaction.getCreatorSign())
+                .writeString(transaction.getValidatorSign());
+        return transaction.getKeyWrap() == null ? this : writeString(transaction.getKeyWrap());
+    }
+
+    // Public keys recorded by a block in key id order; nothing for none, so the hashes of older blocks do not change
+    public CanonicalEncoder writePublicKeys(Map<String, String> publicKeys) {
+        if (publicKeys == null || publicKeys.isEmpty()) {
+            return this;
+        }
+        writeByte(PUBLIC_KEYS_TAG).writeInt(publicKeys.size());
+        Map<String, String> sorted = publicKeys instanceof SortedMap ? publicKeys : new TreeMap<>(publicKeys);
+        sorted.forEach((keyId, publicKey) -> writeString(keyId).writeString(publicKey));
+        return this;
+    }
+
+    // SHA-256 of everything written since get()
+    public byte[] digest() {
+        flush();
+        return digest.digest();
+    }
+
+    public String hexDigest() {
+        return HashUtil.toHex(digest());
+    }
+
+    private CanonicalEncoder writeRaw(byte[] bytes, int offset, int length) {
+        if (length > buffer.length - position) {
+            flush();
+            digest.update(bytes, offset, length);
+            return this;
+        }
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    private void ensureRoom(int bytes) {
+        if (buffer.length - position < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (position > 0) {
+            digest.update(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
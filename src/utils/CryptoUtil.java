@@ -0,0 +1,96 @@
+package utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Reusable crypto objects, like the digests in {@link HashUtil}. Looking up a {@link Cipher} or {@link Mac}
+ * in the providers and seeding a new {@link SecureRandom} cost more than encrypting a small file, so
+ * every thread keeps one instance of each transformation and all threads share one strong RNG.
+ * <p>
+ * The instances are returned uninitialized or in whatever state the last user left them: callers
+ * must {@code init} them with their key before use, and must not hold on to them across calls that
+ * may use the same transformation. Random bytes for IVs and keys are taken from a per-thread buffer
+ * that is refilled from the shared RNG in blocks, so threads rarely contend on it.
+ */
+public class CryptoUtil {
+    private static final int RANDOM_BUFFER_SIZE = 4096;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<Cipher> AES_CBC = ThreadLocal.withInitial(() -> newCipher("AES/CBC/PKCS5Padding"));
+    private static final ThreadLocal<Cipher> AES_GCM = ThreadLocal.withInitial(() -> newCipher("AES/GCM/NoPadding"));
+    private static final ThreadLocal<Mac> HMAC_SHA256 = ThreadLocal.withInitial(CryptoUtil::newHmacSHA256);
+    private static final ThreadLocal<RandomBuffer> RANDOM_BUFFER = ThreadLocal.withInitial(RandomBuffer::new);
+
+    // Random bytes pre-generated for one thread
+    private static final class RandomBuffer {
+        final byte[] bytes = new byte[RANDOM_BUFFER_SIZE];
+        int position = RANDOM_BUFFER_SIZE;
+
+        void nextBytes(byte[] out) {
+            if (out.length > RANDOM_BUFFER_SIZE / 4) {
+                RANDOM.nextBytes(out);
+                return;
+            }
+            if (RANDOM_BUFFER_SIZE - position < out.length) {
+                RANDOM.nextBytes(bytes);
+                position = 0;
+            }
+            System.arraycopy(bytes, position, out, 0, out.length);
+            // Handed out bytes are wiped so they do not stay in memory
+            Arrays.fill(bytes, position, position + out.length, (byte) 0);
+            position += out.length;
+        }
+    }
+
+    // The calling thread's AES/CBC/PKCS5Padding cipher
+    public static Cipher aesCbc() {
+        return AES_CBC.get();
+    }
+
+    // The calling thread's AES/GCM/NoPadding cipher
+    public static Cipher aesGcm() {
+        return AES_GCM.get();
+    }
+
+    // The calling thread's HmacSHA256, reset after every doFinal()
+    public static Mac hmacSHA256() {
+        return HMAC_SHA256.get();
+    }
+
+    // Fills bytes with random bytes for IVs and keys, from the calling thread's buffer
+    public static void randomBytes(byte[] bytes) {
+        RANDOM_BUFFER.get().nextBytes(bytes);
+    }
+
+    public static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        randomBytes(bytes);
+        return bytes;
+    }
+
+    // The shared RNG, for APIs that take a SecureRandom
+    public static SecureRandom secureRandom() {
+        return RANDOM;
+    }
+
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Mac newHmacSHA256() {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
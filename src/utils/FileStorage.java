@@ -0,0 +1,24 @@
+package utils;
+
+import java.io.IOException;
+
+// Content addressed storage for the encrypted files, IPFS in a real network
+public interface FileStorage {
+    /**
+     * Stores a file.
+     *
+     * @param filePath The path of the file to store.
+     * @return The content id (CID) of the file.
+     * @throws IOException If the file could not be read or stored.
+     */
+    String upload(String filePath) throws IOException;
+
+    /**
+     * Fetches a file by its content id and writes it to outputPath.
+     *
+     * @param cid The content id returned by upload.
+     * @param outputPath Where to write the file.
+     * @throws IOException If the file could not be fetched or written.
+     */
+    void download(String cid, String outputPath) throws IOException;
+}
@@ -0,0 +1,13 @@
+package utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Shared Gson instances. Gson is thread-safe, so building it once saves re-resolving the
+ * reflection metadata on every call; the models and blocks use the adapters from {@link ModelTypeAdapters}.
+ */
+public class GsonUtil {
+    public static final Gson GSON = ModelTypeAdapters.register(new GsonBuilder()).create();
+    public static final Gson PRETTY_GSON = ModelTypeAdapters.register(new GsonBuilder()).setPrettyPrinting().create();
+}
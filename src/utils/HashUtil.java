@@ -5,23 +5,38 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class HashUtil {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // One MessageDigest per thread, reset after every digest() call
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(HashUtil::newSHA256);
+
     public static String generateSHA256(String input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] encodedHash = md.digest(input.getBytes(StandardCharsets.UTF_8));
-            // Convert byte array into a hexadecimal string
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : encodedHash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
+        byte[] encodedHash = sha256().digest(input.getBytes(StandardCharsets.UTF_8));
+        // Convert byte array into a hexadecimal string
+        return toHex(encodedHash);
+    }
+
+    // The calling thread's SHA-256 digest, ready for use
+    public static MessageDigest sha256() {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return md;
+    }
 
+    public static MessageDigest newSHA256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
     }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
 }
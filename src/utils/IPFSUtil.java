@@ -4,6 +4,7 @@ import io.ipfs.api.IPFS;
 import io.ipfs.api.MerkleNode;
 import io.ipfs.api.NamedStreamable;
 import io.ipfs.multihash.Multihash;
+import metrics.Metrics;
 
 import java.io.File;
 import java.io.IOException;
@@ -11,23 +12,51 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
-public class IPFSUtil {
+public class IPFSUtil implements FileStorage {
+    private static final String DEFAULT_MULTIADDR = "/ip4/127.0.0.1/tcp/5001";
+    private static volatile FileStorage storage; // Storage used by upload and download, the local IPFS daemon by default
+
     private final IPFS ipfs;
 
     public IPFSUtil(String multiaddr) {
         this.ipfs = new IPFS(multiaddr);
     }
 
+    // The storage for encrypted files, connects to the local IPFS daemon on first use
+    public static FileStorage storage() {
+        FileStorage current = storage;
+        if (current == null) {
+            synchronized (IPFSUtil.class) {
+                if (storage == null) {
+                    storage = new IPFSUtil(DEFAULT_MULTIADDR);
+                }
+                current = storage;
+            }
+        }
+        return current;
+    }
+
+    // Replaces the storage, e.g. with an in-memory one for simulations
+    public static void setStorage(FileStorage fileStorage) {
+        storage = fileStorage;
+    }
+
+    @Override
     public String upload(String filePath) throws IOException {
+        long start = System.nanoTime();
         File file = new File(filePath);
         NamedStreamable.FileWrapper fileWrapper = new NamedStreamable.FileWrapper(file);
         MerkleNode addResult = ipfs.add(fileWrapper).get(0);
+        Metrics.recordTransfer("ipfs.upload", file.length(), start);
         return addResult.hash.toBase58();
     }
 
+    @Override
     public void download(String cid, String outputPath) throws IOException {
+        long start = System.nanoTime();
         Multihash filePointer = Multihash.fromBase58(cid);
         byte[] fileContents = ipfs.cat(filePointer);
+        Metrics.recordTransfer("ipfs.download", fileContents.length, start);
         Path path = Paths.get(outputPath);
         Files.write(path, fileContents);
     }
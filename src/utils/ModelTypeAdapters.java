@@ -0,0 +1,475 @@
+package utils;
+
+import blockchain.FICBlock;
+import blockchain.FTCBlock;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import models.CommitCertificate;
+import models.CommitVote;
+import models.FileInfo;
+import models.NodeInfo;
+import models.Transaction;
+import models.UserInfo;
+import models.VoteInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written streaming Gson adapters for the models and blocks.
+ * <p>
+ * They write the same JSON as Gson's reflection (same field names and order, null fields left out)
+ * but read and write fields directly, so no reflection runs on the hot path. Unknown fields are skipped.
+ */
+public class ModelTypeAdapters {
+
+    public static GsonBuilder register(GsonBuilder builder) {
+        return builder
+                .registerTypeAdapter(NodeInfo.class, NODE_INFO.nullSafe())
+                .registerTypeAdapter(VoteInfo.class, VOTE_INFO.nullSafe())
+                .registerTypeAdapter(FileInfo.class, FILE_INFO.nullSafe())
+                .registerTypeAdapter(UserInfo.class, USER_INFO.nullSafe())
+                .registerTypeAdapter(Transaction.class, TRANSACTION.nullSafe())
+                .registerTypeAdapter(CommitVote.class, COMMIT_VOTE.nullSafe())
+                .registerTypeAdapter(CommitCertificate.class, COMMIT_CERTIFICATE.nullSafe())
+                .registerTypeAdapter(FICBlock.class, FIC_BLOCK.nullSafe())
+                .registerTypeAdapter(FTCBlock.class, FTC_BLOCK.nullSafe());
+    }
+
+    static final TypeAdapter<NodeInfo> NODE_INFO = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, NodeInfo value) throws IOException {
+            out.beginObject();
+            out.name("nodeId").value(value.getNodeId());
+            out.name("nodePort").value(value.getNodePort());
+            out.name("efficiencyScore").value(value.getEfficiencyScore());
+            out.name("reputationScore").value(value.getReputationScore());
+            out.endObject();
+        }
+
+        @Override
+        public NodeInfo read(JsonReader in) throws IOException {
+            String nodeId = null;
+            int nodePort = 0;
+            double efficiencyScore = 0;
+            double reputationScore = 0;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "nodeId" -> nodeId = readString(in);
+                    case "nodePort" -> nodePort = in.nextInt();
+                    case "efficiencyScore" -> efficiencyScore = in.nextDouble();
+                    case "reputationScore" -> reputationScore = in.nextDouble();
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new NodeInfo(nodeId, nodePort, efficiencyScore, reputationScore);
+        }
+    };
+
+    static final TypeAdapter<VoteInfo> VOTE_INFO = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, VoteInfo value) throws IOException {
+            out.beginObject();
+            out.name("voterId").value(value.getVoterId());
+            out.name("candidateId").value(value.getCandidateId());
+            out.name("voteWeight").value(value.getVoteWeight());
+            out.endObject();
+        }
+
+        @Override
+        public VoteInfo read(JsonReader in) throws IOException {
+            String voterId = null;
+            String candidateId = null;
+            double voteWeight = 0;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "voterId" -> voterId = readString(in);
+                    case "candidateId" -> candidateId = readString(in);
+                    case "voteWeight" -> voteWeight = in.nextDouble();
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new VoteInfo(voterId, candidateId, voteWeight);
+        }
+    };
+
+    static final TypeAdapter<FileInfo> FILE_INFO = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, FileInfo value) throws IOException {
+            out.beginObject();
+            out.name("fileName").value(value.getFileName());
+            out.name("fileHash").value(value.getFileHash());
+            out.name("encryptedFileKey").value(value.getEncryptedFileKey());
+            out.endObject();
+        }
+
+        @Override
+        public FileInfo read(JsonReader in) throws IOException {
+            String fileName = null;
+            String fileHash = null;
+            String encryptedFileKey = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "fileName" -> fileName = readString(in);
+                    case "fileHash" -> fileHash = readString(in);
+                    case "encryptedFileKey" -> encryptedFileKey = readString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new FileInfo(fileName, fileHash, encryptedFileKey);
+        }
+    };
+
+    static final TypeAdapter<UserInfo> USER_INFO = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, UserInfo value) throws IOException {
+            out.beginObject();
+            out.name("publicKey").value(value.getPublicKey());
+            out.name("encryptedFileKey").value(value.getEncryptedFileKey());
+            out.endObject();
+        }
+
+        @Override
+        public UserInfo read(JsonReader in) throws IOException {
+            String publicKey = null;
+            String encryptedFileKey = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "publicKey" -> publicKey = readString(in);
+                    case "encryptedFileKey" -> encryptedFileKey = readString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new UserInfo(publicKey, encryptedFileKey);
+        }
+    };
+
+    static final TypeAdapter<Transaction> TRANSACTION = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, Transaction value) throws IOException {
+            out.beginObject();
+            if (value.getSender() != null) {
+                NODE_INFO.write(out.name("sender"), value.getSender());
+            }
+            if (value.getReceiver() != null) {
+                NODE_INFO.write(out.name("receiver"), value.getReceiver());
+            }
+            out.name("fileName").value(value.getFileName());
+            out.name("fileHash").value(value.getFileHash());
+            out.name("senderPublicKey").value(value.getSenderPublicKey());
+            out.name("receiverPublicKey").value(value.getReceiverPublicKey());
+            out.name("encryptedFileKey").value(value.getEncryptedFileKey());
+            out.name("transactionType").value(value.getTransactionType());
+            out.name("creatorSign").value(value.getCreatorSign());
+            out.name("validatorSign").value(value.getValidatorSign());
+            if (value.getKeyWrap() != null) {
+                out.name("keyWrap").value(value.getKeyWrap());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Transaction read(JsonReader in) throws IOException {
+            NodeInfo sender = null;
+            NodeInfo receiver = null;
+            String fileName = null;
+            String fileHash = null;
+            String senderPublicKey = null;
+            String receiverPublicKey = null;
+            String encryptedFileKey = null;
+            String transactionType = null;
+            String creatorSign = null;
+            String validatorSign = null;
+            String keyWrap = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "sender" -> sender = readNullable(in, NODE_INFO);
+                    case "receiver" -> receiver = readNullable(in, NODE_INFO);
+                    case "fileName" -> fileName = readString(in);
+                    case "fileHash" -> fileHash = readString(in);
+                    case "senderPublicKey" -> senderPublicKey = readString(in);
+                    case "receiverPublicKey" -> receiverPublicKey = readString(in);
+                    case "encryptedFileKey" -> encryptedFileKey = readString(in);
+                    case "transactionType" -> transactionType = readString(in);
+                    case "creatorSign" -> creatorSign = readString(in);
+                    case "validatorSign" -> validatorSign = readString(in);
+                    case "keyWrap" -> keyWrap = readString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            Transaction transaction = new Transaction(sender, receiver, fileName, fileHash, senderPublicKey, receiverPublicKey,
+                    encryptedFileKey, transactionType, creatorSign, validatorSign);
+            transaction.setKeyWrap(keyWrap);
+            return transaction;
+        }
+    };
+
+    static final TypeAdapter<CommitVote> COMMIT_VOTE = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, CommitVote value) throws IOException {
+            out.beginObject();
+            out.name("voterId").value(value.getVoterId());
+            out.name("blockHash").value(value.getBlockHash());
+            out.name("signature").value(value.getSignature());
+            out.endObject();
+        }
+
+        @Override
+        public CommitVote read(JsonReader in) throws IOException {
+            String voterId = null;
+            String blockHash = null;
+            String signature = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "voterId" -> voterId = readString(in);
+                    case "blockHash" -> blockHash = readString(in);
+                    case "signature" -> signature = readString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+
+            // A vote without them can't be checked, and certificates compare voters and hashes with equals
+            if (voterId == null || blockHash == null || signature == null) {
+                throw new JsonParseException("Commit vote without voterId, blockHash or signature");
+            }
+            return new CommitVote(voterId, blockHash, signature);
+        }
+    };
+
+    static final TypeAdapter<CommitCertificate> COMMIT_CERTIFICATE = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, CommitCertificate value) throws IOException {
+            out.beginObject();
+            out.name("blockHash").value(value.getBlockHash());
+            out.name("votes");
+            writeList(out, value.getVotes(), COMMIT_VOTE);
+            out.endObject();
+        }
+
+        @Override
+        public CommitCertificate read(JsonReader in) throws IOException {
+            String blockHash = null;
+            List<CommitVote> votes = new ArrayList<>();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "blockHash" -> blockHash = readString(in);
+                    case "votes" -> votes = readList(in, COMMIT_VOTE);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+
+            if (blockHash == null) {
+                throw new JsonParseException("Commit certificate without blockHash");
+            }
+            CommitCertificate certificate = new CommitCertificate(blockHash);
+            for (CommitVote vote : votes) {
+                certificate.addVote(vote);
+            }
+            return certificate;
+        }
+    };
+
+    static final TypeAdapter<FICBlock> FIC_BLOCK = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, FICBlock value) throws IOException {
+            out.beginObject();
+            out.name("index").value(value.getIndex());
+            out.name("timestamp").value(value.getTimestamp());
+            out.name("prevHash").value(value.getPrevHash());
+            if (value.getNodeInfos() != null) {
+                out.name("nodeInfos").beginArray();
+                for (List<NodeInfo> group : value.getNodeInfos()) {
+                    writeList(out, group, NODE_INFO);
+                }
+                out.endArray();
+            }
+            if (value.getVoteInfos() != null) {
+                out.name("voteInfos");
+                writeList(out, value.getVoteInfos(), VOTE_INFO);
+            }
+            out.name("merkleRoot").value(value.getMerkleRoot());
+            out.name("hash").value(value.getHash());
+            out.endObject();
+        }
+
+        @Override
+        public FICBlock read(JsonReader in) throws IOException {
+            int index = 0;
+            long timestamp = 0;
+            String prevHash = null;
+            List<List<NodeInfo>> nodeInfos = null;
+            List<VoteInfo> voteInfos = null;
+            String merkleRoot = null;
+            String hash = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "index" -> index = in.nextInt();
+                    case "timestamp" -> timestamp = in.nextLong();
+                    case "prevHash" -> prevHash = readString(in);
+                    case "nodeInfos" -> {
+                        nodeInfos = new ArrayList<>();
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            nodeInfos.add(readList(in, NODE_INFO));
+                        }
+                        in.endArray();
+                    }
+                    case "voteInfos" -> voteInfos = readList(in, VOTE_INFO);
+                    case "merkleRoot" -> merkleRoot = readString(in);
+                    case "hash" -> hash = readString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new FICBlock(index, timestamp, nodeInfos, voteInfos, prevHash, merkleRoot, hash);
+        }
+    };
+
+    static final TypeAdapter<FTCBlock> FTC_BLOCK = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, FTCBlock value) throws IOException {
+            out.beginObject();
+            out.name("index").value(value.getIndex());
+            out.name("timestamp").value(value.getTimestamp());
+            if (value.getFileInfo() != null) {
+                FILE_INFO.write(out.name("fileInfo"), value.getFileInfo());
+            }
+            if (value.getUserInfos() != null) {
+                out.name("userInfos");
+                writeList(out, value.getUserInfos(), USER_INFO);
+            }
+            if (value.getTransactions() != null) {
+                TRANSACTION.write(out.name("transactions"), value.getTransactions());
+            }
+            out.name("prevHash").value(value.getPrevHash());
+            out.name("hash").value(value.getHash());
+            if (value.getPublicKeys() != null) {
+                out.name("publicKeys").beginObject();
+                for (Map.Entry<String, String> publicKey : value.getPublicKeys().entrySet()) {
+                    out.name(publicKey.getKey()).value(publicKey.getValue());
+                }
+                out.endObject();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public FTCBlock read(JsonReader in) throws IOException {
+            int index = 0;
+            long timestamp = 0;
+            FileInfo fileInfo = null;
+            List<UserInfo> userInfos = null;
+            Transaction transactions = null;
+            String prevHash = null;
+            String hash = null;
+            Map<String, String> publicKeys = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "index" -> index = in.nextInt();
+                    case "timestamp" -> timestamp = in.nextLong();
+                    case "fileInfo" -> fileInfo = readNullable(in, FILE_INFO);
+                    case "userInfos" -> userInfos = readList(in, USER_INFO);
+                    case "transactions" -> transactions = readNullable(in, TRANSACTION);
+                    case "prevHash" -> prevHash = readString(in);
+                    case "hash" -> hash = readString(in);
+                    case "publicKeys" -> publicKeys = readStringMap(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new FTCBlock(index, timestamp, fileInfo, userInfos, transactions, prevHash, hash, publicKeys);
+        }
+    };
+
+    private static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static Map<String, String> readStringMap(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            values.put(in.nextName(), readString(in));
+        }
+        in.endObject();
+        return values;
+    }
+
+    private static <T> T readNullable(JsonReader in, TypeAdapter<T> adapter) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return adapter.read(in);
+    }
+
+    private static <T> void writeList(JsonWriter out, List<T> values, TypeAdapter<T> adapter) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (T value : values) {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                adapter.write(out, value);
+            }
+        }
+        out.endArray();
+    }
+
+    private static <T> List<T> readList(JsonReader in, TypeAdapter<T> adapter) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<T> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(readNullable(in, adapter));
+        }
+        in.endArray();
+        return values;
+    }
+}
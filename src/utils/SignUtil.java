@@ -0,0 +1,119 @@
+package utils;
+
+import keystore.KeyStore;
+import logging.Log;
+import models.CommitCertificate;
+import models.CommitVote;
+import rsa.EncryptDecrypt;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Signs and verifies COMMIT votes.
+ * <p>
+ * A vote is signed with the voter's RSA private key from the keystore, over the SHA-256
+ * of "voterId|blockHash". Every voter needs keys: a node without a private key does not vote, and votes
+ * that do not verify, e.g. from a voter without a public key, do not count towards a certificate's quorum.
+ * Parsed keys are cached, missing keys are looked up again on the next vote, so keys provisioned while a
+ * node runs take effect.
+ */
+public class SignUtil {
+    private static final Map<String, BigInteger[]> keyCache = new ConcurrentHashMap<>(); // nodeId -> {e, d, n}
+
+    // The voter's signed vote, null if it has no RSA private key and so cannot vote
+    public static CommitVote signVote(String voterId, String blockHash) {
+        Optional<BigInteger[]> keys = getKeys(voterId).filter(key -> key[1] != null);
+        if (keys.isEmpty()) {
+            Log.warn("SIGN", "No RSA private key, not voting", "node", voterId, "hash", blockHash);
+            return null;
+        }
+        BigInteger[] key = keys.get();
+        return new CommitVote(voterId, blockHash, EncryptDecrypt.sign(digest(voterId, blockHash), key[1], key[2]));
+    }
+
+    public static boolean verifyVote(CommitVote vote) {
+        if (vote == null || vote.getVoterId() == null || vote.getBlockHash() == null || vote.getSignature() == null) {
+            return false;
+        }
+
+        BigInteger digest = digest(vote.getVoterId(), vote.getBlockHash());
+        Optional<BigInteger[]> keys = getKeys(vote.getVoterId());
+
+        if (keys.isEmpty()) {
+            return false;
+        }
+
+        try {
+            BigInteger[] key = keys.get();
+            BigInteger signature = new BigInteger(vote.getSignature());
+            return EncryptDecrypt.encrypt(signature, key[0], key[2]).equals(digest);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks that a certificate is for the given block and holds enough valid votes from distinct allowed voters.
+     * Only votes that verify count, an allowed voter without keys is the same as one that did not vote.
+     *
+     * @param certificate The certificate attached to the block.
+     * @param blockHash Hash of the block the certificate should cover.
+     * @param allowedVoters Node ids that may vote on this block.
+     * @param quorum Number of valid votes needed.
+     * @return true if the certificate is valid.
+     */
+    public static boolean verifyCertificate(CommitCertificate certificate, String blockHash, Set<String> allowedVoters, int quorum) {
+        if (certificate == null || !blockHash.equals(certificate.getBlockHash())) {
+            return false;
+        }
+        Set<String> voters = new HashSet<>();
+        for (CommitVote vote : certificate.getVotes()) {
+            if (!blockHash.equals(vote.getBlockHash()) || !allowedVoters.contains(vote.getVoterId())) {
+                continue;
+            }
+            if (voters.contains(vote.getVoterId()) || !verifyVote(vote)) {
+                continue;
+            }
+            voters.add(vote.getVoterId());
+        }
+        return voters.size() >= quorum;
+    }
+
+    private static BigInteger digest(String voterId, String blockHash) {
+        byte[] hash = HashUtil.sha256().digest((voterId + "|" + blockHash).getBytes(StandardCharsets.UTF_8));
+        return new BigInteger(1, hash);
+    }
+
+    // {e, d, n} from the keystore, d is null if only the public key is known
+    private static Optional<BigInteger[]> getKeys(String nodeId) {
+        BigInteger[] cached = keyCache.get(nodeId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<BigInteger[]> keys = readKeys(nodeId);
+        keys.ifPresent(key -> keyCache.put(nodeId, key));
+        return keys;
+    }
+
+    private static Optional<BigInteger[]> readKeys(String id) {
+        try {
+            return KeyStore.get().find(id)
+                    .filter(keys -> keys.get("publicKey") != null)
+                    .map(keys -> {
+                        String[] parts = keys.get("publicKey").split(",");
+                        String privateKey = keys.get("privateKey");
+                        BigInteger d = privateKey == null ? null : new BigInteger(privateKey.split(",")[0].trim());
+                        return new BigInteger[]{new BigInteger(parts[0].trim()), d, new BigInteger(parts[1].trim())};
+                    });
+        } catch (RuntimeException ex) {
+            Log.warn("SIGN", "Error reading keys", "node", id, "error", ex.getMessage());
+            return Optional.empty();
+        }
+    }
+}